@@ -0,0 +1,155 @@
+package llmthespire.llm;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpServer;
+import llmthespire.LLMConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks gzip negotiation end to end against a local stand-in for a provider.
+ *
+ * The stand-in records the request it receives, gunzips it if it was sent with
+ * Content-Encoding: gzip, and answers with a gzipped chat completion. The request is
+ * written and the answer read through the same pool, RequestBodyWriter, TransferStats
+ * and ResponseDecoder the service uses. Prints the bytes on the wire in each direction
+ * and exits with status 1 if anything did not round-trip. Runs outside the game, from
+ * the bench profile: mvn -Pbench test-compile exec:java -Dexec.mainClass=llmthespire.llm.GzipTransferCheck
+ */
+public class GzipTransferCheck {
+    private static final String CONTENT = "REASON: Bash+ first so the Strikes hit a Vulnerable Jaw Worm.\nACTION: PLAY_CARD 2 0";
+
+    private GzipTransferCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[][] received = new byte[1][];
+        String[] receivedEncoding = new String[1];
+        String[] receivedAcceptEncoding = new String[1];
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            receivedEncoding[0] = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            receivedAcceptEncoding[0] = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            received[0] = readAll(exchange.getRequestBody());
+
+            byte[] response = gzip(completion().getBytes(StandardCharsets.UTF_8));
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        });
+        server.start();
+
+        boolean ok;
+        try {
+            LLMConfig.ApiConfig config = new LLMConfig.ApiConfig("GzipCheck", LLMConfig.ApiType.OPENAI);
+            config.setGzipRequests(true);
+            config.setAcceptGzip(true);
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions");
+            String userPrompt = prompt();
+
+            TransferStats stats = new TransferStats();
+            HttpConnectionPool pool = HttpConnectionPool.getInstance();
+            HttpURLConnection connection = pool.open(config, url);
+            String content;
+            try {
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setDoOutput(true);
+                new RequestBodyWriter(stats).write(connection, config, RequestBodyWriter.Format.OPENAI_CHAT,
+                        "You play Slay the Spire.", Collections.<ChatMessage>emptyList(), userPrompt);
+                int code = connection.getResponseCode();
+                if (code != 200) {
+                    throw new IOException("Stand-in answered " + code);
+                }
+                content = ResponseDecoder.decode(stats.responseStream(connection.getInputStream(), connection.getContentEncoding()),
+                        ResponseDecoder.Format.OPENAI).getContent();
+            } finally {
+                pool.release(connection, true);
+            }
+
+            String body = "gzip".equalsIgnoreCase(receivedEncoding[0])
+                    ? new String(readAll(new GZIPInputStream(new ByteArrayInputStream(received[0]))), StandardCharsets.UTF_8)
+                    : new String(received[0], StandardCharsets.UTF_8);
+            JsonObject request = new Gson().fromJson(body, JsonObject.class);
+            String sentPrompt = request.getAsJsonArray("messages").get(1).getAsJsonObject().get("content").getAsString();
+
+            boolean requestOk = "gzip".equalsIgnoreCase(receivedEncoding[0]) && userPrompt.equals(sentPrompt);
+            boolean responseOk = "gzip".equalsIgnoreCase(receivedAcceptEncoding[0]) && CONTENT.equals(content);
+            System.out.println("request:  Content-Encoding=" + receivedEncoding[0] + ", " + stats.getRequestBytes() +
+                               " bytes, " + received[0].length + " on the wire, prompt " +
+                               (userPrompt.equals(sentPrompt) ? "intact" : "CHANGED"));
+            System.out.println("response: Accept-Encoding=" + receivedAcceptEncoding[0] + ", " + stats.getResponseBytes() +
+                               " bytes, " + stats.getResponseWireBytes() + " on the wire, content " +
+                               (CONTENT.equals(content) ? "intact" : "CHANGED: " + content));
+            ok = requestOk && responseOk;
+        } finally {
+            server.stop(0);
+        }
+        System.out.println(ok ? "OK" : "FAILED");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A prompt of repeated card listings, about 11 KB
+     */
+    private static String prompt() {
+        StringBuilder prompt = new StringBuilder("Current Game State:\nStage: Battle\n\nHand:\n");
+        for (int i = 0; prompt.length() < 11000; i++) {
+            prompt.append(i % 10).append(": ").append(i % 3 == 0 ? "Strike" : i % 3 == 1 ? "Defend" : "Bash+")
+                  .append(" (Cost: 1, Type: ").append(i % 3 == 1 ? "SKILL" : "ATTACK").append(")\n");
+        }
+        return prompt.toString();
+    }
+
+    private static String completion() {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        message.addProperty("content", CONTENT);
+        JsonObject choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("message", message);
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject response = new JsonObject();
+        response.addProperty("id", "chatcmpl-gzip-check");
+        response.add("choices", choices);
+        return response.toString();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
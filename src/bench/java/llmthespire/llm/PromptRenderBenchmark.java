@@ -0,0 +1,70 @@
+package llmthespire.llm;
+
+import llmthespire.game.GameState;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Measures the time and the bytes allocated per rendered state prompt, for the
+ * late-game state of PromptSizeBenchmark, as sent by default and with the
+ * collection, with and without a prompt budget.
+ *
+ * Allocation is read from the HotSpot thread allocation counter, so it is only
+ * reported on JVMs that have one. Runs outside the game, from the bench profile:
+ * mvn -Pbench test-compile exec:java -Dexec.mainClass=llmthespire.llm.PromptRenderBenchmark
+ * -Dexec.args="[iterations]"
+ */
+public class PromptRenderBenchmark {
+    private PromptRenderBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        GameState state = PromptSizeBenchmark.lateGameState();
+        if (state == null) {
+            System.err.println("Could not build the benchmark state");
+            return;
+        }
+
+        StatePrompt prompt = new StatePrompt(new CardDictionary());
+        System.out.println("iterations=" + iterations);
+        run(prompt, state, "default", 0, false, iterations);
+        run(prompt, state, "collection", 0, true, iterations);
+        run(prompt, state, "collection, 1200 tokens", 1200, true, iterations);
+        run(prompt, state, "collection, 300 tokens", 300, true, iterations);
+    }
+
+    private static void run(StatePrompt prompt, GameState state, String name, long budget, boolean collection, int iterations) {
+        // Warm up the JIT and the pooled buffers before measuring
+        int length = 0;
+        for (int i = 0; i < Math.max(1000, iterations / 5); i++) {
+            length += prompt.render(state, budget, collection, new HashSet<String>()).length();
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads
+                : null;
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = allocation != null ? allocation.getThreadAllocatedBytes(thread) : 0;
+        long start = System.nanoTime();
+        String rendered = null;
+        for (int i = 0; i < iterations; i++) {
+            Set<String> codes = new HashSet<>();
+            rendered = prompt.render(state, budget, collection, codes);
+            length += rendered.length();
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = allocation != null ? allocation.getThreadAllocatedBytes(thread) - bytesBefore : -1;
+
+        System.out.println(String.format("%-24s %,8.0f ns/prompt  %s  %,6d chars%s",
+                name,
+                (double) nanos / iterations,
+                bytes >= 0 ? String.format("%,8d bytes/prompt", bytes / iterations) : "allocation n/a",
+                rendered.length(),
+                length == 0 ? " (empty)" : ""));
+    }
+}
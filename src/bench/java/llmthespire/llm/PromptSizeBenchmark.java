@@ -0,0 +1,279 @@
+package llmthespire.llm;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import llmthespire.game.GameState;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares the size of the state prompt for a late-game state with the prompt sent
+ * before cards were encoded as dictionary codes, in characters and estimated tokens:
+ * as sent by default, with the collection (relics, potions and piles) and with the
+ * collection under tight prompt budgets. Also compares the collection written card
+ * by card with its compact encoding, and shows the size of the logged state.
+ *
+ * Runs outside the game, from the bench profile: mvn -Pbench test-compile exec:java
+ * -Dexec.mainClass=llmthespire.llm.PromptSizeBenchmark
+ */
+public class PromptSizeBenchmark {
+    private PromptSizeBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        GameState state = lateGameState();
+        if (state == null) {
+            System.err.println("Could not build the benchmark state");
+            return;
+        }
+
+        int cards = state.drawPile.size() + state.discardPile.size() + state.exhaustPile.size();
+        System.out.println(cards + " cards in the piles, " + state.relics.size() + " relics, " + state.potions.size() + " potions");
+
+        // The whole state prompt, against the one sent before
+        CardDictionary dictionary = new CardDictionary();
+        StatePrompt statePrompt = new StatePrompt(dictionary);
+        String previous = previousPrompt(state);
+        report("previous prompt", previous, null);
+        report("prompt", statePrompt.render(state, 0, false, new HashSet<String>()), previous);
+        report("prompt with collection", statePrompt.render(state, 0, true, new HashSet<String>()), previous);
+        for (long budget : new long[] {400, 200}) {
+            report("  budget " + budget, statePrompt.render(state, budget, true, new HashSet<String>()), previous);
+        }
+
+        // Every card, relic and potion with its own description, as a verbose prompt would list them
+        StringBuilder verbose = new StringBuilder();
+        appendVerbose("Draw Pile", state.drawPile, verbose);
+        appendVerbose("Discard Pile", state.discardPile, verbose);
+        appendVerbose("Exhaust Pile", state.exhaustPile, verbose);
+        verbose.append("Relics:\n");
+        for (GameState.RelicInfo relic : state.relics) {
+            verbose.append("- ").append(relic.name).append(": ").append(CardDictionary.clean(relic.description)).append("\n");
+        }
+        verbose.append("Potions:\n");
+        for (GameState.PotionInfo potion : state.potions) {
+            verbose.append("- ").append(potion.name).append(": ").append(CardDictionary.clean(potion.description)).append("\n");
+        }
+
+        CardDictionary collectionDictionary = new CardDictionary();
+        Set<String> codes = new HashSet<>();
+        StringBuilder compact = new StringBuilder();
+        collectionDictionary.appendCollection(state, compact, codes);
+        int withoutReference = compact.length();
+        collectionDictionary.appendReference(codes, new HashSet<String>(), compact);
+
+        // A later prompt of the same conversation: every code is already described
+        StringBuilder repeat = new StringBuilder();
+        collectionDictionary.appendCollection(state, repeat, new HashSet<String>());
+
+        String baseline = verbose.toString();
+        System.out.println();
+        System.out.println("Collection only, " + codes.size() + " distinct codes:");
+        report("one entry per card", baseline, null);
+        report("compact with reference", compact.toString(), baseline);
+        report("  of which reference", compact.substring(withoutReference), null);
+        report("compact, codes known", repeat.toString(), baseline);
+
+        System.out.println();
+        report("logged state JSON", state.toString(), null);
+    }
+
+    /**
+     * The state prompt as it was before the dictionary encoding: HP, energy, the hand
+     * by name, the monsters and the available actions
+     */
+    private static String previousPrompt(GameState state) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("Current Game State:\n");
+        prompt.append("Stage: ").append(state.stage.getDisplayName()).append("\n");
+        prompt.append("\nPlayer Info:\n");
+        prompt.append("HP: ").append(state.currentHp).append("/").append(state.maxHp).append("\n");
+        if (state.stageInfo instanceof GameState.BattleStageInfo) {
+            prompt.append("Energy: ").append(((GameState.BattleStageInfo) state.stageInfo).energy).append("\n");
+        }
+        prompt.append("Hand Size: ").append(state.hand.size()).append("\n");
+        if (!state.hand.isEmpty()) {
+            prompt.append("\nHand:\n");
+            for (int i = 0; i < state.hand.size(); i++) {
+                GameState.CardInfo card = state.hand.get(i);
+                prompt.append(i).append(": ").append(card.name)
+                      .append(" (Cost: ").append(card.costForTurn).append(", Type: ").append(card.type);
+                if ("ENEMY".equals(card.target) || "SELF_AND_ENEMY".equals(card.target)) {
+                    prompt.append(", Requires Target");
+                }
+                prompt.append(")\n");
+            }
+        }
+        if (state.stageInfo instanceof GameState.BattleStageInfo) {
+            List<GameState.CustomMonsterInfo> monsters = ((GameState.BattleStageInfo) state.stageInfo).monsters;
+            prompt.append("\nMonsters:\n");
+            for (int i = 0; i < monsters.size(); i++) {
+                GameState.CustomMonsterInfo monster = monsters.get(i);
+                prompt.append(i).append(": ").append(monster.name)
+                      .append(" (HP: ").append(monster.currentHp).append("/").append(monster.maxHp)
+                      .append(", Intent: ").append(monster.intent).append(")\n");
+            }
+        }
+        prompt.append("\nAvailable Actions:\n");
+        for (String action : state.availableActions) {
+            prompt.append("- ").append(action).append("\n");
+        }
+        return prompt.toString();
+    }
+
+    private static void report(String name, String text, String baseline) {
+        String change = "";
+        if (baseline != null) {
+            long percent = Math.round(100.0 * (text.length() - baseline.length()) / baseline.length());
+            change = percent == 0 ? "  same size" : String.format("  %d%% %s", Math.abs(percent), percent > 0 ? "larger" : "smaller");
+        }
+        System.out.println(String.format("%-26s %,7d chars  ~%,6d tokens%s", name, text.length(), LLMService.estimateTokens(text), change));
+    }
+
+    private static void appendVerbose(String title, List<GameState.CardInfo> pile, StringBuilder out) {
+        out.append(title).append(":\n");
+        for (GameState.CardInfo card : pile) {
+            String description = card.description
+                    .replace("!D!", String.valueOf(card.baseDamage))
+                    .replace("!B!", String.valueOf(card.baseBlock))
+                    .replace("!M!", String.valueOf(card.magicNumber));
+            out.append("- ").append(card.name).append(" (Cost: ").append(card.cost).append(", Type: ").append(card.type)
+               .append("): ").append(CardDictionary.clean(description)).append("\n");
+        }
+    }
+
+    /**
+     * An Ironclad deck on floor 45: 45 cards spread over the piles, 12 relics and 3 potions,
+     * with a hand of 5 against two monsters
+     */
+    static GameState lateGameState() {
+        JsonArray hand = new JsonArray();
+        addCards(hand, 2, "Strike_R", "Strike", "ATTACK", 1, false, 6, 0, 0, "Deal !D! damage.");
+        addCards(hand, 1, "Defend_R", "Defend+", "SKILL", 1, true, 0, 8, 0, "Gain !B! Block.");
+        addCards(hand, 1, "Whirlwind", "Whirlwind", "ATTACK", -1, false, 5, 0, 0, "Deal !D! damage to ALL enemies X times.");
+        addCards(hand, 1, "Shockwave", "Shockwave", "SKILL", 2, false, 0, 0, 3, "Apply !M! #yWeak and #yVulnerable to ALL enemies. NL #yExhaust.");
+        for (int i = 0; i < 2; i++) {
+            hand.get(i).getAsJsonObject().addProperty("target", "ENEMY");
+        }
+
+        JsonArray monsters = new JsonArray();
+        addMonster(monsters, "Giant Head", 412, 500, "ATTACK");
+        addMonster(monsters, "Nemesis", 155, 185, "ATTACK_DEBUFF");
+        JsonObject battle = new JsonObject();
+        battle.addProperty("energy", 3);
+        battle.addProperty("turn", 4);
+        battle.addProperty("roomType", "ELITE");
+        battle.add("monsters", monsters);
+
+        JsonArray actions = new JsonArray();
+        actions.add(new JsonPrimitive("END_TURN"));
+        actions.add(new JsonPrimitive("PLAY_CARD [index]"));
+        actions.add(new JsonPrimitive("USE_POTION [index]"));
+
+        JsonArray draw = new JsonArray();
+        JsonArray discard = new JsonArray();
+        JsonArray exhaust = new JsonArray();
+        addCards(draw, 4, "Strike_R", "Strike", "ATTACK", 1, false, 6, 0, 0, "Deal !D! damage.");
+        addCards(draw, 2, "Strike_R", "Strike+", "ATTACK", 1, true, 9, 0, 0, "Deal !D! damage.");
+        addCards(draw, 4, "Defend_R", "Defend", "SKILL", 1, false, 0, 5, 0, "Gain !B! Block.");
+        addCards(draw, 2, "Defend_R", "Defend+", "SKILL", 1, true, 0, 8, 0, "Gain !B! Block.");
+        addCards(draw, 1, "Bash", "Bash+", "ATTACK", 2, true, 10, 0, 3, "Deal !D! damage. NL Apply !M! #yVulnerable.");
+        addCards(draw, 2, "Pommel Strike", "Pommel Strike+", "ATTACK", 1, true, 10, 0, 2, "Deal !D! damage. NL Draw !M! cards.");
+        addCards(draw, 2, "Shrug It Off", "Shrug It Off", "SKILL", 1, false, 0, 8, 0, "Gain !B! Block. NL Draw 1 card.");
+        addCards(draw, 2, "Inflame", "Inflame+", "POWER", 1, true, 0, 0, 3, "Gain !M! #yStrength.");
+        addCards(draw, 1, "Demon Form", "Demon Form", "POWER", 3, false, 0, 0, 2, "At the start of each turn, gain !M! #yStrength.");
+        addCards(draw, 2, "Heavy Blade", "Heavy Blade+", "ATTACK", 2, true, 14, 0, 5, "Deal !D! damage. NL #yStrength affects Heavy Blade !M! times.");
+        addCards(draw, 1, "Limit Break", "Limit Break+", "SKILL", 1, true, 0, 0, 0, "Double your #yStrength.");
+        addCards(draw, 2, "Flame Barrier", "Flame Barrier", "SKILL", 2, false, 0, 12, 4, "Gain !B! Block. NL Whenever you are attacked this turn, deal !M! damage back.");
+        addCards(draw, 1, "Offering", "Offering", "SKILL", 0, false, 0, 0, 3, "Lose 6 HP. NL Gain 2 energy. NL Draw !M! cards. NL #yExhaust.");
+        addCards(discard, 2, "Twin Strike", "Twin Strike", "ATTACK", 1, false, 5, 0, 0, "Deal !D! damage twice.");
+        addCards(discard, 2, "Uppercut", "Uppercut", "ATTACK", 2, false, 13, 0, 1, "Deal !D! damage. NL Apply !M! #yWeak. NL Apply !M! #yVulnerable.");
+        addCards(discard, 2, "Battle Trance", "Battle Trance", "SKILL", 0, false, 0, 0, 3, "Draw !M! cards. NL You cannot draw additional cards this turn.");
+        addCards(discard, 2, "Impervious", "Impervious", "SKILL", 2, false, 0, 30, 0, "Gain !B! Block. NL #yExhaust.");
+        addCards(discard, 3, "Anger", "Anger+", "ATTACK", 0, true, 8, 0, 0, "Deal !D! damage. NL Add a copy of this card into your discard pile.");
+        addCards(discard, 2, "Armaments", "Armaments+", "SKILL", 1, true, 0, 5, 0, "Gain !B! Block. NL Upgrade ALL cards in your hand for the rest of combat.");
+        addCards(exhaust, 2, "Impervious", "Impervious", "SKILL", 2, false, 0, 30, 0, "Gain !B! Block. NL #yExhaust.");
+        addCards(exhaust, 3, "Wound", "Wound", "STATUS", -2, false, 0, 0, 0, "Unplayable.");
+        addCards(exhaust, 1, "Offering", "Offering", "SKILL", 0, false, 0, 0, 3, "Lose 6 HP. NL Gain 2 energy. NL Draw !M! cards. NL #yExhaust.");
+
+        JsonArray relics = new JsonArray();
+        addRelic(relics, "Burning Blood", "At the end of combat, heal #b6 HP.");
+        addRelic(relics, "Vajra", "At the start of each combat, gain #b1 #yStrength.");
+        addRelic(relics, "Bag of Preparation", "At the start of each combat, draw #b2 additional cards.");
+        addRelic(relics, "Pen Nib", "Every #b10th Attack you play deals double damage.");
+        addRelic(relics, "Kunai", "Every time you play #b3 Attacks in a single turn, gain #b1 #yDexterity.");
+        addRelic(relics, "Shuriken", "Every time you play #b3 Attacks in a single turn, gain #b1 #yStrength.");
+        addRelic(relics, "Orichalcum", "If you end your turn without #yBlock, gain #b6 #yBlock.");
+        addRelic(relics, "Paper Phrog", "Enemies with #yVulnerable take #b75% more damage rather than #b50%.");
+        addRelic(relics, "Self-Forming Clay", "Whenever you lose HP in combat, gain #b3 #yBlock next turn.");
+        addRelic(relics, "Runic Pyramid", "At the end of your turn, you no longer discard your hand.");
+        addRelic(relics, "Mark of Pain", "Gain [R] at the start of each turn. NL Start each combat with #b2 #yWounds in your draw pile.");
+        addRelic(relics, "Ice Cream", "Energy is now conserved between turns.");
+
+        JsonArray potions = new JsonArray();
+        addPotion(potions, "Fire Potion", "Deal #b20 damage to target enemy.");
+        addPotion(potions, "Block Potion", "Gain #b12 #yBlock.");
+        addPotion(potions, "Fairy in a Bottle", "When you would die, heal to #b30% of your Max HP instead and discard this potion.");
+
+        JsonObject object = new JsonObject();
+        object.addProperty("stage", "BATTLE");
+        object.addProperty("floor", 45);
+        object.addProperty("currentHp", 61);
+        object.addProperty("maxHp", 88);
+        object.add("stageInfo", battle);
+        object.add("availableActions", actions);
+        object.add("hand", hand);
+        object.add("drawPile", draw);
+        object.add("discardPile", discard);
+        object.add("exhaustPile", exhaust);
+        object.add("relics", relics);
+        object.add("potions", potions);
+        return GameState.fromJson(object.toString());
+    }
+
+    private static void addCards(JsonArray pile, int copies, String id, String name, String type, int cost, boolean upgraded,
+                                 int damage, int block, int magicNumber, String description) {
+        for (int i = 0; i < copies; i++) {
+            JsonObject card = new JsonObject();
+            card.addProperty("id", id);
+            card.addProperty("name", name);
+            card.addProperty("type", type);
+            card.addProperty("description", description);
+            card.addProperty("cost", cost);
+            card.addProperty("costForTurn", cost);
+            card.addProperty("upgraded", upgraded);
+            card.addProperty("baseDamage", damage);
+            card.addProperty("damage", damage);
+            card.addProperty("baseBlock", block);
+            card.addProperty("block", block);
+            card.addProperty("magicNumber", magicNumber);
+            pile.add(card);
+        }
+    }
+
+    private static void addMonster(JsonArray monsters, String name, int hp, int maxHp, String intent) {
+        JsonObject monster = new JsonObject();
+        monster.addProperty("name", name);
+        monster.addProperty("currentHp", hp);
+        monster.addProperty("maxHp", maxHp);
+        monster.addProperty("intent", intent);
+        monsters.add(monster);
+    }
+
+    private static void addRelic(JsonArray relics, String name, String description) {
+        JsonObject relic = new JsonObject();
+        relic.addProperty("name", name);
+        relic.addProperty("description", description);
+        relics.add(relic);
+    }
+
+    private static void addPotion(JsonArray potions, String name, String description) {
+        JsonObject potion = new JsonObject();
+        potion.addProperty("name", name);
+        potion.addProperty("description", description);
+        potions.add(potion);
+    }
+}
@@ -0,0 +1,129 @@
+package llmthespire.llm;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the time and the bytes allocated to decode a recorded OpenAI-style completion
+ * response, with the line reader and JsonObject tree the service used before and with
+ * ResponseDecoder.
+ *
+ * Allocation is read from the HotSpot thread allocation counter, so it is only
+ * reported on JVMs that have one. Runs outside the game, from the bench profile:
+ * mvn -Pbench test-compile exec:java -Dexec.mainClass=llmthespire.llm.ResponseDecodeBenchmark
+ * -Dexec.args="[iterations]"
+ */
+public class ResponseDecodeBenchmark {
+    // A combat answer as returned by a chat completions endpoint, with the fields a provider adds
+    private static final String RESPONSE = "{\n"
+            + "  \"id\": \"chatcmpl-9f3a1c7e2b\",\n"
+            + "  \"object\": \"chat.completion\",\n"
+            + "  \"created\": 1760648142,\n"
+            + "  \"model\": \"gpt-4o-mini-2024-07-18\",\n"
+            + "  \"choices\": [\n"
+            + "    {\n"
+            + "      \"index\": 0,\n"
+            + "      \"message\": {\n"
+            + "        \"role\": \"assistant\",\n"
+            + "        \"content\": \"REASON: The Jaw Worm intends to attack for 11 and the Cultist is at 9 HP. "
+            + "Bash+ applies Vulnerable to the Jaw Worm so the two Strikes that follow deal 9 each, "
+            + "and Defend covers most of the incoming damage. Killing the Cultist first would leave "
+            + "its Ritual stacks irrelevant, but it is not attacking this turn.\\n"
+            + "PLAN: PLAY_CARD 2 0; PLAY_CARD 0 0; PLAY_CARD 1 0; PLAY_CARD 3; END_TURN\\n"
+            + "ACTION: PLAY_CARD 2 0\",\n"
+            + "        \"refusal\": null\n"
+            + "      },\n"
+            + "      \"logprobs\": null,\n"
+            + "      \"finish_reason\": \"stop\"\n"
+            + "    }\n"
+            + "  ],\n"
+            + "  \"usage\": {\n"
+            + "    \"prompt_tokens\": 1184,\n"
+            + "    \"completion_tokens\": 96,\n"
+            + "    \"total_tokens\": 1280,\n"
+            + "    \"prompt_tokens_details\": {\n"
+            + "      \"cached_tokens\": 1024,\n"
+            + "      \"audio_tokens\": 0\n"
+            + "    },\n"
+            + "    \"completion_tokens_details\": {\n"
+            + "      \"reasoning_tokens\": 0,\n"
+            + "      \"audio_tokens\": 0,\n"
+            + "      \"accepted_prediction_tokens\": 0,\n"
+            + "      \"rejected_prediction_tokens\": 0\n"
+            + "    }\n"
+            + "  },\n"
+            + "  \"system_fingerprint\": \"fp_0ba0d124f1\"\n"
+            + "}\n";
+
+    private ResponseDecodeBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        byte[] body = RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+        System.out.println("iterations=" + iterations + ", body=" + body.length + " bytes");
+        run("line reader + JsonObject", body, false, iterations);
+        run("ResponseDecoder", body, true, iterations);
+    }
+
+    private static void run(String name, byte[] body, boolean pull, int iterations) throws IOException {
+        // Warm up the JIT before measuring
+        int length = 0;
+        for (int i = 0; i < Math.max(1000, iterations / 5); i++) {
+            length += decode(body, pull).length();
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads
+                : null;
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = allocation != null ? allocation.getThreadAllocatedBytes(thread) : 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            length += decode(body, pull).length();
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = allocation != null ? allocation.getThreadAllocatedBytes(thread) - bytesBefore : -1;
+
+        System.out.println(String.format("%-26s %,8.0f ns/response  %s%s",
+                name,
+                (double) nanos / iterations,
+                bytes >= 0 ? String.format("%,8d bytes/response", bytes / iterations) : "allocation n/a",
+                length == 0 ? " (empty)" : ""));
+    }
+
+    private static String decode(byte[] body, boolean pull) throws IOException {
+        InputStream in = new ByteArrayInputStream(body);
+        return pull ? ResponseDecoder.decode(in, ResponseDecoder.Format.OPENAI).getContent() : decodeWithTree(in);
+    }
+
+    /**
+     * The decoding the service did before ResponseDecoder: the body read line by line,
+     * trimmed and joined, then parsed into a JsonObject with a new Gson
+     */
+    private static String decodeWithTree(InputStream in) throws IOException {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            StringBuilder response = new StringBuilder();
+            String responseLine;
+            while ((responseLine = br.readLine()) != null) {
+                response.append(responseLine.trim());
+            }
+            JsonObject jsonResponse = new Gson().fromJson(response.toString(), JsonObject.class);
+            JsonArray choices = jsonResponse.getAsJsonArray("choices");
+            JsonObject message = choices.get(0).getAsJsonObject().getAsJsonObject("message");
+            return message.get("content").getAsString();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package llmthespire.search;
+
+/**
+ * Measures CombatSearch throughput in nodes per second on representative hands.
+ *
+ * Runs outside the game, from the bench profile: mvn -Pbench test-compile exec:java
+ * -Dexec.mainClass=llmthespire.search.CombatSearchBenchmark -Dexec.args="[threads] [budget ms] [iterations]"
+ */
+public class CombatSearchBenchmark {
+    private CombatSearchBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        CombatSearch search = new CombatSearch(threads);
+        try {
+            System.out.println("threads=" + threads + ", budget=" + budget + "ms, iterations=" + iterations);
+            run(search, "starter hand vs Jaw Worm", starterHand(), budget, iterations);
+            run(search, "8 cards vs gremlin gang", gremlinGang(), budget, iterations);
+            run(search, "10 cards with X and AoE vs two elites", largeHand(), budget, iterations);
+        } finally {
+            search.shutdown();
+        }
+    }
+
+    private static void run(CombatSearch search, String name, CombatModel model, long budget, int iterations) {
+        // Warm up the JIT before measuring
+        for (int i = 0; i < Math.max(5, iterations / 5); i++) {
+            search.search(model, budget);
+        }
+
+        long nodes = 0;
+        long nanos = 0;
+        long worst = 0;
+        boolean complete = true;
+        CombatSearch.Result result = null;
+        for (int i = 0; i < iterations; i++) {
+            result = search.search(model, budget);
+            nodes += result.getNodes();
+            nanos += result.getElapsedNanos();
+            worst = Math.max(worst, result.getElapsedNanos());
+            complete &= result.isComplete();
+        }
+
+        System.out.println(String.format("%-40s %,12.0f nodes/s  %,8d nodes/search  avg %,7.0fus  max %,7dus%s",
+                name,
+                nodes / (nanos / 1e9),
+                nodes / iterations,
+                nanos / 1e3 / iterations,
+                worst / 1000,
+                complete ? "" : "  (budget exhausted)"));
+        System.out.println("  best: " + result.getBest());
+    }
+
+    /**
+     * Ironclad's opening hand: 3 Strikes, Defend and Bash against one attacking monster
+     */
+    static CombatModel starterHand() {
+        return new CombatModel.Builder(3, 80, 0)
+                .card(0, 1, 6, 0, CombatModel.TARGET_ENEMY, false)
+                .card(1, 1, 6, 0, CombatModel.TARGET_ENEMY, false)
+                .card(2, 1, 0, 5, CombatModel.TARGET_NONE, false)
+                .card(3, 2, 8, 0, CombatModel.TARGET_ENEMY, false)
+                .card(4, 1, 6, 0, CombatModel.TARGET_ENEMY, false)
+                .monster(42, 0, 11, false, false)
+                .build();
+    }
+
+    /**
+     * A mid-act hand against four weak monsters
+     */
+    static CombatModel gremlinGang() {
+        return new CombatModel.Builder(4, 55, 0)
+                .card(0, 1, 9, 0, CombatModel.TARGET_ENEMY, false)
+                .card(1, 1, 0, 8, CombatModel.TARGET_NONE, false)
+                .card(2, 1, 8, 0, CombatModel.TARGET_ALL, false)
+                .card(3, 0, 3, 0, CombatModel.TARGET_ENEMY, false)
+                .card(4, 2, 14, 0, CombatModel.TARGET_ENEMY, false)
+                .card(5, 1, 0, 5, CombatModel.TARGET_NONE, false)
+                .card(6, 1, 0, 0, CombatModel.TARGET_NONE, true)
+                .card(7, 1, 6, 0, CombatModel.TARGET_ENEMY, false)
+                .monster(14, 0, 9, false, false)
+                .monster(20, 0, 4, true, false)
+                .monster(12, 5, 0, false, false)
+                .monster(16, 0, 5, false, false)
+                .build();
+    }
+
+    /**
+     * A full late-game hand with an X-cost card and an area attack
+     */
+    static CombatModel largeHand() {
+        return new CombatModel.Builder(5, 61, 4)
+                .card(0, 1, 12, 0, CombatModel.TARGET_ENEMY, false)
+                .card(1, -1, 7, 0, CombatModel.TARGET_ALL, false)
+                .card(2, 1, 0, 11, CombatModel.TARGET_NONE, false)
+                .card(3, 0, 5, 0, CombatModel.TARGET_ENEMY, false)
+                .card(4, 2, 20, 0, CombatModel.TARGET_ENEMY, false)
+                .card(5, 1, 0, 8, CombatModel.TARGET_NONE, false)
+                .card(6, 1, 9, 0, CombatModel.TARGET_ENEMY, false)
+                .card(7, 0, 0, 4, CombatModel.TARGET_NONE, false)
+                .card(8, 2, 0, 0, CombatModel.TARGET_NONE, true)
+                .card(9, 1, 10, 0, CombatModel.TARGET_ALL, false)
+                .monster(62, 12, 24, false, false)
+                .monster(48, 0, 18, true, false)
+                .build();
+    }
+}
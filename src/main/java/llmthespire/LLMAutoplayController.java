@@ -1,15 +1,27 @@
 package llmthespire;
 
 import com.megacrit.cardcrawl.cards.AbstractCard;
+import com.megacrit.cardcrawl.core.Settings;
 import com.megacrit.cardcrawl.dungeons.AbstractDungeon;
 import com.megacrit.cardcrawl.monsters.AbstractMonster;
 import com.megacrit.cardcrawl.rooms.AbstractRoom;
 import com.megacrit.cardcrawl.rooms.EventRoom;
+import com.megacrit.cardcrawl.rooms.MonsterRoom;
 import com.megacrit.cardcrawl.ui.panels.EnergyPanel;
 import llmthespire.game.ActionExecutor;
 import llmthespire.game.GameState;
 import llmthespire.game.GameStageType;
+import llmthespire.game.NextTurnPredictor;
+import llmthespire.game.RuleEngine;
+import llmthespire.game.StateFingerprint;
+import llmthespire.game.TurnPlan;
 import llmthespire.llm.LLMService;
+import llmthespire.llm.RequestHandle;
+import llmthespire.llm.RequestScheduler;
+import llmthespire.policy.DecisionPolicy;
+import llmthespire.policy.PolicyModel;
+import llmthespire.search.CombatModel;
+import llmthespire.search.CombatSearch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -17,9 +29,12 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Controls the LLM-powered autoplay functionality
@@ -33,6 +48,50 @@ public class LLMAutoplayController {
     private final AtomicBoolean processing = new AtomicBoolean(false);
     private long lastProcessTime = 0;
     private static final long PROCESS_COOLDOWN_MS = 1000; // Increased cooldown to 1 second
+    private static final long POST_ACTION_DELAY_MS = 300; // Pause after an action before the next request
+    private volatile long resumeTime = 0;
+    
+    // LLM answers are handed to the game thread here instead of being executed on the LLM threads
+    private final AtomicReference<PendingDecision> pendingDecision = new AtomicReference<>();
+    
+    // Numbers LLM requests; an answer whose number is no longer current was overtaken by the search fallback
+    private final AtomicLong requestGeneration = new AtomicLong();
+    private long inFlightStart;
+    private GameStageType inFlightStage;
+    
+    // The outstanding request and the fingerprint of the state it asks about
+    private RequestHandle inFlightRequest;
+    private byte[] inFlightDigest;
+    private long lastStaleCheck = 0;
+    
+    // Remaining steps of the current combat turn, played without asking the LLM (game thread only)
+    private TurnPlan activePlan;
+    private long plannedStepsPlayed = 0;
+    
+    // Answers forced decisions locally, null when disabled; seed of the run its counters belong to
+    private RuleEngine ruleEngine;
+    private Long ruleRunSeed;
+    
+    // Model trained on earlier LLM decisions, null when disabled or not trained yet
+    private DecisionPolicy decisionPolicy;
+    
+    // Ranks combat plays locally to veto losing LLM plays and to cover slow requests, null when disabled
+    private CombatSearch combatSearch;
+    
+    // Search started for a combat request that is taking too long, and the request generation it covers
+    private CompletableFuture<CombatSearch.Result> fallbackSearch;
+    private GameState fallbackState;
+    private long fallbackGeneration;
+    
+    // Background request for the predicted next turn, sent while the monsters act
+    private Speculation speculation;
+    private int speculationTurn = -1;
+    private int speculationsThisTurn = 0;
+    private long lastSpeculationTime = 0;
+    private long speculationsIssued = 0;
+    private long speculationHits = 0;
+    private long speculationMisses = 0;
+    private long speculationSavedMs = 0;
     
     // Track game state to detect changes
     private String lastGamePhase = "";
@@ -65,6 +124,14 @@ public class LLMAutoplayController {
             llmService = LLMService.getInstance();
             actionExecutor = new ActionExecutor();
             conversationLogger = new ConversationLogger();
+            if (LLMConfig.getInstance().getRules().isEnabled()) {
+                ruleEngine = RuleEngine.withDefaultRules();
+            }
+            decisionPolicy = loadPolicy();
+            LLMConfig.SearchConfig searchConfig = LLMConfig.getInstance().getSearch();
+            if (searchConfig.isEnabled()) {
+                combatSearch = new CombatSearch(searchConfig.getThreads());
+            }
             logger.info("LLM Autoplay Controller initialized successfully");
         } catch (Exception e) {
             logger.error("Error initializing LLM Autoplay Controller: " + e.getMessage(), e);
@@ -108,6 +175,8 @@ public class LLMAutoplayController {
             lastHandSize = -1;
             lastTurnNumber = -1;
             lastEnergy = -1;
+            activePlan = null;
+            speculation = null;
             
             if (!processing.get()) {
                 update();
@@ -144,8 +213,41 @@ public class LLMAutoplayController {
                        ", gamePhase=" + (AbstractDungeon.getCurrRoom() != null ? AbstractDungeon.getCurrRoom().phase : "null"));
         }
         
-        // If not enabled or already processing, or in a screen where we shouldn't autoplay, skip
-        if (!enabled.get() || processing.get() || !canProcessGameState()) {
+        // Apply an answer that arrived since the last frame
+        if (applyPendingDecision()) {
+            return;
+        }
+        
+        // A combat request that takes too long is answered by the local search instead
+        if (processing.get() && fallBackToSearch()) {
+            return;
+        }
+        
+        // A request whose state is gone is cancelled rather than waited for
+        if (processing.get() && cancelStaleRequest()) {
+            return;
+        }
+        
+        // If not enabled or already processing, skip
+        if (!enabled.get() || processing.get()) {
+            return;
+        }
+        
+        // Give the last action a moment to take effect
+        if (System.currentTimeMillis() < resumeTime) {
+            return;
+        }
+        
+        // While the monsters act, ask ahead about the turn that follows. This comes before
+        // canProcessGameState, which refuses to act once the turn has ended
+        if (AbstractDungeon.player != null && AbstractDungeon.getCurrRoom() != null
+                && AbstractDungeon.getCurrRoom().phase == AbstractRoom.RoomPhase.COMBAT
+                && AbstractDungeon.actionManager != null && AbstractDungeon.actionManager.turnHasEnded) {
+            speculateNextTurn();
+        }
+        
+        // In a screen where we shouldn't autoplay, skip
+        if (!canProcessGameState()) {
             return;
         }
         
@@ -162,6 +264,12 @@ public class LLMAutoplayController {
             }
         }
         
+        // Play the next step of the turn plan without asking the LLM
+        if (activePlan != null) {
+            continuePlan();
+            return;
+        }
+        
         // 无论状态是否变化，每隔一段时间都强制处理一次
         long now = System.currentTimeMillis();
         if (now - lastProcessTime >= PROCESS_COOLDOWN_MS * 2) {
@@ -406,6 +514,7 @@ public class LLMAutoplayController {
         }
         
         lastProcessTime = System.currentTimeMillis();
+        trackRun();
         
         try {
             // In combat, only proceed if it's player's turn
@@ -447,6 +556,31 @@ public class LLMAutoplayController {
                 conversationLogger.logGameState(gameStateJson);
             }
             
+            // Decisions with only one sensible answer never reach the LLM
+            if (ruleEngine != null) {
+                RuleEngine.Decision ruled = ruleEngine.resolve(gameState);
+                if (ruled != null) {
+                    logger.info("Rule " + gameState.stage.name() + "/" + ruled.getRule() + " chose " + ruled.getAction() +
+                                " without the LLM (" + ruleEngine.getAvoidedThisRun() + " calls avoided this run)");
+                    executeLocalDecision(gameState, ruled.getAction(), "Local rule: " + ruled.getRule());
+                    processing.set(false);
+                    return;
+                }
+            }
+            
+            // Routine combat plays the trained policy is sure about never reach the LLM either
+            if (decisionPolicy != null) {
+                DecisionPolicy.Decision predicted = decisionPolicy.decide(gameState);
+                if (predicted != null) {
+                    String confidence = String.format("%.2f", predicted.getConfidence());
+                    logger.info("Policy chose " + predicted.getAction() + " with confidence " + confidence +
+                                " without the LLM. Policy: " + decisionPolicy);
+                    executeLocalDecision(gameState, predicted.getAction(), "Local policy, confidence " + confidence);
+                    processing.set(false);
+                    return;
+                }
+            }
+            
             // Request action from LLM
             if (llmService == null) {
                 logger.error("LLM service is null");
@@ -461,105 +595,31 @@ public class LLMAutoplayController {
             long requestStartTime = System.currentTimeMillis();
             logger.info("Sending request to LLM service at " + requestStartTime);
             
-            CompletableFuture<String> futureAction = llmService.requestAction(finalGameState);
+            final long generation = requestGeneration.incrementAndGet();
+            inFlightStart = requestStartTime;
+            inFlightStage = finalGameState.stage;
+            Speculation spec = speculation;
+            speculation = null;
+            RequestHandle futureAction = takeSpeculation(spec, finalGameState, requestStartTime);
+            if (futureAction == null) {
+                futureAction = llmService.requestAction(finalGameState);
+            }
+            inFlightRequest = futureAction;
+            inFlightDigest = StateFingerprint.digest(finalGameState, null);
             
-            // Handle the response
-            futureAction.thenAccept(action -> {
-                long responseTime = System.currentTimeMillis() - requestStartTime;
-                logger.info("Received LLM response after " + responseTime + "ms");
-                
-                try {
-                    if (action == null || action.isEmpty()) {
-                        logger.error("LLM returned empty action");
-                        if (conversationLogger != null) {
-                            conversationLogger.logAction("ERROR: Empty action returned", "No action available");
-                        }
-                        processing.set(false);
-                        return;
-                    }
-                    
-                    // Log the complete AI response first
-                    if (conversationLogger != null) {
-                        conversationLogger.logRawResponse(action);
-                    }
-                    
-                    // Extract reason and action from the formatted response
-                    String reasoning = "";
-                    String actionCommand = "";
-                    
-                    String[] lines = action.split("\n");
-                    for (String line : lines) {
-                        if (line.trim().startsWith("REASON:")) {
-                            reasoning = line.substring("REASON:".length()).trim();
-                        } else if (line.trim().startsWith("ACTION:")) {
-                            actionCommand = line.substring("ACTION:".length()).trim();
-                        }
-                    }
-                    
-                    // If no ACTION: line was found, try to use the whole response
-                    if (actionCommand.isEmpty()) {
-                        logger.warn("Could not find ACTION: line in response, using full response as action");
-                        actionCommand = action.trim();
-                    }
-                    
-                    logger.info("LLM suggested action: " + actionCommand);
-                    if (!reasoning.isEmpty()) {
-                        logger.info("LLM reasoning: " + reasoning);
-                    }
-                    
-                    if (conversationLogger != null) {
-                        conversationLogger.logAction(actionCommand, reasoning);
-                    }
-                    
-                    // Execute the action
-                    if (actionExecutor != null && finalGameState != null) {
-                        boolean success = actionExecutor.executeAction(actionCommand, finalGameState);
-                        logger.info("Action execution " + (success ? "successful" : "failed"));
-                        if (conversationLogger != null) {
-                            conversationLogger.logResult(success ? "SUCCESS" : "FAILED");
-                        }
-                    } else {
-                        logger.error("ActionExecutor or GameState is null");
-                        if (conversationLogger != null) {
-                            conversationLogger.logResult("ERROR: Internal controller error");
-                        }
-                    }
-                } catch (Exception e) {
-                    logger.error("Error executing LLM action: " + e.getMessage(), e);
-                    if (conversationLogger != null) {
-                        conversationLogger.logResult("ERROR: " + e.getMessage());
-                    }
-                } finally {
-                    // Reset processing flag with a slight delay to prevent rapid re-processing
-                    try {
-                        Thread.sleep(300);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                    processing.set(false);
-                }
-            }).exceptionally(ex -> {
-                logger.error("Error getting LLM action: " + ex.getMessage(), ex);
-                if (conversationLogger != null) {
-                    conversationLogger.logAction("ERROR: " + ex.getMessage(), "Exception occurred during processing");
-                    conversationLogger.logResult("FAILED: API request error");
-                }
-                
-                // 打印详细的异常堆栈，帮助诊断问题
-                ex.printStackTrace();
-                
-                // 尝试使用默认动作（通常是结束回合）以避免游戏卡住
-                if (finalGameState != null && finalGameState.stage == GameStageType.BATTLE) {
-                    try {
-                        logger.info("Trying fallback action: END_TURN due to API failure");
-                        actionExecutor.executeAction("END_TURN", finalGameState);
-                    } catch (Exception e) {
-                        logger.error("Failed to execute fallback action", e);
-                    }
+            // Hand the response to the game thread, which picks it up in update(). A combat answer
+            // that may be vetoed is handed over once the search has ranked its state.
+            futureAction.whenComplete((action, ex) -> {
+                if (generation != requestGeneration.get()) {
+                    logger.info("Dropping LLM answer superseded by the search fallback or a state change");
+                } else if (ex == null && finalGameState.stage == GameStageType.BATTLE
+                        && LLMConfig.getInstance().getSearch().isVeto()) {
+                    searchCombatAsync(finalGameState).whenComplete((ranking, searchEx) ->
+                            pendingDecision.set(new PendingDecision(finalGameState, action, null, ranking,
+                                    requestStartTime, generation)));
+                } else {
+                    pendingDecision.set(new PendingDecision(finalGameState, action, ex, null, requestStartTime, generation));
                 }
-                
-                processing.set(false);
-                return null;
             });
         } catch (Exception e) {
             logger.error("Error in processGameState: " + e.getMessage(), e);
@@ -567,6 +627,547 @@ public class LLMAutoplayController {
         }
     }
     
+    /**
+     * Execute the LLM answer that is waiting for the game thread, if any
+     * @return True if an answer was consumed
+     */
+    private boolean applyPendingDecision() {
+        PendingDecision decision = pendingDecision.getAndSet(null);
+        if (decision == null) {
+            return false;
+        }
+        if (decision.generation != requestGeneration.get()) {
+            logger.info("Dropping LLM answer superseded by the search fallback or a state change");
+            return true;
+        }
+        inFlightStage = null;
+        
+        try {
+            if (!enabled.get()) {
+                logger.info("Autoplay disabled while waiting for the LLM, discarding its answer");
+            } else if (decision.error != null) {
+                handleFailedDecision(decision);
+            } else {
+                executeDecision(decision);
+            }
+        } finally {
+            // Delay the next request slightly to prevent rapid re-processing
+            resumeTime = System.currentTimeMillis() + POST_ACTION_DELAY_MS;
+            processing.set(false);
+        }
+        return true;
+    }
+    
+    /**
+     * Parse and execute a successful LLM answer
+     */
+    private void executeDecision(PendingDecision decision) {
+        String action = decision.response;
+        GameState finalGameState = decision.gameState;
+        long responseTime = System.currentTimeMillis() - decision.requestStartTime;
+        logger.info("Received LLM response after " + responseTime + "ms");
+        
+        try {
+            if (action == null || action.isEmpty()) {
+                logger.error("LLM returned empty action");
+                if (conversationLogger != null) {
+                    conversationLogger.logAction("ERROR: Empty action returned", "No action available");
+                }
+                return;
+            }
+            
+            // Log the complete AI response first
+            if (conversationLogger != null) {
+                conversationLogger.logRawResponse(action);
+            }
+            
+            // Extract reason and action from the formatted response
+            String reasoning = "";
+            String actionCommand = "";
+            
+            String[] lines = action.split("\n");
+            for (String line : lines) {
+                if (line.trim().startsWith("REASON:")) {
+                    reasoning = line.substring("REASON:".length()).trim();
+                } else if (line.trim().startsWith("ACTION:")) {
+                    actionCommand = line.substring("ACTION:".length()).trim();
+                }
+            }
+            
+            // If no ACTION: line was found, try to use the whole response
+            if (actionCommand.isEmpty()) {
+                logger.warn("Could not find ACTION: line in response, using full response as action");
+                actionCommand = action.trim();
+            }
+            
+            logger.info("LLM suggested action: " + actionCommand);
+            if (!reasoning.isEmpty()) {
+                logger.info("LLM reasoning: " + reasoning);
+            }
+            
+            // Overrule plays the combat search can show to be losing
+            if (decision.ranking != null) {
+                String vetoed = vetoLosingPlay(decision.ranking, actionCommand);
+                if (!vetoed.equals(actionCommand)) {
+                    reasoning = "Local search veto of " + actionCommand + (reasoning.isEmpty() ? "" : ": " + reasoning);
+                    actionCommand = vetoed;
+                }
+            }
+            
+            if (conversationLogger != null) {
+                conversationLogger.logAction(actionCommand, reasoning);
+            }
+            
+            // Execute the action
+            if (actionExecutor != null && finalGameState != null) {
+                boolean success = actionExecutor.executeAction(actionCommand, finalGameState);
+                logger.info("Action execution " + (success ? "successful" : "failed"));
+                llmService.reportActionResult(finalGameState, success);
+                if (success && finalGameState.stage == GameStageType.BATTLE && LLMConfig.getInstance().getPlanning().isEnabled()) {
+                    startPlan(finalGameState, action, actionCommand);
+                }
+                if (conversationLogger != null) {
+                    conversationLogger.logResult(success ? "SUCCESS" : "FAILED");
+                }
+            } else {
+                logger.error("ActionExecutor or GameState is null");
+                if (conversationLogger != null) {
+                    conversationLogger.logResult("ERROR: Internal controller error");
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error executing LLM action: " + e.getMessage(), e);
+            if (conversationLogger != null) {
+                conversationLogger.logResult("ERROR: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Follow the rest of the turn plan in the response, if it has one
+     * @param firstAction The action already executed, which must be the plan's first step
+     */
+    private void startPlan(GameState gameState, String response, String firstAction) {
+        TurnPlan plan = TurnPlan.parse(gameState, response, LLMConfig.getInstance().getPlanning().getMaxSteps());
+        if (plan == null) {
+            return;
+        }
+        if (!plan.isNext(gameState, firstAction)) {
+            logger.warn("Turn plan " + plan + " does not start with the executed action " + firstAction + ", ignoring it");
+            return;
+        }
+        plan.advance();
+        if (!plan.isFinished()) {
+            activePlan = plan;
+            logger.info("Following turn plan " + plan + " (" + (plan.size() - 1) + " more steps)");
+        }
+    }
+    
+    /**
+     * Execute the next step of the turn plan after checking it against the live hand.
+     * If the step is no longer possible the plan is dropped and the LLM asked again.
+     */
+    private void continuePlan() {
+        TurnPlan plan = activePlan;
+        GameState gameState;
+        try {
+            gameState = new GameState();
+        } catch (Exception e) {
+            logger.error("Failed to create GameState object: " + e.getMessage(), e);
+            activePlan = null;
+            return;
+        }
+        
+        String action = plan.nextAction(gameState);
+        if (action == null) {
+            logger.info("Turn plan " + plan + " is no longer valid at step " + (plan.getPosition() + 1) + ", asking the LLM again");
+            activePlan = null;
+            processGameState();
+            return;
+        }
+        
+        plannedStepsPlayed++;
+        logger.info("Turn plan step " + (plan.getPosition() + 1) + "/" + plan.size() + ": " + action +
+                    " (" + plannedStepsPlayed + " LLM calls saved by plans)");
+        if (conversationLogger != null) {
+            conversationLogger.logGameState(gameState.toString());
+            conversationLogger.logAction(action, "Planned step " + (plan.getPosition() + 1) + " of " + plan.size());
+        }
+        
+        boolean success = false;
+        try {
+            success = actionExecutor.executeAction(action, gameState);
+        } catch (Exception e) {
+            logger.error("Error executing planned action: " + e.getMessage(), e);
+        }
+        if (conversationLogger != null) {
+            conversationLogger.logResult(success ? "SUCCESS" : "FAILED");
+        }
+        
+        plan.advance();
+        if (!success || plan.isFinished()) {
+            activePlan = null;
+        }
+        lastProcessTime = System.currentTimeMillis();
+        resumeTime = lastProcessTime + POST_ACTION_DELAY_MS;
+    }
+    
+    /**
+     * Execute an action chosen locally instead of by the LLM
+     * @param reasoning Logged with the action; starts with "Local" so PolicyTrainer can skip it
+     */
+    private void executeLocalDecision(GameState gameState, String action, String reasoning) {
+        if (conversationLogger != null) {
+            conversationLogger.logAction(action, reasoning);
+        }
+        
+        boolean success = false;
+        try {
+            success = actionExecutor.executeAction(action, gameState);
+        } catch (Exception e) {
+            logger.error("Error executing local action: " + e.getMessage(), e);
+        }
+        if (conversationLogger != null) {
+            conversationLogger.logResult(success ? "SUCCESS" : "FAILED");
+        }
+        resumeTime = System.currentTimeMillis() + POST_ACTION_DELAY_MS;
+    }
+    
+    /**
+     * Rank the plays of a combat state with the local search, on the CPU threads of the
+     * LLM service so the game thread never waits for it
+     * @return The ranking, completed with null if the search is disabled, the state is not
+     *         a combat state or the search failed
+     */
+    private CompletableFuture<CombatSearch.Result> searchCombatAsync(GameState gameState) {
+        CombatModel model = combatSearch != null ? CombatModel.of(gameState) : null;
+        if (model == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long budget = LLMConfig.getInstance().getSearch().getBudgetMs();
+        return CompletableFuture.supplyAsync(() -> combatSearch.search(model, budget), llmService.cpuExecutor())
+                .handle((result, ex) -> {
+                    if (ex != null) {
+                        logger.error("Combat search failed: " + ex.getMessage(), ex);
+                        return null;
+                    }
+                    logger.debug("Combat search: " + result + ", ranking: " + result.getPlays());
+                    return result;
+                });
+    }
+    
+    /**
+     * Replace an LLM play whose best continuation ends the turn worse than the best line
+     * the search found, e.g. ending the turn with lethal available or with a block that
+     * would have prevented death
+     * @return The play to execute
+     */
+    private String vetoLosingPlay(CombatSearch.Result result, String action) {
+        CombatSearch.RankedPlay chosen = result.find(action);
+        CombatSearch.RankedPlay best = result.getBest();
+        // Outcomes are ordered WIN, SURVIVE, DIE
+        if (chosen == null || best == null || chosen.getOutcome().compareTo(best.getOutcome()) <= 0) {
+            return action;
+        }
+        logger.warn("Vetoing LLM play " + chosen + ", the search found " + best);
+        return best.getCommand();
+    }
+    
+    /**
+     * Play the search's best move for a combat request that has not been answered in time.
+     * The search is started on the first frame past the deadline and its move played on the
+     * frame it has finished, unless the answer arrived meanwhile. The request's answer is
+     * dropped when it arrives.
+     * @return True if a move was played
+     */
+    private boolean fallBackToSearch() {
+        long fallbackAfter = LLMConfig.getInstance().getSearch().getFallbackAfterMs();
+        long waited = System.currentTimeMillis() - inFlightStart;
+        if (fallbackSearch != null) {
+            return fallbackSearch.isDone() && playFallback(fallbackAfter, waited);
+        }
+        // One search per request; a request it found no move for is left to the LLM
+        if (combatSearch == null || fallbackAfter <= 0 || inFlightStage != GameStageType.BATTLE
+                || waited < fallbackAfter || fallbackGeneration == requestGeneration.get()
+                || !enabled.get() || !canProcessGameState() || !isInCombat()) {
+            return false;
+        }
+        
+        try {
+            fallbackState = new GameState();
+        } catch (Exception e) {
+            logger.error("Failed to create GameState object: " + e.getMessage(), e);
+            return false;
+        }
+        fallbackGeneration = requestGeneration.get();
+        fallbackSearch = searchCombatAsync(fallbackState);
+        return false;
+    }
+    
+    /**
+     * Play the best move of the finished fallback search, if its request is still unanswered
+     * @return True if a move was played
+     */
+    private boolean playFallback(long fallbackAfter, long waited) {
+        CombatSearch.Result result = fallbackSearch.getNow(null);
+        GameState gameState = fallbackState;
+        fallbackSearch = null;
+        fallbackState = null;
+        if (result == null || result.getBest() == null || fallbackGeneration != requestGeneration.get()
+                || inFlightStage != GameStageType.BATTLE || !enabled.get()) {
+            return false;
+        }
+        
+        requestGeneration.incrementAndGet();
+        inFlightStage = null;
+        if (inFlightRequest != null) {
+            inFlightRequest.cancel(true);
+            inFlightRequest = null;
+        }
+        String action = result.getBest().getCommand();
+        logger.warn("LLM has not answered after " + waited + "ms, playing the search's best move " + result.getBest());
+        executeLocalDecision(gameState, action, "Local search, LLM slower than " + fallbackAfter + "ms");
+        lastProcessTime = System.currentTimeMillis();
+        processing.set(false);
+        return true;
+    }
+    
+    /**
+     * Predict the state the next turn starts in and send it to the LLM in the background,
+     * so the answer is under way, or ready, when the turn begins. A new request is sent
+     * when the prediction changes, e.g. once the monsters have rolled their next intents.
+     */
+    private void speculateNextTurn() {
+        LLMConfig.SpeculationConfig config = LLMConfig.getInstance().getSpeculation();
+        long now = System.currentTimeMillis();
+        if (!config.isEnabled() || !enabled.get() || processing.get() || now - lastSpeculationTime < config.getIntervalMs()) {
+            return;
+        }
+        lastSpeculationTime = now;
+        
+        int turn = AbstractDungeon.actionManager.turn;
+        if (turn != speculationTurn) {
+            speculationTurn = turn;
+            speculationsThisTurn = 0;
+        }
+        if (speculationsThisTurn >= config.getMaxPerTurn()) {
+            return;
+        }
+        
+        GameState predicted;
+        try {
+            predicted = NextTurnPredictor.predict(new GameState(), AbstractDungeon.player.gameHandSize,
+                                                  AbstractDungeon.player.energy.energy);
+        } catch (Exception e) {
+            logger.debug("Failed to predict the next turn: " + e.getMessage());
+            return;
+        }
+        if (predicted == null || predicted.availableActions == null || predicted.availableActions.isEmpty()) {
+            return;
+        }
+        byte[] digest = StateFingerprint.digest(predicted, null);
+        if (speculation != null && Arrays.equals(speculation.digest, digest)) {
+            return;
+        }
+        if (speculation != null) {
+            speculation.future.cancel(true);
+        }
+        
+        speculationsThisTurn++;
+        speculationsIssued++;
+        logger.debug("Speculating on the next turn (" + speculationsThisTurn + " this turn)");
+        Speculation next = new Speculation(digest, now);
+        next.future = llmService.requestAction(predicted, RequestScheduler.Priority.BACKGROUND);
+        next.future.whenComplete((action, ex) -> next.finishTime = System.currentTimeMillis());
+        speculation = next;
+    }
+    
+    /**
+     * Use the speculative answer if it was asked about the state the turn really started in
+     * @return The speculative request, or null if there is none or it does not match
+     */
+    private RequestHandle takeSpeculation(Speculation spec, GameState gameState, long now) {
+        if (spec == null) {
+            return null;
+        }
+        if (spec.future.isCompletedExceptionally()
+                || !Arrays.equals(spec.digest, StateFingerprint.digest(gameState, null))) {
+            spec.future.cancel(true);
+            speculationMisses++;
+            logger.info("Speculative request missed. " + describeSpeculation());
+            return null;
+        }
+        
+        // A finished answer saved its whole latency, one under way the time it has already run
+        long finishTime = spec.finishTime;
+        speculationHits++;
+        speculationSavedMs += (finishTime > 0 ? finishTime : now) - spec.startTime;
+        logger.info("Using the speculative request" + (finishTime > 0 ? ", already answered. " : ", still under way. ") +
+                    describeSpeculation());
+        return spec.future;
+    }
+    
+    private String describeSpeculation() {
+        return "Speculation: issued=" + speculationsIssued + ", hits=" + speculationHits +
+               ", misses=" + speculationMisses + ", saved=" + speculationSavedMs + "ms";
+    }
+    
+    /**
+     * Cancel the outstanding combat request once the state it asks about is gone, e.g. the
+     * turn ended, a monster died or the room changed: its answer would be stale, and waiting
+     * for it would hold back the request for the new state.
+     *
+     * Only combat requests are checked, and the state is only captured while the combat
+     * lasts: leaving it is a change in itself.
+     * @return True if the request was cancelled
+     */
+    private boolean cancelStaleRequest() {
+        LLMConfig.CancellationConfig config = LLMConfig.getInstance().getCancellation();
+        long now = System.currentTimeMillis();
+        if (!config.isEnabled() || inFlightRequest == null || inFlightRequest.isDone()
+                || inFlightStage != GameStageType.BATTLE || now - lastStaleCheck < config.getCheckIntervalMs()) {
+            return false;
+        }
+        lastStaleCheck = now;
+        
+        // Compare only settled states, not one an action is still resolving in
+        if (AbstractDungeon.actionManager != null && !AbstractDungeon.actionManager.isEmpty()) {
+            return false;
+        }
+        if (isInCombat()) {
+            byte[] digest;
+            try {
+                digest = StateFingerprint.digest(new GameState(), null);
+            } catch (Exception e) {
+                logger.debug("Failed to capture the state to check the request: " + e.getMessage());
+                return false;
+            }
+            if (Arrays.equals(inFlightDigest, digest)) {
+                return false;
+            }
+        }
+        
+        requestGeneration.incrementAndGet();
+        inFlightStage = null;
+        RequestHandle stale = inFlightRequest;
+        inFlightRequest = null;
+        stale.cancel(true);
+        logger.info("Game state changed while waiting " + (now - inFlightStart) + "ms for the LLM, request cancelled. " +
+                    "Cancellation stats: " + llmService.getCancellationStats());
+        processing.set(false);
+        return true;
+    }
+    
+    /**
+     * @return True while a combat is being fought, the only time the state may be captured
+     *         for a check: a GameState of the reward screen claims its rewards
+     */
+    private boolean isInCombat() {
+        AbstractRoom room = AbstractDungeon.getCurrRoom();
+        return room instanceof MonsterRoom && !room.isBattleOver
+                && AbstractDungeon.screen != AbstractDungeon.CurrentScreen.MAP;
+    }
+    
+    /**
+     * Load the trained policy model if it is enabled and exists
+     */
+    private DecisionPolicy loadPolicy() {
+        LLMConfig.PolicyConfig config = LLMConfig.getInstance().getPolicy();
+        if (!config.isEnabled()) {
+            return null;
+        }
+        File file = new File(LLMConfig.getInstance().getConversationDirectory(), config.getModelFile());
+        if (!file.exists()) {
+            logger.info("No policy model at " + file.getPath() + ", run PolicyTrainer on the conversation logs first");
+            return null;
+        }
+        try {
+            DecisionPolicy policy = new DecisionPolicy(PolicyModel.load(file), config.getMinConfidence());
+            logger.info("Loaded policy model " + file.getPath() + ": " + policy);
+            return policy;
+        } catch (IOException e) {
+            logger.error("Failed to load policy model: " + e.getMessage(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * Restart the rule counters when a new run (a new seed) begins
+     */
+    private void trackRun() {
+        if (ruleEngine == null) {
+            return;
+        }
+        Long seed = Settings.seed;
+        if (seed != null && !seed.equals(ruleRunSeed)) {
+            if (ruleRunSeed != null) {
+                logger.info("Run " + ruleRunSeed + " finished. Rules: " + ruleEngine);
+            }
+            ruleRunSeed = seed;
+            ruleEngine.startRun();
+        }
+    }
+    
+    /**
+     * Recover from a failed LLM request
+     */
+    private void handleFailedDecision(PendingDecision decision) {
+        Throwable ex = decision.error;
+        logger.error("Error getting LLM action: " + ex.getMessage(), ex);
+        if (conversationLogger != null) {
+            conversationLogger.logAction("ERROR: " + ex.getMessage(), "Exception occurred during processing");
+            conversationLogger.logResult("FAILED: API request error");
+        }
+        
+        // 尝试使用默认动作（通常是结束回合）以避免游戏卡住
+        if (decision.gameState != null && decision.gameState.stage == GameStageType.BATTLE) {
+            try {
+                logger.info("Trying fallback action: END_TURN due to API failure");
+                actionExecutor.executeAction("END_TURN", decision.gameState);
+            } catch (Exception e) {
+                logger.error("Failed to execute fallback action", e);
+            }
+        }
+    }
+    
+    /**
+     * A background request for a predicted state
+     */
+    private static class Speculation {
+        private final byte[] digest;
+        private final long startTime;
+        private RequestHandle future;
+        private volatile long finishTime = 0;
+        
+        private Speculation(byte[] digest, long startTime) {
+            this.digest = digest;
+            this.startTime = startTime;
+        }
+    }
+    
+    /**
+     * An LLM answer waiting to be applied on the game thread
+     */
+    private static class PendingDecision {
+        private final GameState gameState;
+        private final String response;
+        private final Throwable error;
+        // The search's ranking of the state for the veto, null when the answer is not checked
+        private final CombatSearch.Result ranking;
+        private final long requestStartTime;
+        private final long generation;
+        
+        private PendingDecision(GameState gameState, String response, Throwable error, CombatSearch.Result ranking,
+                                long requestStartTime, long generation) {
+            this.gameState = gameState;
+            this.response = response;
+            this.error = error;
+            this.ranking = ranking;
+            this.requestStartTime = requestStartTime;
+            this.generation = generation;
+        }
+    }
+    
     /**
      * Shutdown the controller and its components
      */
@@ -581,6 +1182,18 @@ public class LLMAutoplayController {
         }
         
         // Shutdown components
+        if (ruleEngine != null) {
+            logger.info("Rules: " + ruleEngine);
+        }
+        if (decisionPolicy != null) {
+            logger.info("Policy: " + decisionPolicy);
+        }
+        if (combatSearch != null) {
+            combatSearch.shutdown();
+        }
+        if (speculationsIssued > 0) {
+            logger.info(describeSpeculation());
+        }
         if (llmService != null) {
             llmService.shutdown();
         }
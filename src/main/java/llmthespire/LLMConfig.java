@@ -5,6 +5,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import com.megacrit.cardcrawl.core.Settings;
+import llmthespire.game.GameStageType;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -15,7 +16,11 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.io.FileReader;
@@ -40,6 +45,23 @@ public class LLMConfig {
     private boolean saveConversations;
     private String systemPrompt;
     private Map<String, Object> extraParams;
+    private HedgingConfig hedging;
+    private RoutingConfig routing;
+    private SchedulerConfig scheduler;
+    private RetryConfig retry;
+    private DecisionCacheConfig decisionCache;
+    private SimilarityCacheConfig similarityCache;
+    private PlanningConfig planning;
+    private RulesConfig rules;
+    private PolicyConfig policy;
+    private SearchConfig search;
+    private StageRoutingConfig stageRouting;
+    private CascadeConfig cascade;
+    private SpeculationConfig speculation;
+    private VotingConfig voting;
+    private CancellationConfig cancellation;
+    private ConversationConfig conversation;
+    private PromptBudgetConfig promptBudget;
     
     // Flag to prevent recursive loading
     private static boolean isLoading = false;
@@ -82,6 +104,14 @@ public class LLMConfig {
         private String model;
         private float temperature;
         private int maxTokens;
+        private int maxConnections;
+        private boolean stream;
+        private int requestsPerMinute;
+        private int tokensPerMinute;
+        private boolean gzipRequests;
+        private boolean acceptGzip;
+        private boolean promptCaching;
+        private boolean logprobs;
         
         public ApiConfig() {
             // 默認值
@@ -93,6 +123,14 @@ public class LLMConfig {
             this.model = "gpt-4o";
             this.temperature = 0.7f;
             this.maxTokens = 1024;
+            this.maxConnections = 4;
+            this.stream = false;
+            this.requestsPerMinute = 0;
+            this.tokensPerMinute = 0;
+            this.gzipRequests = false;
+            this.acceptGzip = true;
+            this.promptCaching = true;
+            this.logprobs = false;
         }
         
         public ApiConfig(String name, ApiType apiType) {
@@ -169,6 +207,974 @@ public class LLMConfig {
         public void setMaxTokens(int maxTokens) {
             this.maxTokens = maxTokens;
         }
+        
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+        
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+        
+        public boolean isStream() {
+            return stream;
+        }
+        
+        public void setStream(boolean stream) {
+            this.stream = stream;
+        }
+        
+        /**
+         * Client-side request quota; 0 means unlimited
+         */
+        public int getRequestsPerMinute() {
+            return requestsPerMinute;
+        }
+        
+        public void setRequestsPerMinute(int requestsPerMinute) {
+            this.requestsPerMinute = requestsPerMinute;
+        }
+        
+        /**
+         * Client-side token quota (prompt plus max output); 0 means unlimited
+         */
+        public int getTokensPerMinute() {
+            return tokensPerMinute;
+        }
+        
+        public void setTokensPerMinute(int tokensPerMinute) {
+            this.tokensPerMinute = tokensPerMinute;
+        }
+        
+        /**
+         * Send request bodies gzip-compressed; only for endpoints that accept Content-Encoding: gzip
+         */
+        public boolean isGzipRequests() {
+            return gzipRequests;
+        }
+        
+        public void setGzipRequests(boolean gzipRequests) {
+            this.gzipRequests = gzipRequests;
+        }
+        
+        /**
+         * Ask for gzip-compressed responses
+         */
+        public boolean isAcceptGzip() {
+            return acceptGzip;
+        }
+        
+        public void setAcceptGzip(boolean acceptGzip) {
+            this.acceptGzip = acceptGzip;
+        }
+        
+        /**
+         * Mark the system prompt as cacheable (Anthropic cache_control); other providers cache prefixes automatically
+         */
+        public boolean isPromptCaching() {
+            return promptCaching;
+        }
+        
+        public void setPromptCaching(boolean promptCaching) {
+            this.promptCaching = promptCaching;
+        }
+        
+        /**
+         * Ask for token log probabilities (OpenAI-compatible APIs only), used by the cascade to judge confidence
+         */
+        public boolean isLogprobs() {
+            return logprobs;
+        }
+        
+        public void setLogprobs(boolean logprobs) {
+            this.logprobs = logprobs;
+        }
+    }
+    
+    /**
+     * Settings for hedged duplicate requests
+     */
+    public static class HedgingConfig {
+        private boolean enabled;
+        private double percentile;
+        private long defaultDelayMs;
+        private long minDelayMs;
+        private String alternateApiName;
+        
+        public HedgingConfig() {
+            this.enabled = false;
+            this.percentile = 0.9;
+            this.defaultDelayMs = 8000;
+            this.minDelayMs = 1000;
+            this.alternateApiName = "";
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Percentile of recent latency after which the hedge is sent, e.g. 0.9 for p90
+         */
+        public double getPercentile() {
+            return percentile;
+        }
+        
+        public void setPercentile(double percentile) {
+            this.percentile = percentile;
+        }
+        
+        /**
+         * Hedge delay used until enough latencies have been recorded
+         */
+        public long getDefaultDelayMs() {
+            return defaultDelayMs;
+        }
+        
+        public void setDefaultDelayMs(long defaultDelayMs) {
+            this.defaultDelayMs = defaultDelayMs;
+        }
+        
+        /**
+         * Lower bound for the hedge delay
+         */
+        public long getMinDelayMs() {
+            return minDelayMs;
+        }
+        
+        public void setMinDelayMs(long minDelayMs) {
+            this.minDelayMs = minDelayMs;
+        }
+        
+        /**
+         * API configuration that receives the hedge; empty means the same one as the original request
+         */
+        public String getAlternateApiName() {
+            return alternateApiName;
+        }
+        
+        public void setAlternateApiName(String alternateApiName) {
+            this.alternateApiName = alternateApiName;
+        }
+    }
+    
+    /**
+     * Settings for latency-aware routing across the enabled API configurations
+     */
+    public static class RoutingConfig {
+        private boolean enabled;
+        private int failureThreshold;
+        private long openDurationMs;
+        private double ewmaAlpha;
+        
+        public RoutingConfig() {
+            this.enabled = false;
+            this.failureThreshold = 3;
+            this.openDurationMs = 30000;
+            this.ewmaAlpha = 0.3;
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Consecutive failures that open a configuration's circuit breaker
+         */
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+        
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+        
+        /**
+         * How long an open breaker rejects requests before letting a probe through
+         */
+        public long getOpenDurationMs() {
+            return openDurationMs;
+        }
+        
+        public void setOpenDurationMs(long openDurationMs) {
+            this.openDurationMs = openDurationMs;
+        }
+        
+        /**
+         * Smoothing factor for the latency and error-rate averages
+         */
+        public double getEwmaAlpha() {
+            return ewmaAlpha;
+        }
+        
+        public void setEwmaAlpha(double ewmaAlpha) {
+            this.ewmaAlpha = ewmaAlpha;
+        }
+    }
+    
+    /**
+     * Settings for retrying rate-limited and transient provider errors
+     */
+    public static class RetryConfig {
+        private int maxAttempts;
+        private long baseDelayMs;
+        private long maxDelayMs;
+        private long maxRetryAfterMs;
+        
+        public RetryConfig() {
+            this.maxAttempts = 3;
+            this.baseDelayMs = 500;
+            this.maxDelayMs = 8000;
+            this.maxRetryAfterMs = 20000;
+        }
+        
+        /**
+         * Total attempts per request, including the first one
+         */
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+        
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+        
+        /**
+         * Backoff before the first retry; doubled for every further retry
+         */
+        public long getBaseDelayMs() {
+            return baseDelayMs;
+        }
+        
+        public void setBaseDelayMs(long baseDelayMs) {
+            this.baseDelayMs = baseDelayMs;
+        }
+        
+        /**
+         * Upper bound for the exponential backoff
+         */
+        public long getMaxDelayMs() {
+            return maxDelayMs;
+        }
+        
+        public void setMaxDelayMs(long maxDelayMs) {
+            this.maxDelayMs = maxDelayMs;
+        }
+        
+        /**
+         * Longest Retry-After worth waiting for; longer ones fail the request right away
+         */
+        public long getMaxRetryAfterMs() {
+            return maxRetryAfterMs;
+        }
+        
+        public void setMaxRetryAfterMs(long maxRetryAfterMs) {
+            this.maxRetryAfterMs = maxRetryAfterMs;
+        }
+    }
+    
+    /**
+     * Settings for the persistent decision cache
+     */
+    public static class DecisionCacheConfig {
+        private boolean enabled;
+        private int maxEntries;
+        
+        public DecisionCacheConfig() {
+            this.enabled = true;
+            this.maxEntries = 4096;
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Decisions kept before the least recently used ones are evicted
+         */
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+        
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+    
+    /**
+     * Settings for the approximate decision cache used in combat
+     */
+    public static class SimilarityCacheConfig {
+        private boolean enabled;
+        private boolean shadowMode;
+        private double maxDistance;
+        private int maxEntries;
+        
+        public SimilarityCacheConfig() {
+            this.enabled = true;
+            this.shadowMode = true;
+            this.maxDistance = 1.0;
+            this.maxEntries = 2048;
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Only measure how often a reused decision would match the LLM's answer
+         */
+        public boolean isShadowMode() {
+            return shadowMode;
+        }
+        
+        public void setShadowMode(boolean shadowMode) {
+            this.shadowMode = shadowMode;
+        }
+        
+        /**
+         * Largest feature distance at which a decision is reused
+         */
+        public double getMaxDistance() {
+            return maxDistance;
+        }
+        
+        public void setMaxDistance(double maxDistance) {
+            this.maxDistance = maxDistance;
+        }
+        
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+        
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+    
+    /**
+     * Settings for whole-turn planning in combat
+     */
+    public static class PlanningConfig {
+        private boolean enabled;
+        private int maxSteps;
+        
+        public PlanningConfig() {
+            this.enabled = false;
+            this.maxSteps = 12;
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Steps of a plan that are followed before the LLM is asked again
+         */
+        public int getMaxSteps() {
+            return maxSteps;
+        }
+        
+        public void setMaxSteps(int maxSteps) {
+            this.maxSteps = maxSteps;
+        }
+    }
+    
+    /**
+     * Settings for the local rules that answer forced decisions without the LLM
+     */
+    public static class RulesConfig {
+        private boolean enabled;
+        
+        public RulesConfig() {
+            this.enabled = true;
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+    
+    /**
+     * Settings for the local policy model trained from conversation logs
+     */
+    public static class PolicyConfig {
+        private boolean enabled;
+        private String modelFile;
+        private double minConfidence;
+        
+        public PolicyConfig() {
+            this.enabled = false;
+            this.modelFile = "policy_model.json";
+            this.minConfidence = 0.9;
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Model written by PolicyTrainer, relative to the conversation directory
+         */
+        public String getModelFile() {
+            return modelFile;
+        }
+        
+        public void setModelFile(String modelFile) {
+            this.modelFile = modelFile;
+        }
+        
+        /**
+         * Probability the model's top play needs before it is used instead of the LLM
+         */
+        public double getMinConfidence() {
+            return minConfidence;
+        }
+        
+        public void setMinConfidence(double minConfidence) {
+            this.minConfidence = minConfidence;
+        }
+    }
+    
+    /**
+     * Settings for the local combat search
+     */
+    public static class SearchConfig {
+        private boolean enabled;
+        private int threads;
+        private long budgetMs;
+        private boolean veto;
+        private long fallbackAfterMs;
+        
+        public SearchConfig() {
+            this.enabled = false;
+            this.threads = 2;
+            this.budgetMs = 30;
+            this.veto = false;
+            this.fallbackAfterMs = 10000;
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        public int getThreads() {
+            return threads;
+        }
+        
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+        
+        /**
+         * Time one search may take on a background thread
+         */
+        public long getBudgetMs() {
+            return budgetMs;
+        }
+        
+        public void setBudgetMs(long budgetMs) {
+            this.budgetMs = budgetMs;
+        }
+        
+        /**
+         * Replace LLM plays whose turn ends worse (dying, or not winning) than the best line found
+         */
+        public boolean isVeto() {
+            return veto;
+        }
+        
+        public void setVeto(boolean veto) {
+            this.veto = veto;
+        }
+        
+        /**
+         * Play the search's best move when a combat request has not answered by then, 0 = never
+         */
+        public long getFallbackAfterMs() {
+            return fallbackAfterMs;
+        }
+        
+        public void setFallbackAfterMs(long fallbackAfterMs) {
+            this.fallbackAfterMs = fallbackAfterMs;
+        }
+    }
+    
+    /**
+     * Settings for routing each game stage to its own API configuration
+     */
+    public static class StageRoutingConfig {
+        private boolean enabled;
+        private Map<String, StageRoute> stages;
+        
+        public StageRoutingConfig() {
+            this.enabled = false;
+            this.stages = new LinkedHashMap<>();
+            for (GameStageType stage : GameStageType.values()) {
+                this.stages.put(stage.name(), new StageRoute("", stage == GameStageType.BATTLE ? 15000 : 8000));
+            }
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Routes keyed by GameStageType name
+         */
+        public Map<String, StageRoute> getStages() {
+            return stages;
+        }
+        
+        public void setStages(Map<String, StageRoute> stages) {
+            this.stages = stages;
+        }
+        
+        /**
+         * @return The route configured for a stage, or null if there is none
+         */
+        public StageRoute routeFor(GameStageType stage) {
+            return stages != null && stage != null ? stages.get(stage.name()) : null;
+        }
+        
+        /**
+         * @return The latency SLO of a stage in milliseconds, 0 if none is set
+         */
+        public long sloFor(GameStageType stage) {
+            StageRoute route = routeFor(stage);
+            return route != null ? Math.max(0, route.getSloMs()) : 0;
+        }
+    }
+    
+    /**
+     * The API configuration and latency target of one game stage
+     */
+    public static class StageRoute {
+        private String apiName;
+        private long sloMs;
+        
+        public StageRoute() {
+            this("", 0);
+        }
+        
+        public StageRoute(String apiName, long sloMs) {
+            this.apiName = apiName;
+            this.sloMs = sloMs;
+        }
+        
+        /**
+         * API configuration for the stage; empty to use the normal routing
+         */
+        public String getApiName() {
+            return apiName;
+        }
+        
+        public void setApiName(String apiName) {
+            this.apiName = apiName;
+        }
+        
+        /**
+         * Answer time the stage's API should stay under, 0 = no target
+         */
+        public long getSloMs() {
+            return sloMs;
+        }
+        
+        public void setSloMs(long sloMs) {
+            this.sloMs = sloMs;
+        }
+    }
+    
+    /**
+     * Settings for the cheap-model-first cascade
+     */
+    public static class CascadeConfig {
+        private boolean enabled;
+        private String cheapApiName;
+        private String strongApiName;
+        private int samples;
+        private double minActionProbability;
+        private double baselineRate;
+        
+        public CascadeConfig() {
+            this.enabled = false;
+            this.cheapApiName = "DeepSeek";
+            this.strongApiName = "";
+            this.samples = 2;
+            this.minActionProbability = 0.8;
+            this.baselineRate = 0.0;
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * API configuration asked first
+         */
+        public String getCheapApiName() {
+            return cheapApiName;
+        }
+        
+        public void setCheapApiName(String cheapApiName) {
+            this.cheapApiName = cheapApiName;
+        }
+        
+        /**
+         * API configuration escalated to; empty to use the stage's normal routing
+         */
+        public String getStrongApiName() {
+            return strongApiName;
+        }
+        
+        public void setStrongApiName(String strongApiName) {
+            this.strongApiName = strongApiName;
+        }
+        
+        /**
+         * Concurrent cheap samples per decision; with 2, disagreement escalates
+         */
+        public int getSamples() {
+            return samples;
+        }
+        
+        public void setSamples(int samples) {
+            this.samples = samples;
+        }
+        
+        /**
+         * Escalate when the cheap model gave its action a lower probability (needs logprobs on the cheap API)
+         */
+        public double getMinActionProbability() {
+            return minActionProbability;
+        }
+        
+        public void setMinActionProbability(double minActionProbability) {
+            this.minActionProbability = minActionProbability;
+        }
+        
+        /**
+         * Share of accepted cheap answers also sent to the strong model in the background, to measure it
+         */
+        public double getBaselineRate() {
+            return baselineRate;
+        }
+        
+        public void setBaselineRate(double baselineRate) {
+            this.baselineRate = baselineRate;
+        }
+    }
+    
+    /**
+     * Settings for asking about the next turn while the monsters act
+     */
+    public static class SpeculationConfig {
+        private boolean enabled;
+        private int maxPerTurn;
+        private long intervalMs;
+        
+        public SpeculationConfig() {
+            this.enabled = false;
+            this.maxPerTurn = 3;
+            this.intervalMs = 250;
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Speculative requests per monster turn; a new one is sent when the predicted state changes
+         */
+        public int getMaxPerTurn() {
+            return maxPerTurn;
+        }
+        
+        public void setMaxPerTurn(int maxPerTurn) {
+            this.maxPerTurn = maxPerTurn;
+        }
+        
+        /**
+         * Minimum time between two predictions of the next turn
+         */
+        public long getIntervalMs() {
+            return intervalMs;
+        }
+        
+        public void setIntervalMs(long intervalMs) {
+            this.intervalMs = intervalMs;
+        }
+    }
+    
+    /**
+     * Settings for deciding high-stakes decisions by a vote of concurrent samples
+     */
+    public static class VotingConfig {
+        private boolean enabled;
+        private int samples;
+        private int quorum;
+        private List<String> decisions;
+        
+        public VotingConfig() {
+            this.enabled = false;
+            this.samples = 5;
+            this.quorum = 3;
+            this.decisions = new ArrayList<>(Arrays.asList("ELITE", "BOSS", "REMOVE", "NEOW"));
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Concurrent samples per voted decision
+         */
+        public int getSamples() {
+            return samples;
+        }
+        
+        public void setSamples(int samples) {
+            this.samples = samples;
+        }
+        
+        /**
+         * Votes for one action that end the vote early; 0 for a simple majority of the samples
+         */
+        public int getQuorum() {
+            return quorum > 0 ? quorum : Math.max(1, samples) / 2 + 1;
+        }
+        
+        public void setQuorum(int quorum) {
+            this.quorum = quorum;
+        }
+        
+        /**
+         * Decisions that are voted on: ELITE and BOSS combat, REMOVE card selection, NEOW, or any stage name
+         */
+        public List<String> getDecisions() {
+            return decisions;
+        }
+        
+        public void setDecisions(List<String> decisions) {
+            this.decisions = decisions;
+        }
+    }
+    
+    /**
+     * Settings for cancelling requests whose game state has changed
+     */
+    public static class CancellationConfig {
+        private boolean enabled;
+        private long checkIntervalMs;
+        
+        public CancellationConfig() {
+            this.enabled = true;
+            this.checkIntervalMs = 250;
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Minimum time between two checks of the state behind the outstanding request
+         */
+        public long getCheckIntervalMs() {
+            return checkIntervalMs;
+        }
+        
+        public void setCheckIntervalMs(long checkIntervalMs) {
+            this.checkIntervalMs = checkIntervalMs;
+        }
+    }
+    
+    /**
+     * Settings for sending only state changes within a combat
+     */
+    public static class ConversationConfig {
+        private boolean enabled;
+        private long maxHistoryTokens;
+        
+        public ConversationConfig() {
+            this.enabled = false;
+            this.maxHistoryTokens = 3000;
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Estimated tokens of earlier messages kept in the conversation before it is resynced with a full snapshot
+         */
+        public long getMaxHistoryTokens() {
+            return maxHistoryTokens;
+        }
+        
+        public void setMaxHistoryTokens(long maxHistoryTokens) {
+            this.maxHistoryTokens = maxHistoryTokens;
+        }
+    }
+    
+    /**
+     * Settings for the optional sections of the game state prompt and for capping its estimated size
+     */
+    public static class PromptBudgetConfig {
+        private boolean enabled;
+        private boolean collection;
+        private Map<String, Long> stages;
+        
+        public PromptBudgetConfig() {
+            this.enabled = true;
+            this.collection = false;
+            this.stages = new LinkedHashMap<>();
+            for (GameStageType stage : GameStageType.values()) {
+                this.stages.put(stage.name(), stage == GameStageType.BATTLE ? 1200L : 800L);
+            }
+        }
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        /**
+         * Whether the prompt also lists the relics, potions and card piles, with a reference
+         * describing their cards, relics and potions
+         */
+        public boolean isCollection() {
+            return collection;
+        }
+        
+        public void setCollection(boolean collection) {
+            this.collection = collection;
+        }
+        
+        /**
+         * Estimated prompt tokens keyed by GameStageType name
+         */
+        public Map<String, Long> getStages() {
+            return stages;
+        }
+        
+        public void setStages(Map<String, Long> stages) {
+            this.stages = stages;
+        }
+        
+        /**
+         * @return The token budget of a stage, 0 if it has none
+         */
+        public long budgetFor(GameStageType stage) {
+            Long budget = stages != null && stage != null ? stages.get(stage.name()) : null;
+            return budget != null ? Math.max(0, budget) : 0;
+        }
+    }
+    
+    /**
+     * Settings for the LLM request scheduler
+     */
+    public static class SchedulerConfig {
+        private int ioThreads;
+        private int cpuThreads;
+        private int queueCapacity;
+        
+        public SchedulerConfig() {
+            this.ioThreads = 4;
+            this.cpuThreads = 2;
+            this.queueCapacity = 16;
+        }
+        
+        /**
+         * Threads making provider calls
+         */
+        public int getIoThreads() {
+            return ioThreads;
+        }
+        
+        public void setIoThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+        }
+        
+        /**
+         * Threads parsing and cleaning responses
+         */
+        public int getCpuThreads() {
+            return cpuThreads;
+        }
+        
+        public void setCpuThreads(int cpuThreads) {
+            this.cpuThreads = cpuThreads;
+        }
+        
+        /**
+         * Requests allowed to wait for a thread before new ones are rejected
+         */
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+        
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
     }
     
     /**
@@ -216,6 +1222,23 @@ public class LLMConfig {
         saveConversations = true;
         systemPrompt = "You are an AI assistant playing Slay the Spire. Your job is to analyze the game state and make strategic choices to win the game. Choose the best action based on the current game state.";
         extraParams = new HashMap<>();
+        hedging = new HedgingConfig();
+        routing = new RoutingConfig();
+        scheduler = new SchedulerConfig();
+        retry = new RetryConfig();
+        decisionCache = new DecisionCacheConfig();
+        similarityCache = new SimilarityCacheConfig();
+        planning = new PlanningConfig();
+        rules = new RulesConfig();
+        policy = new PolicyConfig();
+        search = new SearchConfig();
+        stageRouting = new StageRoutingConfig();
+        cascade = new CascadeConfig();
+        speculation = new SpeculationConfig();
+        voting = new VotingConfig();
+        cancellation = new CancellationConfig();
+        conversation = new ConversationConfig();
+        promptBudget = new PromptBudgetConfig();
         
         // 創建默認API配置
         createDefaultConfigs();
@@ -305,6 +1328,24 @@ public class LLMConfig {
                             }
                         }
                         
+                        this.hedging = parseSection(data, "hedging", HedgingConfig.class, this.hedging);
+                        this.routing = parseSection(data, "routing", RoutingConfig.class, this.routing);
+                        this.scheduler = parseSection(data, "scheduler", SchedulerConfig.class, this.scheduler);
+                        this.retry = parseSection(data, "retry", RetryConfig.class, this.retry);
+                        this.decisionCache = parseSection(data, "decisionCache", DecisionCacheConfig.class, this.decisionCache);
+                        this.similarityCache = parseSection(data, "similarityCache", SimilarityCacheConfig.class, this.similarityCache);
+                        this.planning = parseSection(data, "planning", PlanningConfig.class, this.planning);
+                        this.rules = parseSection(data, "rules", RulesConfig.class, this.rules);
+                        this.policy = parseSection(data, "policy", PolicyConfig.class, this.policy);
+                        this.search = parseSection(data, "search", SearchConfig.class, this.search);
+                        this.stageRouting = parseSection(data, "stageRouting", StageRoutingConfig.class, this.stageRouting);
+                        this.cascade = parseSection(data, "cascade", CascadeConfig.class, this.cascade);
+                        this.speculation = parseSection(data, "speculation", SpeculationConfig.class, this.speculation);
+                        this.voting = parseSection(data, "voting", VotingConfig.class, this.voting);
+                        this.cancellation = parseSection(data, "cancellation", CancellationConfig.class, this.cancellation);
+                        this.conversation = parseSection(data, "conversation", ConversationConfig.class, this.conversation);
+                        this.promptBudget = parseSection(data, "promptBudget", PromptBudgetConfig.class, this.promptBudget);
+                        
                         // 確保活躍API存在
                         if (this.activeApiName == null || !this.apiConfigs.containsKey(this.activeApiName)) {
                             // 選擇第一個啟用的API
@@ -341,6 +1382,17 @@ public class LLMConfig {
         }
     }
     
+    /**
+     * Parse a nested settings section, keeping the current value when the key is missing
+     */
+    private <T> T parseSection(Map<String, Object> data, String key, Class<T> type, T current) {
+        if (!data.containsKey(key)) {
+            return current;
+        }
+        T loaded = gson.fromJson(gson.toJson(data.get(key)), type);
+        return loaded != null ? loaded : current;
+    }
+    
     /**
      * Save config to file
      */
@@ -360,6 +1412,23 @@ public class LLMConfig {
             configData.put("saveConversations", saveConversations);
             configData.put("systemPrompt", systemPrompt);
             configData.put("extraParams", extraParams);
+            configData.put("hedging", hedging);
+            configData.put("routing", routing);
+            configData.put("scheduler", scheduler);
+            configData.put("retry", retry);
+            configData.put("decisionCache", decisionCache);
+            configData.put("similarityCache", similarityCache);
+            configData.put("planning", planning);
+            configData.put("rules", rules);
+            configData.put("policy", policy);
+            configData.put("search", search);
+            configData.put("stageRouting", stageRouting);
+            configData.put("cascade", cascade);
+            configData.put("speculation", speculation);
+            configData.put("voting", voting);
+            configData.put("cancellation", cancellation);
+            configData.put("conversation", conversation);
+            configData.put("promptBudget", promptBudget);
             
             // Serialize the clean copy
             String json = serializer.toJson(configData);
@@ -507,6 +1576,74 @@ public class LLMConfig {
         saveConfig();
     }
     
+    public HedgingConfig getHedging() {
+        return hedging;
+    }
+    
+    public RoutingConfig getRouting() {
+        return routing;
+    }
+    
+    public SchedulerConfig getScheduler() {
+        return scheduler;
+    }
+    
+    public RetryConfig getRetry() {
+        return retry;
+    }
+    
+    public DecisionCacheConfig getDecisionCache() {
+        return decisionCache;
+    }
+    
+    public SimilarityCacheConfig getSimilarityCache() {
+        return similarityCache;
+    }
+    
+    public PlanningConfig getPlanning() {
+        return planning;
+    }
+    
+    public RulesConfig getRules() {
+        return rules;
+    }
+    
+    public PolicyConfig getPolicy() {
+        return policy;
+    }
+    
+    public SearchConfig getSearch() {
+        return search;
+    }
+    
+    public StageRoutingConfig getStageRouting() {
+        return stageRouting;
+    }
+    
+    public CascadeConfig getCascade() {
+        return cascade;
+    }
+    
+    public SpeculationConfig getSpeculation() {
+        return speculation;
+    }
+    
+    public VotingConfig getVoting() {
+        return voting;
+    }
+    
+    public CancellationConfig getCancellation() {
+        return cancellation;
+    }
+    
+    public ConversationConfig getConversation() {
+        return conversation;
+    }
+    
+    public PromptBudgetConfig getPromptBudget() {
+        return promptBudget;
+    }
+    
     public String getConversationDirectory() {
         return conversationDirectory;
     }
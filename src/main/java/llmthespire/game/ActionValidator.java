@@ -0,0 +1,99 @@
+package llmthespire.game;
+
+import java.util.List;
+
+/**
+ * Checks an action against a captured GameState before it is trusted.
+ *
+ * Only what the state can tell is checked: the command must parse, combat
+ * commands must stay in combat, and card, potion, target and option indices must
+ * point at something that exists and can be used. Works on the captured state
+ * only, so it is safe to call off the game thread.
+ */
+public class ActionValidator {
+    private ActionValidator() {
+    }
+
+    /**
+     * @return Why the action cannot be executed in the state, or null if it looks executable
+     */
+    public static String validate(GameState state, String action) {
+        CommandParser.Command command = CommandParser.parse(action);
+        CommandParser.CommandType type = command.getType();
+        if (type == CommandParser.CommandType.UNKNOWN) {
+            return "unknown command";
+        }
+
+        boolean combatCommand = type == CommandParser.CommandType.PLAY_CARD
+                || type == CommandParser.CommandType.USE_POTION
+                || type == CommandParser.CommandType.END_TURN;
+        if (state.stage == GameStageType.BATTLE) {
+            return combatCommand ? validateCombat(state, command) : null;
+        }
+        if (type == CommandParser.CommandType.PLAY_CARD || type == CommandParser.CommandType.END_TURN) {
+            return type + " outside combat";
+        }
+        if (type == CommandParser.CommandType.CHOOSE_OPTION) {
+            List<String> options = options(state);
+            if (options != null && !options.isEmpty() && !inRange(command.getParameter(0), options.size())) {
+                return "no option " + command.getParameter(0);
+            }
+        }
+        return null;
+    }
+
+    private static String validateCombat(GameState state, CommandParser.Command command) {
+        List<GameState.CustomMonsterInfo> monsters = state.stageInfo instanceof GameState.BattleStageInfo
+                ? ((GameState.BattleStageInfo) state.stageInfo).monsters
+                : null;
+        int index = command.getParameter(0);
+        int target = command.getParameter(1);
+
+        switch (command.getType()) {
+            case PLAY_CARD: {
+                if (!inRange(index, state.hand.size())) {
+                    return "no card " + index + " in a hand of " + state.hand.size();
+                }
+                GameState.CardInfo card = state.hand.get(index);
+                if (!card.canUse) {
+                    return card.name + " cannot be played";
+                }
+                if (target >= 0 && monsters != null && !inRange(target, monsters.size())) {
+                    return "no monster " + target;
+                }
+                return null;
+            }
+            case USE_POTION: {
+                if (!inRange(index, state.potions.size())) {
+                    return "no potion " + index;
+                }
+                if (!state.potions.get(index).canUse) {
+                    return state.potions.get(index).name + " cannot be used";
+                }
+                if (target >= 0 && monsters != null && !inRange(target, monsters.size())) {
+                    return "no monster " + target;
+                }
+                return null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The options a CHOOSE_OPTION index refers to, or null if the stage has none
+     */
+    private static List<String> options(GameState state) {
+        if (state.stageInfo instanceof GameState.EventStageInfo) {
+            return ((GameState.EventStageInfo) state.stageInfo).options;
+        }
+        if (state.stageInfo instanceof GameState.NeowStageInfo) {
+            return ((GameState.NeowStageInfo) state.stageInfo).options;
+        }
+        return null;
+    }
+
+    private static boolean inRange(int index, int size) {
+        return index >= 0 && index < size;
+    }
+}
@@ -0,0 +1,92 @@
+package llmthespire.game;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Normalized feature vector of a combat state, used to find similar states.
+ *
+ * The vector is sparse (feature name to value) and built so that trivial
+ * differences vanish or stay small: the hand is a multiset of cards, so its order
+ * does not matter; HP is bucketed, so a monster losing 1 HP usually keeps the
+ * same vector; monsters are keyed by their position, which is also how actions
+ * target them.
+ */
+public class CombatFeatures {
+    /** HP is expressed in tenths of the maximum */
+    private static final int HP_BUCKETS = 10;
+
+    private CombatFeatures() {
+    }
+
+    /**
+     * Build the feature vector of a combat state
+     * @return The features, or null if the state is not a combat state
+     */
+    public static Map<String, Double> extract(GameState state) {
+        if (state.stage != GameStageType.BATTLE || !(state.stageInfo instanceof GameState.BattleStageInfo)) {
+            return null;
+        }
+        GameState.BattleStageInfo battle = (GameState.BattleStageInfo) state.stageInfo;
+        Map<String, Double> features = new HashMap<>();
+
+        add(features, "energy", battle.energy);
+        add(features, "hp", hpBucket(state.currentHp, state.maxHp));
+        for (GameState.CardInfo card : state.hand) {
+            add(features, "card:" + card.id + (card.upgraded ? "+" : ""), 1);
+        }
+        addAll(features, "power:", battle.powers);
+
+        List<GameState.CustomMonsterInfo> monsters = battle.monsters;
+        for (int i = 0; i < monsters.size(); i++) {
+            GameState.CustomMonsterInfo monster = monsters.get(i);
+            String prefix = "m" + i + ":";
+            add(features, prefix + monster.name, 1);
+            add(features, prefix + "hp", hpBucket(monster.currentHp, monster.maxHp));
+            add(features, prefix + "intent:" + monster.intent, 1);
+            addAll(features, prefix + "power:", monster.powers);
+        }
+        return features;
+    }
+
+    /**
+     * Euclidean distance between two feature vectors; a missing feature counts as 0
+     */
+    public static double distance(Map<String, Double> a, Map<String, Double> b) {
+        double sum = 0;
+        for (Map.Entry<String, Double> entry : a.entrySet()) {
+            Double other = b.get(entry.getKey());
+            double diff = entry.getValue() - (other != null ? other : 0);
+            sum += diff * diff;
+        }
+        for (Map.Entry<String, Double> entry : b.entrySet()) {
+            if (!a.containsKey(entry.getKey())) {
+                sum += entry.getValue() * entry.getValue();
+            }
+        }
+        return Math.sqrt(sum);
+    }
+
+    private static int hpBucket(int currentHp, int maxHp) {
+        if (maxHp <= 0 || currentHp <= 0) {
+            return 0;
+        }
+        // Round up, so only a dead creature is in bucket 0
+        return (int) Math.ceil(Math.min(currentHp, maxHp) * (double) HP_BUCKETS / maxHp);
+    }
+
+    private static void addAll(Map<String, Double> features, String prefix, List<String> values) {
+        if (values != null) {
+            for (String value : values) {
+                add(features, prefix + value, 1);
+            }
+        }
+    }
+
+    private static void add(Map<String, Double> features, String name, double value) {
+        if (value != 0) {
+            features.merge(name, value, Double::sum);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package llmthespire.game;
+
+/**
+ * A local rule that answers a decision without asking the LLM
+ */
+public interface DecisionRule {
+    /**
+     * @param state The state to decide for
+     * @return The action to execute, or null if the rule does not apply
+     */
+    String decide(GameState state);
+}
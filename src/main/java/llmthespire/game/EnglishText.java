@@ -0,0 +1,96 @@
+package llmthespire.game;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.megacrit.cardcrawl.core.Settings;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Canonical English card names and descriptions, whatever language the game runs in.
+ *
+ * English text is shorter in tokens than most translations and keeps prompts and
+ * logs comparable across languages. The card strings are read once from the game's
+ * own English localization on the classpath; anything missing falls back to the
+ * game's current text. Relic and potion descriptions are assembled by the game from
+ * numbers at runtime, so they stay in the game's language.
+ */
+public class EnglishText {
+    private static final Logger logger = LogManager.getLogger(EnglishText.class.getName());
+    private static final String CARDS_FILE = "localization/eng/cards.json";
+
+    private static volatile JsonObject cards;
+
+    private EnglishText() {
+    }
+
+    /**
+     * @param id The card's ID
+     * @param upgraded Whether the card is upgraded
+     * @param timesUpgraded How often it is upgraded, above 1 only for Searing Blow
+     * @param name The name in the game's language, used if no English name is found
+     */
+    public static String cardName(String id, boolean upgraded, int timesUpgraded, String name) {
+        JsonObject strings = cardStrings(id);
+        if (strings == null || !strings.has("NAME")) {
+            return name;
+        }
+        String english = strings.get("NAME").getAsString();
+        if (!upgraded) {
+            return english;
+        }
+        return timesUpgraded > 1 ? english + "+" + timesUpgraded : english + "+";
+    }
+
+    /**
+     * @param id The card's ID
+     * @param upgraded Whether the card is upgraded; its upgrade text is used if it has one
+     * @param description The raw description in the game's language, used if no English text is found
+     */
+    public static String cardDescription(String id, boolean upgraded, String description) {
+        JsonObject strings = cardStrings(id);
+        if (strings == null) {
+            return description;
+        }
+        JsonElement text = upgraded && strings.has("UPGRADE_DESCRIPTION") ? strings.get("UPGRADE_DESCRIPTION") : strings.get("DESCRIPTION");
+        return text != null && text.isJsonPrimitive() ? text.getAsString() : description;
+    }
+
+    /**
+     * The English strings of a card, or null if the game already runs in English or they cannot be read
+     */
+    private static JsonObject cardStrings(String id) {
+        if (id == null || Settings.language == Settings.GameLanguage.ENG) {
+            return null;
+        }
+        JsonObject all = cards;
+        if (all == null) {
+            all = load();
+            cards = all;
+        }
+        JsonElement strings = all.get(id);
+        return strings != null && strings.isJsonObject() ? strings.getAsJsonObject() : null;
+    }
+
+    private static JsonObject load() {
+        try (InputStream in = EnglishText.class.getClassLoader().getResourceAsStream(CARDS_FILE)) {
+            if (in == null) {
+                logger.warn("No " + CARDS_FILE + " on the classpath, card text stays in " + Settings.language);
+                return new JsonObject();
+            }
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                JsonObject strings = new Gson().fromJson(reader, JsonObject.class);
+                return strings != null ? strings : new JsonObject();
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to read " + CARDS_FILE + ": " + e.getMessage());
+            return new JsonObject();
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package llmthespire.game;
 
+import basemod.ReflectionHacks;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.InstanceCreator;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.annotations.Expose;
 import com.megacrit.cardcrawl.cards.AbstractCard;
 import com.megacrit.cardcrawl.characters.AbstractPlayer;
@@ -29,7 +33,12 @@ import java.util.List;
  */
 public class GameState {
     private static final Logger logger = LogManager.getLogger(GameState.class.getName());
-    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    // Compact, since every decision logs its state; fromJson also reads older pretty-printed logs
+    private static final Gson gson = new Gson();
+    // Reads logged states back without touching the running game
+    private static final Gson reader = new GsonBuilder()
+            .registerTypeAdapter(GameState.class, (InstanceCreator<GameState>) type -> new GameState(null))
+            .create();
     
     // Stage information
     @Expose public GameStageType stage;
@@ -65,6 +74,82 @@ public class GameState {
         generateAvailableActions();
     }
     
+    /**
+     * Empty state, filled in by fromJson
+     */
+    private GameState(GameStageType stage) {
+        this.stage = stage;
+    }
+    
+    /**
+     * Rebuild a state from its toString() form, e.g. from a conversation log.
+     * Does not read the running game, so it also works outside of it.
+     * @return The state, or null if the JSON is not a game state
+     */
+    public static GameState fromJson(String json) {
+        JsonObject object;
+        try {
+            object = reader.fromJson(json, JsonObject.class);
+        } catch (RuntimeException e) {
+            logger.debug("Not a game state: " + e.getMessage());
+            return null;
+        }
+        if (object == null || !object.has("stage")) {
+            return null;
+        }
+        
+        // The stage decides which subclass the stage info is
+        JsonElement stageInfoJson = object.remove("stageInfo");
+        GameState state;
+        try {
+            state = reader.fromJson(object, GameState.class);
+        } catch (RuntimeException e) {
+            logger.debug("Not a game state: " + e.getMessage());
+            return null;
+        }
+        if (state == null || state.stage == null) {
+            return null;
+        }
+        Class<? extends StageSpecificInfo> infoType = stageInfoType(state.stage);
+        if (infoType != null && stageInfoJson != null && stageInfoJson.isJsonObject()) {
+            state.stageInfo = reader.fromJson(stageInfoJson, infoType);
+        }
+        return state;
+    }
+    
+    /**
+     * Deep copy through the JSON form; does not read the running game
+     */
+    public GameState copy() {
+        return fromJson(toString());
+    }
+    
+    /**
+     * The stage info class populateStageInfo() creates for a stage
+     */
+    private static Class<? extends StageSpecificInfo> stageInfoType(GameStageType stage) {
+        switch (stage) {
+            case BATTLE:
+                return BattleStageInfo.class;
+            case MAP:
+                return MapStageInfo.class;
+            case CAMPFIRE:
+                return RestSiteStageInfo.class;
+            case SHOP:
+                return ShopStageInfo.class;
+            case EVENT:
+                return EventStageInfo.class;
+            case REWARD:
+                return RewardStageInfo.class;
+            case CARD_SELECT:
+                return CardSelectStageInfo.class;
+            case NEOW:
+                return NeowStageInfo.class;
+            default:
+                return null;
+        }
+    }
+    
     /**
      * Update basic game information
      */
@@ -127,13 +212,22 @@ public class GameState {
     private CardInfo createCardInfo(AbstractCard card) {
         CardInfo cardInfo = new CardInfo();
         cardInfo.id = card.cardID;
-        cardInfo.name = card.name;
+        cardInfo.name = EnglishText.cardName(card.cardID, card.upgraded, card.timesUpgraded, card.name);
         cardInfo.type = card.type.toString();
         cardInfo.rarity = card.rarity.toString();
-        cardInfo.description = card.rawDescription;
+        cardInfo.description = EnglishText.cardDescription(card.cardID, card.upgraded, card.rawDescription);
         cardInfo.cost = card.cost;
+        cardInfo.costForTurn = card.costForTurn;
         cardInfo.upgraded = card.upgraded;
         cardInfo.canUse = card.canUse(AbstractDungeon.player, null);
+        // Damage and block as shown on the card, with the player's powers already applied
+        cardInfo.damage = card.damage;
+        cardInfo.block = card.block;
+        // Values the description's !D!, !B! and !M! stand for, before any powers
+        cardInfo.baseDamage = card.baseDamage;
+        cardInfo.baseBlock = card.baseBlock;
+        cardInfo.magicNumber = card.baseMagicNumber;
+        cardInfo.target = card.target.name();
         return cardInfo;
     }
 
@@ -169,6 +263,7 @@ public class GameState {
                 potionInfo.name = potion.name;
                 potionInfo.description = potion.description;
                 potionInfo.rarity = potion.rarity.toString();
+                potionInfo.canUse = potion.canUse();
                 potions.add(potionInfo);
             }
         }
@@ -276,6 +371,13 @@ public class GameState {
         BattleStageInfo info = new BattleStageInfo();
         info.energy = EnergyPanel.totalCount;
         info.turn = AbstractDungeon.actionManager.turn;
+        info.block = player.currentBlock;
+        info.roomType = AbstractDungeon.getCurrRoom() instanceof MonsterRoomBoss ? "BOSS"
+                : AbstractDungeon.getCurrRoom() instanceof MonsterRoomElite ? "ELITE" : "MONSTER";
+        for (com.megacrit.cardcrawl.powers.AbstractPower power : player.powers) {
+            info.powers.add(describePower(power));
+            info.powerIds.add(power.ID);
+        }
         
         // Monster information
         for (AbstractMonster monster : AbstractDungeon.getCurrRoom().monsters.monsters) {
@@ -285,16 +387,15 @@ public class GameState {
                 monsterInfo.currentHp = monster.currentHealth;
                 monsterInfo.maxHp = monster.maxHealth;
                 monsterInfo.intent = monster.intent.name();
+                monsterInfo.block = monster.currentBlock;
+                // Damage per hit against the player, with both sides' powers applied; -1 if not attacking
+                monsterInfo.intentDamage = monster.getIntentDmg();
+                monsterInfo.intentHits = intentHits(monster);
                 
                 // Add all monster powers
                 for (com.megacrit.cardcrawl.powers.AbstractPower power : monster.powers) {
-                    String powerDesc = power.name + ": " + power.amount;
-                    if (power.type == com.megacrit.cardcrawl.powers.AbstractPower.PowerType.DEBUFF) {
-                        powerDesc += " (Debuff)";
-                    } else if (power.type == com.megacrit.cardcrawl.powers.AbstractPower.PowerType.BUFF) {
-                        powerDesc += " (Buff)";
-                    }
-                    monsterInfo.powers.add(powerDesc);
+                    monsterInfo.powers.add(describePower(power));
+                    monsterInfo.powerIds.add(power.ID);
                 }
                 
                 info.monsters.add(monsterInfo);
@@ -304,6 +405,35 @@ public class GameState {
         return info;
     }
     
+    /**
+     * "Name: amount", with (Buff) or (Debuff) appended
+     */
+    private static String describePower(com.megacrit.cardcrawl.powers.AbstractPower power) {
+        String powerDesc = power.name + ": " + power.amount;
+        if (power.type == com.megacrit.cardcrawl.powers.AbstractPower.PowerType.DEBUFF) {
+            powerDesc += " (Debuff)";
+        } else if (power.type == com.megacrit.cardcrawl.powers.AbstractPower.PowerType.BUFF) {
+            powerDesc += " (Buff)";
+        }
+        return powerDesc;
+    }
+    
+    /**
+     * Number of hits of a multi-hit attack intent, 1 otherwise
+     */
+    private static int intentHits(AbstractMonster monster) {
+        try {
+            Boolean multi = ReflectionHacks.getPrivate(monster, AbstractMonster.class, "isMultiDmg");
+            if (multi != null && multi) {
+                Integer hits = ReflectionHacks.getPrivate(monster, AbstractMonster.class, "intentMultiAmt");
+                return hits != null ? Math.max(1, hits) : 1;
+            }
+        } catch (RuntimeException e) {
+            logger.debug("Could not read intent hits of " + monster.name + ": " + e.getMessage());
+        }
+        return 1;
+    }
+    
     /**
      * Populate map stage information
      */
@@ -459,7 +589,8 @@ public class GameState {
         
         if ((AbstractDungeon.gridSelectScreen != null && AbstractDungeon.gridSelectScreen.selectedCards != null) || AbstractDungeon.cardRewardScreen != null) {
             // Grid selection mode
-            info.selectionType = "GRID_SELECT";
+            info.selectionType = AbstractDungeon.gridSelectScreen != null && AbstractDungeon.gridSelectScreen.forPurge
+                    ? "REMOVE" : "GRID_SELECT";
             for(AbstractCard card : AbstractDungeon.cardRewardScreen.rewardGroup) {
                 info.selectableCards.add(createCardInfo(card));
             }
@@ -652,9 +783,12 @@ public class GameState {
     public static class BattleStageInfo extends StageSpecificInfo {
         @Expose public int energy;
         @Expose public int turn;
+        @Expose public int block;
+        @Expose public String roomType; // "MONSTER", "ELITE", "BOSS"
         @Expose public List<CustomMonsterInfo> monsters = new ArrayList<>();
         @Expose public List<String> intents = new ArrayList<>();
         @Expose public List<String> powers = new ArrayList<>();
+        @Expose public List<String> powerIds = new ArrayList<>(); // power.ID of each of powers, which are localized
     }
     
     /**
@@ -665,7 +799,11 @@ public class GameState {
         @Expose public int currentHp;
         @Expose public int maxHp;
         @Expose public String intent;
+        @Expose public int block;
+        @Expose public int intentDamage;
+        @Expose public int intentHits;
         @Expose public List<String> powers = new ArrayList<>();
+        @Expose public List<String> powerIds = new ArrayList<>(); // power.ID of each of powers, which are localized
     }
     
     /**
@@ -763,8 +901,15 @@ public class GameState {
         @Expose public String rarity;
         @Expose public String description;
         @Expose public int cost;
+        @Expose public int costForTurn;
         @Expose public boolean upgraded;
         @Expose public boolean canUse;
+        @Expose public int damage;
+        @Expose public int block;
+        @Expose public int baseDamage;
+        @Expose public int baseBlock;
+        @Expose public int magicNumber;
+        @Expose public String target;
     }
     
     /**
@@ -775,6 +920,7 @@ public class GameState {
         @Expose public String name;
         @Expose public String description;
         @Expose public String rarity;
+        @Expose public boolean canUse;
     }
     
     /**
@@ -0,0 +1,96 @@
+package llmthespire.game;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Predicts the state the player's next turn will start in, from a state captured
+ * during the monster turn.
+ *
+ * The hand is drawn from the top of the draw pile (the end of the list, as in the
+ * game's CardGroup), energy is refilled and turn-based debuffs tick down by one,
+ * as they will at the end of the round, which only comes once turnHasEnded clears.
+ * Monster HP, intents and powers are taken as captured: monsters roll their next
+ * move while they act, so a later capture in the same monster turn already shows
+ * more of the next turn. Only the deck composition is modelled; relics and powers
+ * that change the draw or the energy are not, and a prediction that turns out
+ * wrong simply does not match the real state.
+ */
+public class NextTurnPredictor {
+    // Debuffs that lose one stack at the end of each round
+    private static final Set<String> TURN_BASED = new HashSet<>(Arrays.asList("Vulnerable", "Weakened", "Frail"));
+
+    private NextTurnPredictor() {
+    }
+
+    /**
+     * @param current A combat state captured after the player ended the turn
+     * @param handSize Cards drawn at the start of a turn
+     * @param energyPerTurn Energy the player starts a turn with
+     * @return The predicted state, or null if the next hand cannot be known: the old
+     *         hand has not been discarded yet, or the draw pile must be reshuffled
+     */
+    public static GameState predict(GameState current, int handSize, int energyPerTurn) {
+        if (current.stage != GameStageType.BATTLE || !(current.stageInfo instanceof GameState.BattleStageInfo)) {
+            return null;
+        }
+        if (!current.hand.isEmpty() || current.drawPile.size() < handSize) {
+            return null;
+        }
+
+        GameState next = current.copy();
+        if (next == null) {
+            return null;
+        }
+        GameState.BattleStageInfo battle = (GameState.BattleStageInfo) next.stageInfo;
+        battle.energy = energyPerTurn;
+        battle.block = 0;
+        battle.turn++;
+        tickDown(battle.powers, battle.powerIds);
+        for (GameState.CustomMonsterInfo monster : battle.monsters) {
+            tickDown(monster.powers, monster.powerIds);
+        }
+
+        // The top of the pile is its last card, and is drawn first
+        for (int i = 0; i < handSize; i++) {
+            GameState.CardInfo card = next.drawPile.remove(next.drawPile.size() - 1);
+            card.costForTurn = card.cost;
+            card.canUse = card.cost >= -1 && card.cost <= energyPerTurn;
+            next.hand.add(card);
+        }
+        return next;
+    }
+
+    /**
+     * Take one stack off each turn-based debuff and drop the ones that run out, in
+     * place. Powers are described as "Name: amount", with (Buff) or (Debuff) appended,
+     * and recognized by their ID at the same index, since the names are localized.
+     */
+    private static void tickDown(List<String> powers, List<String> powerIds) {
+        if (powers == null || powerIds == null || powers.size() != powerIds.size()) {
+            return;
+        }
+        for (int i = powers.size() - 1; i >= 0; i--) {
+            String power = powers.get(i);
+            int colon = power.indexOf(": ");
+            if (colon < 0 || !TURN_BASED.contains(powerIds.get(i))) {
+                continue;
+            }
+            int end = power.indexOf(' ', colon + 2);
+            String amountText = end < 0 ? power.substring(colon + 2) : power.substring(colon + 2, end);
+            try {
+                int amount = Integer.parseInt(amountText) - 1;
+                if (amount > 0) {
+                    powers.set(i, power.substring(0, colon + 2) + amount + (end < 0 ? "" : power.substring(end)));
+                } else {
+                    powers.remove(i);
+                    powerIds.remove(i);
+                }
+            } catch (NumberFormatException e) {
+                // Leave a power whose amount cannot be read as it is
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package llmthespire.game;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A combat action described by what it refers to instead of by index, so it can
+ * be carried over to a similar state: "play Bash+ on the second Jaw Worm" rather
+ * than "PLAY_CARD 3 1". Binding it to a state checks that it is still legal there
+ * and produces the command with that state's indices.
+ */
+public class PortableAction {
+    private final CommandParser.CommandType type;
+    private final String cardId;
+    private final boolean upgraded;
+    private final String potionId;
+    private final String targetName;
+    private final int targetIndex;
+
+    private PortableAction(CommandParser.CommandType type, String cardId, boolean upgraded, String potionId,
+                           String targetName, int targetIndex) {
+        this.type = type;
+        this.cardId = cardId;
+        this.upgraded = upgraded;
+        this.potionId = potionId;
+        this.targetName = targetName;
+        this.targetIndex = targetIndex;
+    }
+
+    /**
+     * Describe a combat command in terms of the state it was chosen for
+     * @return The portable action, or null if the command is not a valid combat action in that state
+     */
+    public static PortableAction of(GameState state, String action) {
+        GameState.BattleStageInfo battle = battleInfo(state);
+        if (battle == null) {
+            return null;
+        }
+        CommandParser.Command command = CommandParser.parse(action);
+
+        String targetName = null;
+        int target = command.getParameterCount() > 1 ? command.getParameter(1) : -1;
+        if (target >= 0) {
+            if (target >= battle.monsters.size()) {
+                return null;
+            }
+            targetName = battle.monsters.get(target).name;
+        }
+
+        int index = command.getParameter(0);
+        switch (command.getType()) {
+            case END_TURN:
+                return new PortableAction(command.getType(), null, false, null, null, -1);
+            case PLAY_CARD:
+                if (index < 0 || index >= state.hand.size()) {
+                    return null;
+                }
+                GameState.CardInfo card = state.hand.get(index);
+                return new PortableAction(command.getType(), card.id, card.upgraded, null, targetName, target);
+            case USE_POTION:
+                if (index < 0 || index >= state.potions.size()) {
+                    return null;
+                }
+                return new PortableAction(command.getType(), null, false, state.potions.get(index).id, targetName, target);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Translate the action to a state
+     * @return The command for that state, or null if the action is not legal there
+     */
+    public String bind(GameState state) {
+        GameState.BattleStageInfo battle = battleInfo(state);
+        if (battle == null) {
+            return null;
+        }
+
+        int target = -1;
+        if (targetName != null) {
+            target = findTarget(battle.monsters);
+            if (target < 0) {
+                return null;
+            }
+        }
+
+        switch (type) {
+            case END_TURN:
+                return "END_TURN";
+            case PLAY_CARD:
+                for (int i = 0; i < state.hand.size(); i++) {
+                    GameState.CardInfo card = state.hand.get(i);
+                    if (card.id.equals(cardId) && card.upgraded == upgraded && card.canUse
+                            && card.cost <= battle.energy) {
+                        return "PLAY_CARD " + i + (target >= 0 ? " " + target : "");
+                    }
+                }
+                return null;
+            case USE_POTION:
+                for (int i = 0; i < state.potions.size(); i++) {
+                    if (potionId.equals(state.potions.get(i).id)) {
+                        return "USE_POTION " + i + (target >= 0 ? " " + target : "");
+                    }
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The monster with the target's name, preferring the one in the same position
+     */
+    private int findTarget(List<GameState.CustomMonsterInfo> monsters) {
+        if (targetIndex < monsters.size() && targetName.equals(monsters.get(targetIndex).name)) {
+            return targetIndex;
+        }
+        for (int i = 0; i < monsters.size(); i++) {
+            if (targetName.equals(monsters.get(i).name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static GameState.BattleStageInfo battleInfo(GameState state) {
+        if (state.stage != GameStageType.BATTLE || !(state.stageInfo instanceof GameState.BattleStageInfo)) {
+            return null;
+        }
+        return (GameState.BattleStageInfo) state.stageInfo;
+    }
+
+    public CommandParser.CommandType getType() {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PortableAction)) {
+            return false;
+        }
+        PortableAction other = (PortableAction) o;
+        return type == other.type && upgraded == other.upgraded && targetIndex == other.targetIndex
+                && Objects.equals(cardId, other.cardId) && Objects.equals(potionId, other.potionId)
+                && Objects.equals(targetName, other.targetName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, cardId, upgraded, potionId, targetName, targetIndex);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(type.name());
+        if (cardId != null) {
+            sb.append(' ').append(cardId).append(upgraded ? "+" : "");
+        }
+        if (potionId != null) {
+            sb.append(' ').append(potionId);
+        }
+        if (targetName != null) {
+            sb.append(" -> ").append(targetName);
+        }
+        return sb.toString();
+    }
+}
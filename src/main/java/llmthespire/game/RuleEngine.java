@@ -0,0 +1,186 @@
+package llmthespire.game;
+
+import com.megacrit.cardcrawl.dungeons.AbstractDungeon;
+import com.megacrit.cardcrawl.events.AbstractEvent;
+import com.megacrit.cardcrawl.potions.PotionSlot;
+import com.megacrit.cardcrawl.ui.buttons.LargeDialogOptionButton;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers decisions that have only one sensible action before the LLM is asked.
+ *
+ * Rules are registered per GameStageType and tried in registration order; the
+ * first one that returns an action wins. Counts the LLM calls avoided, per run
+ * and in total. Only used from the game thread.
+ */
+public class RuleEngine {
+    private final Map<GameStageType, List<NamedRule>> rules = new EnumMap<>(GameStageType.class);
+    private final Map<String, Long> hits = new LinkedHashMap<>();
+    private long avoidedThisRun;
+    private long avoidedTotal;
+
+    /**
+     * Engine with the built-in rules for forced combat, event and reward decisions
+     */
+    public static RuleEngine withDefaultRules() {
+        RuleEngine engine = new RuleEngine();
+        engine.register(GameStageType.BATTLE, "nothing-playable", RuleEngine::endTurnWhenNothingPlayable);
+        engine.register(GameStageType.EVENT, "single-option", RuleEngine::chooseOnlyOption);
+        engine.register(GameStageType.REWARD, "nothing-to-choose", RuleEngine::leaveEmptyRewards);
+        return engine;
+    }
+
+    /**
+     * Add a rule for a stage, after the rules already registered for it
+     */
+    public void register(GameStageType stage, String name, DecisionRule rule) {
+        rules.computeIfAbsent(stage, s -> new ArrayList<>()).add(new NamedRule(name, rule));
+    }
+
+    /**
+     * Try the rules for the state's stage
+     * @return The decision of the first rule that applies, or null if the LLM has to decide
+     */
+    public Decision resolve(GameState state) {
+        List<NamedRule> stageRules = state.stage != null ? rules.get(state.stage) : null;
+        if (stageRules == null) {
+            return null;
+        }
+        for (NamedRule rule : stageRules) {
+            String action = rule.rule.decide(state);
+            if (action != null) {
+                avoidedThisRun++;
+                avoidedTotal++;
+                hits.merge(state.stage.name() + "/" + rule.name, 1L, Long::sum);
+                return new Decision(rule.name, action);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Start counting avoided calls for a new run
+     */
+    public void startRun() {
+        avoidedThisRun = 0;
+    }
+
+    /**
+     * @return LLM calls answered by a rule since the run started
+     */
+    public long getAvoidedThisRun() {
+        return avoidedThisRun;
+    }
+
+    /**
+     * @return LLM calls answered by a rule since the game started
+     */
+    public long getAvoidedTotal() {
+        return avoidedTotal;
+    }
+
+    /**
+     * @return Times each rule applied, keyed by "STAGE/rule"
+     */
+    public Map<String, Long> getHits() {
+        return Collections.unmodifiableMap(hits);
+    }
+
+    @Override
+    public String toString() {
+        return "calls avoided this run=" + avoidedThisRun + ", total=" + avoidedTotal + ", by rule=" + hits;
+    }
+
+    /**
+     * No card in hand can be played and no potion can be used: the turn can only end
+     */
+    static String endTurnWhenNothingPlayable(GameState state) {
+        for (GameState.CardInfo card : state.hand) {
+            if (card.canUse) {
+                return null;
+            }
+        }
+        for (GameState.PotionInfo potion : state.potions) {
+            if (potion.canUse && !PotionSlot.POTION_ID.equals(potion.id)) {
+                return null;
+            }
+        }
+        return "END_TURN";
+    }
+
+    /**
+     * The event screen offers exactly one enabled button
+     */
+    static String chooseOnlyOption(GameState state) {
+        if (AbstractDungeon.getCurrRoom() == null) {
+            return null;
+        }
+        AbstractEvent event = AbstractDungeon.getCurrRoom().event;
+        if (event == null || event.imageEventText == null || event.imageEventText.optionList == null) {
+            return null;
+        }
+
+        int enabled = -1;
+        List<LargeDialogOptionButton> options = event.imageEventText.optionList;
+        for (int i = 0; i < options.size(); i++) {
+            if (options.get(i).isDisabled) {
+                continue;
+            }
+            if (enabled >= 0) {
+                return null;
+            }
+            enabled = i;
+        }
+        return enabled >= 0 ? "CHOOSE_OPTION " + enabled : null;
+    }
+
+    /**
+     * The reward screen lists no rewards at all. The state always offers only SKIP, so the
+     * screen's own list is read; a screen with rewards left, and the card reward screen,
+     * stay with the LLM.
+     */
+    static String leaveEmptyRewards(GameState state) {
+        if (AbstractDungeon.screen != AbstractDungeon.CurrentScreen.COMBAT_REWARD
+                || AbstractDungeon.combatRewardScreen == null || AbstractDungeon.combatRewardScreen.rewards == null) {
+            return null;
+        }
+        return AbstractDungeon.combatRewardScreen.rewards.isEmpty() ? "SKIP_REWARD" : null;
+    }
+
+    /**
+     * The action a rule chose
+     */
+    public static class Decision {
+        private final String rule;
+        private final String action;
+
+        private Decision(String rule, String action) {
+            this.rule = rule;
+            this.action = action;
+        }
+
+        public String getRule() {
+            return rule;
+        }
+
+        public String getAction() {
+            return action;
+        }
+    }
+
+    private static class NamedRule {
+        private final String name;
+        private final DecisionRule rule;
+
+        private NamedRule(String name, DecisionRule rule) {
+            this.name = name;
+            this.rule = rule;
+        }
+    }
+}
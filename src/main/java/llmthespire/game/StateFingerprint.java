@@ -0,0 +1,127 @@
+package llmthespire.game;
+
+import com.google.gson.Gson;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Canonical, order-stable fingerprint of the decision-relevant part of a GameState.
+ *
+ * Covers the stage, player HP, available actions, hand, potions, and for combat the
+ * energy, block, player powers and monsters with their block, intents and intended
+ * damage. Other stages use their stage-specific info (event options, rewards, shop
+ * items...). Run-level details that do not change which action is right for the same
+ * screen (gold, floor, draw and discard piles, relics) are left out so identical
+ * screens match across runs.
+ */
+public class StateFingerprint {
+    private static final Gson gson = new Gson();
+    private static final int DIGEST_BYTES = 16;
+
+    private StateFingerprint() {
+    }
+
+    /**
+     * Build the canonical text form of the decision-relevant state
+     */
+    public static String canonical(GameState state) {
+        StringBuilder sb = new StringBuilder(512);
+        field(sb, state.stage != null ? state.stage.name() : "");
+        field(sb, state.playerClass);
+        sb.append("hp").append(state.currentHp).append('/').append(state.maxHp);
+
+        sb.append("actions");
+        list(sb, state.availableActions);
+
+        sb.append("hand").append(state.hand.size()).append('[');
+        for (GameState.CardInfo card : state.hand) {
+            field(sb, card.id);
+            sb.append(card.upgraded ? '+' : '-').append(card.cost).append(card.canUse ? 'u' : 'x');
+        }
+        sb.append(']');
+
+        sb.append("potions").append(state.potions.size()).append('[');
+        for (GameState.PotionInfo potion : state.potions) {
+            field(sb, potion.id);
+        }
+        sb.append(']');
+
+        if (state.stageInfo instanceof GameState.BattleStageInfo) {
+            GameState.BattleStageInfo battle = (GameState.BattleStageInfo) state.stageInfo;
+            sb.append("energy").append(battle.energy);
+            sb.append("block").append(battle.block);
+            sb.append("powers");
+            list(sb, battle.powers);
+            sb.append("monsters").append(battle.monsters.size()).append('[');
+            for (GameState.CustomMonsterInfo monster : battle.monsters) {
+                field(sb, monster.name);
+                sb.append(monster.currentHp).append('/').append(monster.maxHp).append('b').append(monster.block);
+                field(sb, monster.intent);
+                sb.append(monster.intentDamage).append('x').append(monster.intentHits);
+                list(sb, monster.powers);
+            }
+            sb.append(']');
+        } else if (state.stageInfo != null) {
+            field(sb, state.stageInfo.getClass().getSimpleName());
+            field(sb, gson.toJson(state.stageInfo));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 128-bit digest of the canonical state
+     * @param salt Mixed into the digest, e.g. the prompt the decision was made with
+     */
+    public static byte[] digest(GameState state, String salt) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            if (salt != null) {
+                sha.update(salt.getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) 0);
+            }
+            sha.update(canonical(state).getBytes(StandardCharsets.UTF_8));
+            return Arrays.copyOf(sha.digest(), DIGEST_BYTES);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Hex form of the unsalted digest
+     */
+    public static String of(GameState state) {
+        byte[] digest = digest(state, null);
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Length-prefixed, so no value can be mistaken for a separator
+     */
+    private static void field(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("-;");
+        } else {
+            sb.append(value.length()).append(':').append(value).append(';');
+        }
+    }
+
+    private static void list(StringBuilder sb, List<String> values) {
+        if (values == null) {
+            sb.append("[]");
+            return;
+        }
+        sb.append(values.size()).append('[');
+        for (String value : values) {
+            field(sb, value);
+        }
+        sb.append(']');
+    }
+}
@@ -0,0 +1,111 @@
+package llmthespire.game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ordered list of actions the LLM planned for one combat turn.
+ *
+ * Steps are parsed against the state the plan was made for and kept as
+ * PortableActions, so each step can be revalidated against the live hand before
+ * it is executed: indices shift after every play, and draws or random effects can
+ * make a step impossible. In that case the plan is abandoned and the LLM asked again.
+ */
+public class TurnPlan {
+    private final int turn;
+    private final List<PortableAction> steps;
+    private int position;
+
+    private TurnPlan(int turn, List<PortableAction> steps) {
+        this.turn = turn;
+        this.steps = steps;
+    }
+
+    /**
+     * Read the PLAN: line of a combat response
+     * @param state The state the plan was made for; step indices refer to it
+     * @param maxSteps Steps kept at most
+     * @return The plan, or null if the response has no usable plan
+     */
+    public static TurnPlan parse(GameState state, String response, int maxSteps) {
+        if (!(state.stageInfo instanceof GameState.BattleStageInfo) || response == null) {
+            return null;
+        }
+
+        String planLine = null;
+        for (String line : response.split("\n")) {
+            if (line.trim().startsWith("PLAN:")) {
+                planLine = line.trim().substring("PLAN:".length());
+            }
+        }
+        if (planLine == null) {
+            return null;
+        }
+
+        List<PortableAction> steps = new ArrayList<>();
+        for (String step : planLine.split(";")) {
+            if (step.trim().isEmpty()) {
+                continue;
+            }
+            PortableAction action = PortableAction.of(state, step.trim());
+            if (action == null) {
+                // One unreadable step makes the order of the rest unreliable
+                return null;
+            }
+            steps.add(action);
+            if (action.getType() == CommandParser.CommandType.END_TURN || steps.size() >= maxSteps) {
+                break;
+            }
+        }
+        if (steps.isEmpty()) {
+            return null;
+        }
+        return new TurnPlan(((GameState.BattleStageInfo) state.stageInfo).turn, steps);
+    }
+
+    /**
+     * Check whether the next step is the given action, as chosen in the given state
+     */
+    public boolean isNext(GameState state, String action) {
+        return !isFinished() && steps.get(position).equals(PortableAction.of(state, action));
+    }
+
+    /**
+     * The next step translated to the live state
+     * @return The command, or null if the plan is finished or the step is no longer legal
+     */
+    public String nextAction(GameState live) {
+        if (isFinished() || !(live.stageInfo instanceof GameState.BattleStageInfo)
+                || ((GameState.BattleStageInfo) live.stageInfo).turn != turn) {
+            return null;
+        }
+        return steps.get(position).bind(live);
+    }
+
+    /**
+     * Move past the next step
+     */
+    public void advance() {
+        position++;
+    }
+
+    public boolean isFinished() {
+        return position >= steps.size();
+    }
+
+    /**
+     * @return Steps already taken
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public int size() {
+        return steps.size();
+    }
+
+    @Override
+    public String toString() {
+        return steps.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package llmthespire.llm;
+
+/**
+ * Sums the log probabilities of the tokens that make up the ACTION: line.
+ *
+ * Tokens are fed in generation order together with their logprob, as OpenAI-compatible
+ * APIs return them with "logprobs": true. Once the ACTION: prefix has been seen at
+ * the start of a line, the tokens after it are summed up to the end of the line,
+ * so exp(sum) is the probability the model gave the whole action.
+ */
+class ActionLogprob {
+    private static final String ACTION_PREFIX = "ACTION:";
+
+    private final StringBuilder text = new StringBuilder();
+    private boolean inAction = false;
+    private boolean done = false;
+    private boolean seen = false;
+    private double sum = 0;
+
+    /**
+     * Add the next generated token
+     */
+    void add(String token, double logprob) {
+        if (done || token == null) {
+            return;
+        }
+        if (!inAction) {
+            text.append(token);
+            int index = actionIndex();
+            if (index < 0) {
+                return;
+            }
+            inAction = true;
+            // The token that completes the prefix may already carry part of the action
+            String rest = text.substring(index + ACTION_PREFIX.length());
+            if (rest.trim().isEmpty()) {
+                return;
+            }
+            token = rest;
+        }
+
+        int newline = token.indexOf('\n');
+        if (newline >= 0) {
+            if (!token.substring(0, newline).trim().isEmpty()) {
+                addLogprob(logprob);
+            }
+            done = seen;
+            return;
+        }
+        if (!token.trim().isEmpty()) {
+            addLogprob(logprob);
+        }
+    }
+
+    /**
+     * @return The summed logprob of the action tokens, or null if no action token was seen
+     */
+    Double get() {
+        return seen ? sum : null;
+    }
+
+    private void addLogprob(double logprob) {
+        sum += logprob;
+        seen = true;
+    }
+
+    /**
+     * Index of an ACTION: prefix at the start of a line, or -1
+     */
+    private int actionIndex() {
+        int index = text.indexOf(ACTION_PREFIX);
+        while (index >= 0) {
+            int lineStart = index - 1;
+            while (lineStart >= 0 && text.charAt(lineStart) != '\n' && Character.isWhitespace(text.charAt(lineStart))) {
+                lineStart--;
+            }
+            if (lineStart < 0 || text.charAt(lineStart) == '\n') {
+                return index;
+            }
+            index = text.indexOf(ACTION_PREFIX, index + 1);
+        }
+        return -1;
+    }
+}
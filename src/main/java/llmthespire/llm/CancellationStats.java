@@ -0,0 +1,42 @@
+package llmthespire.llm;
+
+/**
+ * Counters for requests cancelled because the state they asked about was gone.
+ *
+ * Savings are estimates: the latency saved is the typical latency of the stage
+ * minus the time already waited, and the tokens saved are the expected completion
+ * of each call still running plus the whole cost of each call not yet sent.
+ */
+public class CancellationStats {
+    private long cancelled;
+    private long callsAborted;
+    private long callsUnsent;
+    private long savedMs;
+    private long savedTokens;
+
+    /**
+     * Record a cancelled request
+     * @param aborted Provider calls that were running and were disconnected
+     * @param unsent Provider calls that were still queued and never sent
+     */
+    synchronized void record(int aborted, int unsent, long savedMs, long savedTokens) {
+        cancelled++;
+        callsAborted += aborted;
+        callsUnsent += unsent;
+        this.savedMs += savedMs;
+        this.savedTokens += savedTokens;
+    }
+
+    /**
+     * @return Requests cancelled
+     */
+    public synchronized long getCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "cancelled=" + cancelled + ", calls aborted=" + callsAborted + ", calls never sent=" + callsUnsent +
+               ", estimated latency saved=" + savedMs + "ms, estimated tokens saved=" + savedTokens;
+    }
+}
@@ -0,0 +1,126 @@
+package llmthespire.llm;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lets another thread abort an in-flight provider call.
+ *
+ * The calling thread attaches its connection while the exchange is running;
+ * {@link #cancel()} disconnects it, which makes the blocked read fail immediately.
+ * A token can hand out child tokens, one per provider call of a request, so that
+ * cancelling the request cancels every call it made.
+ */
+public class CancellationToken {
+    private volatile boolean cancelled = false;
+    private HttpURLConnection connection;
+    private boolean sent = false;
+    private final List<CancellationToken> children = new ArrayList<>();
+
+    /**
+     * Create a token that is cancelled together with this one
+     */
+    public CancellationToken child() {
+        CancellationToken child = new CancellationToken();
+        synchronized (this) {
+            if (!cancelled) {
+                children.add(child);
+                return child;
+            }
+        }
+        child.cancel();
+        return child;
+    }
+
+    /**
+     * Register the connection used by the current exchange
+     * @throws InterruptedIOException If the token was already cancelled
+     */
+    public synchronized void attach(HttpURLConnection connection) throws IOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Request cancelled");
+        }
+        this.connection = connection;
+        this.sent = true;
+    }
+
+    /**
+     * Forget the connection once the exchange has finished
+     */
+    public synchronized void detach() {
+        this.connection = null;
+    }
+
+    /**
+     * Cancel the request and abort its connection, if any
+     */
+    public void cancel() {
+        HttpURLConnection toAbort;
+        List<CancellationToken> toCancel;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toAbort = connection;
+            connection = null;
+            toCancel = new ArrayList<>(children);
+            notifyAll(); // wake a thread waiting in sleep()
+        }
+        if (toAbort != null) {
+            toAbort.disconnect();
+        }
+        for (CancellationToken child : toCancel) {
+            child.cancel();
+        }
+    }
+
+    /**
+     * @return The child tokens handed out so far
+     */
+    public synchronized List<CancellationToken> getChildren() {
+        return new ArrayList<>(children);
+    }
+
+    /**
+     * @return True while a connection is attached, i.e. the request has been sent and not yet answered
+     */
+    public synchronized boolean isInFlight() {
+        return connection != null;
+    }
+
+    /**
+     * @return True once a connection has been attached, i.e. the request was sent at least once
+     */
+    public synchronized boolean wasSent() {
+        return sent;
+    }
+
+    /**
+     * Wait between attempts, returning early if the request is cancelled
+     * @throws InterruptedIOException If the token is or becomes cancelled
+     */
+    public synchronized void sleep(long millis) throws IOException {
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            long remaining = millis;
+            while (!cancelled && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+        if (cancelled) {
+            throw new InterruptedIOException("Request cancelled");
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,301 @@
+package llmthespire.llm;
+
+import llmthespire.game.GameState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Session-wide dictionary of card, relic and potion descriptions, keyed by short codes.
+ *
+ * A code is the name, with + for an upgrade, so it reads naturally in a prompt.
+ * Piles are written as codes with counts instead of one entry per card, and each
+ * code's description is written once per recipient: once per prompt, or once per
+ * combat conversation. A code keeps the description it was first seen with for the
+ * whole session, so the same code always stands for the same text. A card whose
+ * numbers differ from the first copy seen, e.g. a Rampage that has grown or a Claw
+ * after other Claws were played, gets its numbers in its code: "Rampage (13)".
+ */
+class CardDictionary {
+    // "ATTACK" -> "Attack", computed once per card type
+    private static final Map<String, String> TYPE_NAMES = new ConcurrentHashMap<>();
+
+    private final Map<String, String> descriptions = new ConcurrentHashMap<>();
+    // Per card name, the codes of the numbers it has been seen with
+    private final Map<String, CardVariant[]> cardVariants = new ConcurrentHashMap<>();
+
+    /**
+     * @return The card's code, registering its description
+     */
+    String code(GameState.CardInfo card) {
+        if (card.name == null) {
+            return "?";
+        }
+        if (card.description == null) {
+            return card.name;
+        }
+        CardVariant[] variants = cardVariants.get(card.name);
+        if (variants != null) {
+            for (CardVariant variant : variants) {
+                if (variant.matches(card)) {
+                    return variant.code;
+                }
+            }
+        }
+        return registerVariant(card);
+    }
+
+    /**
+     * @return The relic's code, registering its description
+     */
+    String code(GameState.RelicInfo relic) {
+        return register(relic.name, relic.description);
+    }
+
+    /**
+     * @return The potion's code, registering its description
+     */
+    String code(GameState.PotionInfo potion) {
+        return register(potion.name, potion.description);
+    }
+
+    /**
+     * Append the relics, potions and card piles of a state, by code
+     * @param codes Collects every code written
+     */
+    void appendCollection(GameState state, StringBuilder out, Collection<String> codes) {
+        appendRelics(state.relics, out, codes);
+        appendPotions(state.potions, out, codes);
+        appendPile("Draw Pile", state.drawPile, out, codes);
+        appendPile("Discard Pile", state.discardPile, out, codes);
+        appendPile("Exhaust Pile", state.exhaustPile, out, codes);
+    }
+
+    /**
+     * Append the relics by code, with their counters
+     */
+    void appendRelics(List<GameState.RelicInfo> relics, StringBuilder out, Collection<String> codes) {
+        if (relics.isEmpty()) {
+            return;
+        }
+        out.append("\nRelics: ");
+        for (int i = 0; i < relics.size(); i++) {
+            GameState.RelicInfo relic = relics.get(i);
+            String code = code(relic);
+            codes.add(code);
+            out.append(i > 0 ? ", " : "").append(code);
+            if (relic.counter > 0) {
+                out.append(" (").append(relic.counter).append(")");
+            }
+        }
+        out.append("\n");
+    }
+
+    /**
+     * Append the potions by code, with the slot index USE_POTION takes
+     */
+    void appendPotions(List<GameState.PotionInfo> potions, StringBuilder out, Collection<String> codes) {
+        if (potions.isEmpty()) {
+            return;
+        }
+        out.append("Potions: ");
+        for (int i = 0; i < potions.size(); i++) {
+            String code = code(potions.get(i));
+            codes.add(code);
+            out.append(i > 0 ? ", " : "").append(i).append(": ").append(code);
+        }
+        out.append("\n");
+    }
+
+    /**
+     * Append a pile as codes with counts, e.g. "Draw Pile (7): 3 Strike, 2 Defend, Bash+, Inflame".
+     * Codes are sorted by name, so the draw order is not revealed.
+     */
+    void appendPile(String title, List<GameState.CardInfo> pile, StringBuilder out, Collection<String> codes) {
+        if (pile.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> counts = new TreeMap<>();
+        for (GameState.CardInfo card : pile) {
+            counts.merge(code(card), 1, Integer::sum);
+        }
+        out.append(title).append(" (").append(pile.size()).append("): ");
+        boolean first = true;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            codes.add(entry.getKey());
+            out.append(first ? "" : ", ");
+            if (entry.getValue() > 1) {
+                out.append(entry.getValue()).append(" ");
+            }
+            out.append(entry.getKey());
+            first = false;
+        }
+        out.append("\n");
+    }
+
+    /**
+     * Append a pile as counts by card type, e.g. "Draw Pile (26): 12 Attack, 10 Skill, 4 Power".
+     * Its size does not grow with the number of distinct cards.
+     */
+    void appendPileSummary(String title, List<GameState.CardInfo> pile, StringBuilder out) {
+        if (pile.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> counts = new TreeMap<>();
+        for (GameState.CardInfo card : pile) {
+            counts.merge(card.type != null ? typeName(card.type) : "Other", 1, Integer::sum);
+        }
+        out.append(title).append(" (").append(pile.size()).append("): ");
+        boolean first = true;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            out.append(first ? "" : ", ").append(entry.getValue()).append(" ").append(entry.getKey());
+            first = false;
+        }
+        out.append("\n");
+    }
+
+    /**
+     * @return The description of a code, or null if it has none
+     */
+    String describe(String code) {
+        return descriptions.get(code);
+    }
+
+    /**
+     * Append the descriptions of the codes the recipient has not been sent yet
+     * @param known Codes already described to the recipient; the new ones are added
+     */
+    void appendReference(Collection<String> codes, Set<String> known, StringBuilder out) {
+        List<String> missing = new ArrayList<>();
+        for (String code : codes) {
+            if (!known.contains(code) && descriptions.containsKey(code)) {
+                missing.add(code);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        missing.sort(null);
+        out.append("\nReference:\n");
+        for (String code : missing) {
+            out.append(code).append(": ").append(descriptions.get(code)).append("\n");
+            known.add(code);
+        }
+    }
+
+    private static String typeName(String type) {
+        return TYPE_NAMES.computeIfAbsent(type, t -> t.isEmpty() ? t : t.charAt(0) + t.substring(1).toLowerCase());
+    }
+
+    /**
+     * Register the numbers a card is seen with for the first time. The first text of a
+     * name keeps the plain name as its code; numbers that change the text get a code of
+     * their own, and numbers the text does not show share the code of that text.
+     */
+    private synchronized String registerVariant(GameState.CardInfo card) {
+        CardVariant[] variants = cardVariants.get(card.name);
+        if (variants == null) {
+            variants = new CardVariant[0];
+        }
+        for (CardVariant variant : variants) {
+            if (variant.matches(card)) {
+                return variant.code;
+            }
+        }
+
+        String text = clean(card.description
+                .replace("!D!", String.valueOf(card.baseDamage))
+                .replace("!B!", String.valueOf(card.baseBlock))
+                .replace("!M!", String.valueOf(card.magicNumber)));
+        String code = null;
+        for (CardVariant variant : variants) {
+            if (text.equals(descriptions.get(variant.code))) {
+                code = variant.code;
+                break;
+            }
+        }
+        if (code == null) {
+            code = variants.length == 0 ? card.name : card.name + " (" + numbers(card) + ")";
+            descriptions.putIfAbsent(code, text);
+        }
+
+        CardVariant[] grown = Arrays.copyOf(variants, variants.length + 1);
+        grown[variants.length] = new CardVariant(card, code);
+        cardVariants.put(card.name, grown);
+        return code;
+    }
+
+    /**
+     * The numbers a card's description shows, e.g. "13" or "8/2"
+     */
+    private static String numbers(GameState.CardInfo card) {
+        StringBuilder out = new StringBuilder();
+        if (card.description.contains("!D!")) {
+            out.append(card.baseDamage);
+        }
+        if (card.description.contains("!B!")) {
+            out.append(out.length() > 0 ? "/" : "").append(card.baseBlock);
+        }
+        if (card.description.contains("!M!")) {
+            out.append(out.length() > 0 ? "/" : "").append(card.magicNumber);
+        }
+        return out.toString();
+    }
+
+    private String register(String code, String description) {
+        if (code == null) {
+            return "?";
+        }
+        if (description != null && !descriptions.containsKey(code)) {
+            descriptions.putIfAbsent(code, clean(description));
+        }
+        return code;
+    }
+
+    /**
+     * The numbers a card name was seen with, and the code they map to
+     */
+    private static class CardVariant {
+        private final int baseDamage;
+        private final int baseBlock;
+        private final int magicNumber;
+        private final String code;
+
+        private CardVariant(GameState.CardInfo card, String code) {
+            this.baseDamage = card.baseDamage;
+            this.baseBlock = card.baseBlock;
+            this.magicNumber = card.magicNumber;
+            this.code = code;
+        }
+
+        boolean matches(GameState.CardInfo card) {
+            return card.baseDamage == baseDamage && card.baseBlock == baseBlock && card.magicNumber == magicNumber;
+        }
+    }
+
+    /**
+     * Strip the game's text markup: NL line breaks and #y-style colour prefixes
+     */
+    static String clean(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        for (String word : text.split("\\s+")) {
+            if (word.isEmpty() || word.equals("NL")) {
+                continue;
+            }
+            if (word.length() > 2 && word.charAt(0) == '#' && Character.isLetter(word.charAt(1))) {
+                word = word.substring(2);
+            }
+            if (out.length() > 0) {
+                out.append(' ');
+            }
+            out.append(word);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,105 @@
+package llmthespire.llm;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Counters for the cheap-model-first cascade: how often and why decisions were
+ * escalated, and the end-to-end latency of the cascade next to the latency of
+ * the strong model's own calls.
+ *
+ * Strong-model calls are kept apart by origin. Escalated calls are the decisions the
+ * cheap model found hard, so they are not a baseline for the strong model; only the
+ * sampled baseline calls, made for a random share of accepted decisions, are.
+ */
+public class CascadeStats {
+    /**
+     * Why a decision went to the strong model
+     */
+    public enum Escalation {
+        FAILED,         // no cheap sample answered
+        INVALID,        // the cheap action failed local validation
+        DISAGREEMENT,   // the cheap samples chose different actions
+        LOW_CONFIDENCE  // the cheap model gave its action a low probability
+    }
+
+    private final LatencyTracker cascadeLatency = new LatencyTracker(500);
+    private final LatencyTracker escalatedLatency = new LatencyTracker(500);
+    private final LatencyTracker baselineLatency = new LatencyTracker(500);
+    private final Map<Escalation, Long> escalations = new EnumMap<>(Escalation.class);
+    private long decisions;
+    private long baselineCompared;
+    private long baselineAgreed;
+
+    synchronized void recordDecision(long latencyMs) {
+        decisions++;
+        cascadeLatency.record(latencyMs);
+    }
+
+    synchronized void recordEscalation(Escalation reason) {
+        escalations.merge(reason, 1L, Long::sum);
+    }
+
+    /**
+     * Record the duration of one escalated call to the strong model, queueing excluded
+     */
+    synchronized void recordEscalatedCall(long latencyMs) {
+        escalatedLatency.record(latencyMs);
+    }
+
+    /**
+     * Record a background strong-model answer for an accepted cheap answer: its duration,
+     * queueing excluded, and whether it chose the same action
+     */
+    synchronized void recordBaseline(long latencyMs, boolean agreed) {
+        baselineLatency.record(latencyMs);
+        baselineCompared++;
+        if (agreed) {
+            baselineAgreed++;
+        }
+    }
+
+    /**
+     * @return Decisions answered by the cascade
+     */
+    public synchronized long getDecisions() {
+        return decisions;
+    }
+
+    /**
+     * @return Decisions that went to the strong model
+     */
+    public synchronized long getEscalated() {
+        long total = 0;
+        for (long count : escalations.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return Share of decisions that went to the strong model, between 0 and 1
+     */
+    public synchronized double getEscalationRate() {
+        return decisions == 0 ? 0 : (double) getEscalated() / decisions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "decisions=" + decisions +
+               String.format(", escalation rate=%.1f%% ", getEscalationRate() * 100) + escalations +
+               ", cascade latency " + percentiles(cascadeLatency) +
+               ", escalated strong model calls " + percentiles(escalatedLatency) +
+               ", sampled strong model baseline " + (baselineLatency.size() == 0 ? "n/a (baselineRate is 0)" : percentiles(baselineLatency)) +
+               (baselineCompared == 0 ? "" : String.format(", strong model agreed with accepted cheap answers %d/%d (%.0f%%)",
+                       baselineAgreed, baselineCompared, baselineAgreed * 100.0 / baselineCompared));
+    }
+
+    private static String percentiles(LatencyTracker tracker) {
+        if (tracker.size() == 0) {
+            return "n/a";
+        }
+        return "p50=" + tracker.percentile(0.5) + "ms p90=" + tracker.percentile(0.9) +
+               "ms p99=" + tracker.percentile(0.99) + "ms (" + tracker.size() + " samples)";
+    }
+}
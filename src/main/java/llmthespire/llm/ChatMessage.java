@@ -0,0 +1,26 @@
+package llmthespire.llm;
+
+/**
+ * One earlier message of a conversation, sent between the system prompt and the
+ * current user message
+ */
+class ChatMessage {
+    static final String USER = "user";
+    static final String ASSISTANT = "assistant";
+
+    private final String role;
+    private final String content;
+
+    ChatMessage(String role, String content) {
+        this.role = role;
+        this.content = content;
+    }
+
+    String getRole() {
+        return role;
+    }
+
+    String getContent() {
+        return content;
+    }
+}
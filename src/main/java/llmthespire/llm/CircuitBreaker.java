@@ -0,0 +1,95 @@
+package llmthespire.llm;
+
+/**
+ * Circuit breaker for a single provider.
+ *
+ * CLOSED lets every request through. After enough consecutive failures the breaker
+ * OPENs and rejects requests outright; once the open period has passed it goes
+ * HALF_OPEN and lets a single probe through, whose outcome closes or re-opens it.
+ */
+public class CircuitBreaker {
+    /**
+     * Breaker states
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDurationMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean probeInFlight = false;
+
+    public CircuitBreaker(int failureThreshold, long openDurationMs) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationMs = openDurationMs;
+    }
+
+    /**
+     * Check whether a request may be sent now, without claiming the half-open probe
+     */
+    public synchronized boolean isAvailable() {
+        switch (state) {
+            case OPEN:
+                return System.currentTimeMillis() - openedAt >= openDurationMs;
+            case HALF_OPEN:
+                return !probeInFlight;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Claim permission to send a request. In the half-open state only one caller gets it.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDurationMs) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+
+        switch (state) {
+            case OPEN:
+                return false;
+            case HALF_OPEN:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+        probeInFlight = false;
+    }
+
+    /**
+     * Give back a claimed permission without an outcome, e.g. when the request was cancelled
+     */
+    public synchronized void release() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,154 @@
+package llmthespire.llm;
+
+import llmthespire.game.GameState;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The conversation of one combat: the full state is sent once, then each decision
+ * sends only what changed since the state the model last saw, after the earlier
+ * messages and answers.
+ *
+ * The session is resynced with a full snapshot when a diff would be as large as the
+ * snapshot, or when the history would outgrow its token budget. Only answered turns
+ * are added to the history, so a cancelled or failed request leaves it unchanged
+ * and the next diff is still relative to what the model has seen. Dictionary codes
+ * described earlier in the history are not described again.
+ */
+class CombatConversation {
+    private static final Logger logger = LogManager.getLogger(CombatConversation.class.getName());
+
+    private final CardDictionary dictionary;
+    private final List<ChatMessage> history = new ArrayList<>();
+    private Set<String> known = new HashSet<>();
+    private GameState lastState;
+    private int floor = -1;
+    private long historyTokens;
+    private long version;
+
+    // Counters of the current combat, in estimated tokens
+    private int decisions;
+    private int resyncs;
+    private long sentTokens;
+    private long newTokens;
+    private long fullTokens;
+
+    CombatConversation(CardDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * A prepared decision: the history to send before the message
+     */
+    static class Turn {
+        private final List<ChatMessage> history;
+        private final String message;
+        private final boolean snapshot;
+        private final long version;
+        // Codes described in the history and this message
+        private final Set<String> known;
+
+        private Turn(List<ChatMessage> history, String message, boolean snapshot, long version, Set<String> known) {
+            this.history = history;
+            this.message = message;
+            this.snapshot = snapshot;
+            this.version = version;
+            this.known = known;
+        }
+
+        List<ChatMessage> getHistory() {
+            return history;
+        }
+
+        String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Prepare the messages for a combat decision
+     * @param snapshot The full state prompt
+     * @param codes The dictionary codes the snapshot uses and describes
+     * @param collection Whether the prompt lists the potions and piles, so their changes are sent too
+     * @param maxHistoryTokens Resync once the history would grow past this
+     */
+    synchronized Turn prepare(GameState state, String snapshot, Set<String> codes, boolean collection, long maxHistoryTokens) {
+        if (lastState == null || state.floor != floor) {
+            end();
+            floor = state.floor;
+            return record(new Turn(Collections.<ChatMessage>emptyList(), snapshot, true, version, new HashSet<>(codes)), snapshot);
+        }
+
+        StringBuilder changes = new StringBuilder(PromptDiff.describe(lastState, state, dictionary, collection));
+        Set<String> described = new HashSet<>(known);
+        dictionary.appendReference(codes, described, changes);
+        String diff = changes.toString();
+        long diffTokens = LLMService.estimateTokens(diff);
+        if (diffTokens >= LLMService.estimateTokens(snapshot) || historyTokens + diffTokens > maxHistoryTokens) {
+            resyncs++;
+            logger.debug("Resyncing the combat conversation with a full snapshot");
+            return record(new Turn(Collections.<ChatMessage>emptyList(), snapshot, true, version, new HashSet<>(codes)), snapshot);
+        }
+        return record(new Turn(new ArrayList<>(history), diff, false, version, described), snapshot);
+    }
+
+    /**
+     * Add an answered turn to the history
+     * @param state The state the turn described
+     */
+    synchronized void commit(Turn turn, GameState state, String answer) {
+        if (turn.version != version) {
+            return; // Another turn was answered in between; this one's history is out of date
+        }
+        if (turn.snapshot) {
+            history.clear();
+            historyTokens = 0;
+        }
+        history.add(new ChatMessage(ChatMessage.USER, turn.message));
+        history.add(new ChatMessage(ChatMessage.ASSISTANT, answer));
+        historyTokens += LLMService.estimateTokens(turn.message) + LLMService.estimateTokens(answer);
+        known = turn.known;
+        lastState = state;
+        version++;
+    }
+
+    /**
+     * End the conversation, e.g. when the combat is over, and log what it saved
+     */
+    synchronized void end() {
+        if (decisions > 0) {
+            logger.info("Combat conversation on floor " + floor + ": " + decisions + " decisions, " + resyncs + " resyncs, " +
+                        "new prompt tokens " + newTokens + " and history tokens " + (sentTokens - newTokens) +
+                        " vs " + fullTokens + " sending the full state each time (estimated)");
+        }
+        history.clear();
+        historyTokens = 0;
+        known = new HashSet<>();
+        lastState = null;
+        floor = -1;
+        version++;
+        decisions = 0;
+        resyncs = 0;
+        sentTokens = 0;
+        newTokens = 0;
+        fullTokens = 0;
+    }
+
+    private Turn record(Turn turn, String snapshot) {
+        decisions++;
+        long messageTokens = LLMService.estimateTokens(turn.message);
+        newTokens += messageTokens;
+        sentTokens += messageTokens;
+        for (ChatMessage message : turn.history) {
+            sentTokens += LLMService.estimateTokens(message.getContent());
+        }
+        fullTokens += LLMService.estimateTokens(snapshot);
+        return turn;
+    }
+}
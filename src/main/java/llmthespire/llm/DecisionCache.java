@@ -0,0 +1,399 @@
+package llmthespire.llm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent exact-match cache of LLM decisions.
+ *
+ * A fixed-size open-addressing hash table (linear probing) in a memory-mapped
+ * file, so answers survive game restarts. Keys are 128-bit state digests; each
+ * slot stores the key, a logical last-used clock and the response text. When the
+ * table holds maxEntries answers the least recently used one is evicted; the
+ * recency order is kept in memory, rebuilt from the clocks when the file is opened,
+ * so eviction never scans the table.
+ *
+ * File layout: a 64-byte header (magic, version, slot count, entry count, clock)
+ * followed by slotCount slots of SLOT_SIZE bytes.
+ */
+public class DecisionCache {
+    private static final Logger logger = LogManager.getLogger(DecisionCache.class.getName());
+
+    private static final int MAGIC = 0x4C4C4443; // "LLDC"
+    // 2: state digests include player HP and block
+    // 3: state digests include potions and each monster's block and intended damage
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_SLOTS = 8;
+    private static final int H_ENTRIES = 12;
+    private static final int H_CLOCK = 16;
+
+    public static final int KEY_SIZE = 16;
+    private static final int SLOT_SIZE = 1024;
+    private static final int S_USED = 0;
+    private static final int S_KEY = 1;
+    private static final int S_LAST_USED = S_KEY + KEY_SIZE;
+    private static final int S_LENGTH = S_LAST_USED + 8;
+    private static final int S_VALUE = 32;
+    private static final int VALUE_CAPACITY = SLOT_SIZE - S_VALUE;
+    private static final int MAX_ENTRIES_LIMIT = 1 << 19; // keeps the mapping under 1 GB
+
+    private final File file;
+    private final int maxEntries;
+    private final int slotCount;
+    private final byte[] scratch = new byte[SLOT_SIZE];
+    // Keys from least to most recently used
+    private final LinkedHashMap<ByteBuffer, Boolean> recency = new LinkedHashMap<>(16, 0.75f, true);
+
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private int entries;
+    private long clock;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Open or create the cache file
+     * @param file The backing file
+     * @param maxEntries Most answers kept; the table has twice as many slots
+     */
+    public DecisionCache(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = Math.max(1, Math.min(MAX_ENTRIES_LIMIT, maxEntries));
+        this.slotCount = this.maxEntries * 2;
+        try {
+            open();
+        } catch (IOException e) {
+            logger.error("Failed to open decision cache " + file + ", caching disabled: " + e.getMessage(), e);
+            close();
+        }
+    }
+
+    private void open() throws IOException {
+        long size = HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+        boolean existed = file.exists() && file.length() == size;
+
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(size);
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        if (existed && buffer.getInt(H_MAGIC) == MAGIC && buffer.getInt(H_VERSION) == VERSION
+                && buffer.getInt(H_SLOTS) == slotCount) {
+            entries = buffer.getInt(H_ENTRIES);
+            clock = buffer.getLong(H_CLOCK);
+            loadRecency();
+            logger.info("Loaded decision cache " + file + " with " + entries + " entries");
+        } else {
+            // New file, or written with another size or layout: start empty
+            for (int i = 0; i < slotCount; i++) {
+                buffer.put(slotOffset(i) + S_USED, (byte) 0);
+            }
+            buffer.putInt(H_MAGIC, MAGIC);
+            buffer.putInt(H_VERSION, VERSION);
+            buffer.putInt(H_SLOTS, slotCount);
+            entries = 0;
+            clock = 0;
+            writeHeader();
+            logger.info("Created decision cache " + file + " (" + maxEntries + " entries)");
+        }
+    }
+
+    /**
+     * Look up a decision
+     * @return The cached response, or null on a miss
+     */
+    public synchronized String get(byte[] key) {
+        if (buffer == null) {
+            return null;
+        }
+        int slot = find(key);
+        if (slot < 0) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        int offset = slotOffset(slot);
+        buffer.putLong(offset + S_LAST_USED, ++clock);
+        buffer.putLong(H_CLOCK, clock);
+        recency.get(ByteBuffer.wrap(key));
+
+        byte[] value = new byte[buffer.getInt(offset + S_LENGTH)];
+        readBytes(offset + S_VALUE, value);
+        hits.incrementAndGet();
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Store a decision, evicting the least recently used one if the cache is full
+     */
+    public synchronized void put(byte[] key, String response) {
+        if (buffer == null || response == null || response.isEmpty()) {
+            return;
+        }
+        byte[] value = fit(response);
+        if (value.length == 0) {
+            return;
+        }
+
+        int slot = find(key);
+        if (slot < 0) {
+            if (entries >= maxEntries && evictLeastRecentlyUsed()) {
+                evictions.incrementAndGet();
+            }
+            slot = probe(key);
+            entries++;
+        }
+        recency.put(ByteBuffer.wrap(key.clone()), Boolean.TRUE);
+
+        int offset = slotOffset(slot);
+        buffer.put(offset + S_USED, (byte) 1);
+        writeBytes(offset + S_KEY, key, KEY_SIZE);
+        buffer.putLong(offset + S_LAST_USED, ++clock);
+        buffer.putInt(offset + S_LENGTH, value.length);
+        writeBytes(offset + S_VALUE, value, value.length);
+        writeHeader();
+        stores.incrementAndGet();
+    }
+
+    /**
+     * Drop a decision, e.g. because executing it failed
+     */
+    public synchronized void remove(byte[] key) {
+        if (buffer == null) {
+            return;
+        }
+        int slot = find(key);
+        if (slot >= 0) {
+            deleteAt(slot);
+            recency.remove(ByteBuffer.wrap(key));
+            writeHeader();
+        }
+    }
+
+    /**
+     * Flush the mapping to disk and release the file
+     */
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                logger.error("Failed to close decision cache: " + e.getMessage(), e);
+            }
+            raf = null;
+        }
+    }
+
+    public synchronized int size() {
+        return entries;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getStores() {
+        return stores.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        long lookups = getHits() + getMisses();
+        return "entries=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() +
+               String.format(" (%.0f%% hit rate)", lookups == 0 ? 0.0 : getHits() * 100.0 / lookups) +
+               ", evictions=" + getEvictions();
+    }
+
+    /**
+     * Slot holding the key, or -1
+     */
+    private int find(byte[] key) {
+        int slot = home(key);
+        for (int probes = 0; probes < slotCount; probes++) {
+            int offset = slotOffset(slot);
+            if (buffer.get(offset + S_USED) == 0) {
+                return -1;
+            }
+            if (keyEquals(offset, key)) {
+                return slot;
+            }
+            slot = (slot + 1) % slotCount;
+        }
+        return -1;
+    }
+
+    /**
+     * First free slot in the key's probe sequence
+     */
+    private int probe(byte[] key) {
+        int slot = home(key);
+        while (buffer.get(slotOffset(slot) + S_USED) != 0) {
+            slot = (slot + 1) % slotCount;
+        }
+        return slot;
+    }
+
+    /**
+     * Remove the least recently used entry
+     * @return False if there was none
+     */
+    private boolean evictLeastRecentlyUsed() {
+        Iterator<ByteBuffer> it = recency.keySet().iterator();
+        if (!it.hasNext()) {
+            return false;
+        }
+        byte[] oldest = it.next().array();
+        it.remove();
+        deleteAt(find(oldest));
+        return true;
+    }
+
+    /**
+     * Rebuild the recency order from the last-used clocks of the stored entries
+     */
+    private void loadRecency() {
+        List<long[]> used = new ArrayList<>(entries);
+        for (int i = 0; i < slotCount; i++) {
+            int offset = slotOffset(i);
+            if (buffer.get(offset + S_USED) != 0) {
+                used.add(new long[] { buffer.getLong(offset + S_LAST_USED), i });
+            }
+        }
+        used.sort((a, b) -> Long.compare(a[0], b[0]));
+        for (long[] entry : used) {
+            byte[] key = new byte[KEY_SIZE];
+            readBytes(slotOffset((int) entry[1]) + S_KEY, key);
+            recency.put(ByteBuffer.wrap(key), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Remove a slot and shift later members of its probe run back, so lookups
+     * never stop early at the hole (no tombstones needed)
+     */
+    private void deleteAt(int hole) {
+        if (hole < 0) {
+            return;
+        }
+        int next = hole;
+        while (true) {
+            next = (next + 1) % slotCount;
+            int nextOffset = slotOffset(next);
+            if (buffer.get(nextOffset + S_USED) == 0) {
+                break;
+            }
+            int home = home(nextOffset);
+            boolean staysPut = hole <= next
+                    ? hole < home && home <= next
+                    : hole < home || home <= next;
+            if (!staysPut) {
+                readBytes(nextOffset, scratch);
+                writeBytes(slotOffset(hole), scratch, SLOT_SIZE);
+                hole = next;
+            }
+        }
+        buffer.put(slotOffset(hole) + S_USED, (byte) 0);
+        entries--;
+    }
+
+    private int home(byte[] key) {
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (key[i] & 0xFF);
+        }
+        return (int) ((hash & Long.MAX_VALUE) % slotCount);
+    }
+
+    private int home(int slotOffset) {
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (buffer.get(slotOffset + S_KEY + i) & 0xFF);
+        }
+        return (int) ((hash & Long.MAX_VALUE) % slotCount);
+    }
+
+    private boolean keyEquals(int slotOffset, byte[] key) {
+        for (int i = 0; i < KEY_SIZE; i++) {
+            if (buffer.get(slotOffset + S_KEY + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeHeader() {
+        buffer.putInt(H_ENTRIES, entries);
+        buffer.putLong(H_CLOCK, clock);
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private void readBytes(int offset, byte[] target) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] = buffer.get(offset + i);
+        }
+    }
+
+    private void writeBytes(int offset, byte[] source, int length) {
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + i, source[i]);
+        }
+    }
+
+    /**
+     * Encode a response so it fits a slot: if it is too long, the reasoning is
+     * shortened and the ACTION: line kept
+     */
+    private static byte[] fit(String response) {
+        byte[] value = response.getBytes(StandardCharsets.UTF_8);
+        if (value.length <= VALUE_CAPACITY) {
+            return value;
+        }
+
+        String actionLine = "";
+        for (String line : response.split("\n")) {
+            if (line.trim().startsWith("ACTION:")) {
+                actionLine = line.trim();
+            }
+        }
+        String head = response;
+        byte[] fitted;
+        do {
+            head = head.substring(0, head.length() * 3 / 4);
+            fitted = (head + "...\n" + actionLine).getBytes(StandardCharsets.UTF_8);
+        } while (fitted.length > VALUE_CAPACITY && !head.isEmpty());
+        return fitted.length <= VALUE_CAPACITY ? fitted : new byte[0];
+    }
+}
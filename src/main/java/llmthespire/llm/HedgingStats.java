@@ -0,0 +1,63 @@
+package llmthespire.llm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for hedged requests, used to tune the hedging threshold
+ */
+public class HedgingStats {
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong won = new AtomicLong();
+    private final AtomicLong wastedTokens = new AtomicLong();
+
+    void recordRequest() {
+        requests.incrementAndGet();
+    }
+
+    void recordFired() {
+        fired.incrementAndGet();
+    }
+
+    void recordWon() {
+        won.incrementAndGet();
+    }
+
+    void recordWastedTokens(long tokens) {
+        wastedTokens.addAndGet(tokens);
+    }
+
+    /**
+     * @return Requests sent while hedging was enabled
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return Requests for which a hedge was sent
+     */
+    public long getFired() {
+        return fired.get();
+    }
+
+    /**
+     * @return Hedges that answered before the original request
+     */
+    public long getWon() {
+        return won.get();
+    }
+
+    /**
+     * @return Estimated tokens spent on the losing side of hedged requests
+     */
+    public long getWastedTokens() {
+        return wastedTokens.get();
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + getRequests() + ", hedges fired=" + getFired() +
+               ", hedges won=" + getWon() + ", wasted tokens=" + getWastedTokens();
+    }
+}
@@ -0,0 +1,217 @@
+package llmthespire.llm;
+
+import llmthespire.LLMConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared keep-alive connection pool for provider calls.
+ *
+ * Each endpoint (scheme, host and port) gets its own pool whose size comes from
+ * {@link LLMConfig.ApiConfig#getMaxConnections()}, raised to the minimum set with
+ * {@link #setMinConnections(int)} when a caller runs more requests at once. Connections are handed back to
+ * the JDK keep-alive cache on release instead of being disconnected, so consecutive
+ * requests to the same provider reuse the open TCP/TLS session. The cache keeps as
+ * many idle sockets per destination as the JVM's http.maxConnections allows (5 unless
+ * the game is started with another value); the pool leaves that setting alone.
+ */
+public class HttpConnectionPool {
+    private static final Logger logger = LogManager.getLogger(HttpConnectionPool.class.getName());
+
+    private static final int CONNECT_TIMEOUT_MS = 30000; // 30-second connection timeout
+    private static final int READ_TIMEOUT_MS = 60000;    // 60-second read timeout
+    private static final long IDLE_EVICT_MS = 60000;     // Drop endpoints unused for a minute
+
+    // Singleton instance
+    private static volatile HttpConnectionPool instance;
+
+    private final Map<String, EndpointPool> pools = new ConcurrentHashMap<>();
+    private final Map<HttpURLConnection, EndpointPool> leases = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private volatile int minConnections = 1;
+
+    /**
+     * Private constructor for singleton
+     */
+    private HttpConnectionPool() {
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdle, IDLE_EVICT_MS, IDLE_EVICT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the singleton instance
+     */
+    public static HttpConnectionPool getInstance() {
+        if (instance == null) {
+            synchronized (HttpConnectionPool.class) {
+                if (instance == null) {
+                    instance = new HttpConnectionPool();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Let every endpoint lease at least this many connections at once, whatever its
+     * ApiConfig allows, e.g. so all samples of a vote are sent together
+     */
+    public void setMinConnections(int minConnections) {
+        this.minConnections = Math.max(1, minConnections);
+    }
+
+    /**
+     * Lease a connection to the given URL, blocking while the endpoint's pool is exhausted
+     * @param config The API configuration the request belongs to
+     * @param url The endpoint URL
+     * @return An unconnected HttpURLConnection; must be handed back through {@link #release}
+     */
+    public HttpURLConnection open(LLMConfig.ApiConfig config, URL url) throws IOException {
+        String key = endpointKey(url);
+        EndpointPool pool;
+        do {
+            // A pool evicted between the lookup and the lease refuses it; look it up again
+            pool = pools.computeIfAbsent(key, EndpointPool::new);
+            pool.setCapacity(Math.max(config.getMaxConnections(), minConnections));
+        } while (!pool.acquire());
+
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestProperty("Connection", "keep-alive");
+            if (config.isAcceptGzip()) {
+                // Not decoded by HttpURLConnection; callers go through TransferStats.responseStream
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+            }
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            leases.put(connection, pool);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            pool.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Return a leased connection to the pool
+     * @param connection The connection obtained from {@link #open}
+     * @param reusable True if the response body was read to the end and closed, so the
+     *                 socket can stay alive; false evicts it
+     */
+    public void release(HttpURLConnection connection, boolean reusable) {
+        if (connection == null) {
+            return;
+        }
+
+        if (!reusable) {
+            connection.disconnect();
+        }
+
+        EndpointPool pool = leases.remove(connection);
+        if (pool != null) {
+            pool.release();
+        }
+    }
+
+    /**
+     * Drop the slot bookkeeping of endpoints that have not been used for a while. Only a
+     * pool with no connection leased is dropped, and it is retired under its own lock, so
+     * a lease racing with the eviction goes to a fresh pool instead. The idle sockets
+     * themselves belong to the JDK keep-alive cache, which closes them on its own timeout.
+     */
+    private void evictIdle() {
+        long idleSince = System.currentTimeMillis() - IDLE_EVICT_MS;
+        for (String key : pools.keySet()) {
+            pools.computeIfPresent(key, (k, pool) -> {
+                if (!pool.retireIfIdleSince(idleSince)) {
+                    return pool;
+                }
+                logger.debug("Evicting idle connection pool for " + k);
+                return null;
+            });
+        }
+    }
+
+    private static String endpointKey(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+
+    /**
+     * Bounded set of connection slots for a single endpoint
+     */
+    private static class EndpointPool {
+        private final String key;
+        private int capacity = 1;
+        private int leased = 0;
+        private long lastUsed = System.currentTimeMillis();
+        private boolean retired = false;
+
+        private EndpointPool(String key) {
+            this.key = key;
+        }
+
+        synchronized void setCapacity(int capacity) {
+            int newCapacity = Math.max(1, capacity);
+            if (newCapacity > this.capacity) {
+                notifyAll();
+            }
+            this.capacity = newCapacity;
+        }
+
+        /**
+         * @return False if the pool was evicted and can no longer lease
+         */
+        synchronized boolean acquire() throws IOException {
+            long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+            try {
+                while (!retired && leased >= capacity) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new IOException("Connection pool for " + key + " exhausted (" + capacity + " in use)");
+                    }
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a connection to " + key, e);
+            }
+            if (retired) {
+                return false;
+            }
+            leased++;
+            lastUsed = System.currentTimeMillis();
+            return true;
+        }
+
+        synchronized void release() {
+            leased = Math.max(0, leased - 1);
+            lastUsed = System.currentTimeMillis();
+            notifyAll();
+        }
+
+        /**
+         * Stop leasing if no connection is leased and none has been since the given time
+         * @return True if the pool was retired
+         */
+        synchronized boolean retireIfIdleSince(long time) {
+            if (leased == 0 && lastUsed < time) {
+                retired = true;
+            }
+            return retired;
+        }
+    }
+}
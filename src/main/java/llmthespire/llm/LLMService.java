@@ -4,27 +4,42 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import com.megacrit.cardcrawl.cards.AbstractCard;
-import com.megacrit.cardcrawl.characters.AbstractPlayer;
-import com.megacrit.cardcrawl.dungeons.AbstractDungeon;
-import com.megacrit.cardcrawl.monsters.AbstractMonster;
-import com.megacrit.cardcrawl.ui.panels.EnergyPanel;
 import llmthespire.LLMConfig;
+import llmthespire.game.ActionValidator;
+import llmthespire.game.CommandParser;
+import llmthespire.game.GameStageType;
 import llmthespire.game.GameState;
+import llmthespire.game.StateFingerprint;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service responsible for communicating with Language Models
@@ -35,124 +50,1107 @@ public class LLMService {
     // Singleton instance
     private static volatile LLMService instance;
     
-    // Thread pool for async operations
-    private final ExecutorService executor;
+    // Bounded, prioritized pools for provider calls and response parsing
+    private final RequestScheduler scheduler;
+    
+    // Keep-alive connections shared by all provider calls
+    private final HttpConnectionPool connectionPool;
+    
+    // Request/response sizes before and after compression
+    private final TransferStats transferStats = new TransferStats();
+    
+    // Encodes request bodies directly into the connection
+    private final RequestBodyWriter requestBodyWriter = new RequestBodyWriter(transferStats);
+    
+    // Hedged requests: recent latencies decide when the duplicate is sent
+    private static final int MIN_HEDGE_SAMPLES = 10;
+    private final ScheduledExecutorService hedgeTimer;
+    private final LatencyTracker latencyTracker = new LatencyTracker(100);
+    private final HedgingStats hedgingStats = new HedgingStats();
+    private final UsageStats usageStats = new UsageStats();
+    
+    // Latency and token histograms per game stage; the usage of the response being
+    // fetched is handed from the provider call to fetch() on the same thread
+    private static final int STAGE_LOG_INTERVAL = 25;
+    private final StageStats stageStats = new StageStats();
+    private final ThreadLocal<TokenUsage> responseUsage = new ThreadLocal<>();
+    
+    // Cheap-model-first cascade; the action logprob travels like the usage
+    private static final int CASCADE_LOG_INTERVAL = 25;
+    private final CascadeStats cascadeStats = new CascadeStats();
+    private final ThreadLocal<Double> responseLogprob = new ThreadLocal<>();
+    
+    // Requests cancelled because their state was gone
+    private static final long DEFAULT_COMPLETION_TOKENS = 200;
+    private final CancellationStats cancellationStats = new CancellationStats();
+    
+    // Descriptions of the cards, relics and potions seen this session, by prompt code
+    private final CardDictionary dictionary = new CardDictionary();
+    private final StatePrompt statePrompt = new StatePrompt(dictionary);
+    
+    // The current combat's conversation, when only state changes are sent
+    private final CombatConversation conversation = new CombatConversation(dictionary);
+    
+    // Self-consistency voting on high-stakes decisions
+    private static final int VOTE_LOG_INTERVAL = 10;
+    private final VoteStats voteStats = new VoteStats();
+    
+    // Chooses the API configuration for each request
+    private final ProviderRouter router = new ProviderRouter();
+    
+    // Client-side request and token quotas, per API configuration name
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
     
     // Conversation logger
     private ConversationLogger conversationLogger;
     
-    // Cache to minimize API calls
-    private final long CACHE_TIMEOUT_MS = 500;
-    private String lastGameState = "";
-    private String lastResponse = "";
-    private long lastRequestTime = 0;
+    // System prompt with the static instructions appended, rebuilt only when the configured prompt changes
+    private volatile String cachedBasePrompt;
+    private volatile String cachedSystemPrompt;
+    private volatile boolean cachedPlanning;
+    private volatile boolean cachedConversation;
+    
+    // Persistent cache of decisions for identical states, null when disabled
+    private final DecisionCache decisionCache;
+    // Approximate cache for similar combat states, null when disabled
+    private final SimilarityCache similarityCache;
+    
+    /**
+     * Private constructor for singleton
+     */
+    private LLMService() {
+        // Daemon threads to avoid blocking game shutdown. More than one I/O thread,
+        // so that a hedge can run next to the original request, and with voting
+        // enough for all samples to run at once next to other work.
+        LLMConfig.SchedulerConfig schedulerConfig = LLMConfig.getInstance().getScheduler();
+        LLMConfig.VotingConfig votingConfig = LLMConfig.getInstance().getVoting();
+        int ioThreads = votingConfig.isEnabled()
+                ? Math.max(schedulerConfig.getIoThreads(), votingConfig.getSamples() + 1)
+                : schedulerConfig.getIoThreads();
+        scheduler = new RequestScheduler(ioThreads,
+                schedulerConfig.getCpuThreads(),
+                schedulerConfig.getQueueCapacity());
+        hedgeTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        connectionPool = HttpConnectionPool.getInstance();
+        if (votingConfig.isEnabled()) {
+            // Likewise for the endpoint's connections, or the samples queue for a slot
+            connectionPool.setMinConnections(votingConfig.getSamples() + 1);
+        }
+        conversationLogger = new ConversationLogger();
+        
+        LLMConfig.DecisionCacheConfig cacheConfig = LLMConfig.getInstance().getDecisionCache();
+        decisionCache = cacheConfig.isEnabled()
+                ? new DecisionCache(new File(LLMConfig.getInstance().getConversationDirectory(), "decision_cache.bin"), cacheConfig.getMaxEntries())
+                : null;
+        
+        LLMConfig.SimilarityCacheConfig similarConfig = LLMConfig.getInstance().getSimilarityCache();
+        similarityCache = similarConfig.isEnabled()
+                ? new SimilarityCache(similarConfig.getMaxDistance(), similarConfig.getMaxEntries(), similarConfig.isShadowMode())
+                : null;
+    }
+    
+    /**
+     * Get the singleton instance
+     */
+    public static LLMService getInstance() {
+        if (instance == null) {
+            synchronized (LLMService.class) {
+                if (instance == null) {
+                    instance = new LLMService();
+                }
+            }
+        }
+        return instance;
+    }
+    
+    /**
+     * Ask the LLM for the next action given the current game state
+     * @param gameState The current game state
+     * @return A handle that will resolve to the action to take, and can cancel the request
+     */
+    public RequestHandle requestAction(GameState gameState) {
+        RequestScheduler.Priority priority = gameState.stage == GameStageType.BATTLE
+                ? RequestScheduler.Priority.COMBAT
+                : RequestScheduler.Priority.DECISION;
+        return requestAction(gameState, priority);
+    }
+    
+    /**
+     * Ask the LLM for the next action with an explicit scheduling priority
+     * @param gameState The current game state
+     * @param priority Where the request queues relative to other LLM work
+     * @return A handle that will resolve to the action to take, and can cancel the request
+     */
+    public RequestHandle requestAction(GameState gameState, RequestScheduler.Priority priority) {
+        LLMConfig config = LLMConfig.getInstance();
+        
+        // Check if LLM is enabled - always true due to the overridden method in LLMConfig
+        if (!config.isEnabled()) {
+            logger.warn("LLM is disabled, no action will be taken");
+            return newHandle(gameState.stage, 0).follow(CompletableFuture.completedFuture(""));
+        }
+        
+        // Static instructions go into the system prompt so providers can cache the prefix;
+        // the user prompt carries only the game state. Built once up front so a hedged
+        // duplicate sends exactly the same request.
+        String systemPrompt = buildSystemPrompt(config.getSystemPrompt());
+        Set<String> codes = new HashSet<>();
+        String userPrompt = buildPrompt(gameState, codes);
+        logger.debug("User prompt length: " + userPrompt.length() + " characters");
+        
+        // In a combat conversation only the changes since the last answered decision are sent
+        CombatConversation.Turn turn = conversationTurn(gameState, priority, userPrompt, codes);
+        List<ChatMessage> history = turn != null ? turn.getHistory() : Collections.<ChatMessage>emptyList();
+        String message = turn != null ? turn.getMessage() : userPrompt;
+        
+        RequestHandle handle = newHandle(gameState.stage, estimateTokens(systemPrompt) + estimateTokens(message));
+        CompletableFuture<String> future = startRequest(gameState, priority, systemPrompt, history, message, handle.getToken());
+        if (turn != null) {
+            future = future.thenApply(response -> {
+                if (response != null && response.contains("ACTION:") && !response.startsWith("ERROR:")) {
+                    conversation.commit(turn, gameState, response);
+                }
+                return response;
+            });
+        }
+        return handle.follow(future);
+    }
+    
+    /**
+     * Prepare the conversation turn of a combat decision
+     * @param codes The dictionary codes the snapshot uses
+     * @return The turn, or null if the full state is sent on its own
+     */
+    private CombatConversation.Turn conversationTurn(GameState gameState, RequestScheduler.Priority priority, String snapshot,
+                                                     Set<String> codes) {
+        LLMConfig.ConversationConfig config = LLMConfig.getInstance().getConversation();
+        if (!config.isEnabled()) {
+            return null;
+        }
+        if (gameState.stage != GameStageType.BATTLE) {
+            conversation.end();
+            return null;
+        }
+        // Speculative requests describe a predicted state, not one that follows the conversation
+        if (priority == RequestScheduler.Priority.BACKGROUND) {
+            return null;
+        }
+        return conversation.prepare(gameState, snapshot, codes, LLMConfig.getInstance().getPromptBudget().isCollection(),
+                                    config.getMaxHistoryTokens());
+    }
+    
+    /**
+     * Answer from the caches or send the request down the configured path
+     * @param root Every provider call takes a child of this token
+     */
+    private CompletableFuture<String> startRequest(GameState gameState, RequestScheduler.Priority priority, String systemPrompt,
+                                                   List<ChatMessage> history, String userPrompt, CancellationToken root) {
+        LLMConfig config = LLMConfig.getInstance();
+        
+        // An identical decision-relevant state has been answered before: skip the round trip
+        byte[] cacheKey = decisionCache != null ? StateFingerprint.digest(gameState, systemPrompt) : null;
+        if (cacheKey != null) {
+            String cached = decisionCache.get(cacheKey);
+            if (cached != null) {
+                logger.info("Decision cache hit, skipping LLM request. Cache: " + decisionCache);
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        
+        // A close enough combat state has been answered before: reuse its action if it is still legal.
+        // In shadow mode the match is only compared with the fresh answer.
+        SimilarityCache.Match similar = similarityCache != null ? similarityCache.lookup(gameState, systemPrompt) : null;
+        if (similar != null && !similarityCache.isShadowMode()) {
+            logger.info("Similarity cache hit at distance " + similar.getDistance() + ", reusing " + similar.getAction() +
+                        ". Cache: " + similarityCache);
+            return CompletableFuture.completedFuture(similar.getResponse());
+        }
+        
+        long startTime = System.currentTimeMillis();
+        
+        // High-stakes decisions are taken by a vote of concurrent samples
+        LLMConfig.VotingConfig voting = config.getVoting();
+        if (voting.isEnabled() && voting.getDecisions().contains(decisionKind(gameState))) {
+            LLMConfig.ApiConfig voteConfig;
+            try {
+                voteConfig = router.select(config, gameState.stage);
+            } catch (IOException e) {
+                logger.error("Error requesting action from LLM: " + e.getMessage());
+                return CompletableFuture.completedFuture("ERROR: " + e.getMessage());
+            }
+            logger.info("LLM request initiated as a vote of " + voting.getSamples() + " samples on " + decisionKind(gameState) +
+                        ", API: " + voteConfig.getName() + ", model: " + voteConfig.getModel());
+            return cacheDecision(gameState, systemPrompt, cacheKey, similar, trackStage(gameState.stage, voteConfig, startTime,
+                    new VoteRequest(gameState, systemPrompt, history, userPrompt, priority, voting, root).start(voteConfig)));
+        }
+        
+        // In cascade mode the cheap model answers first and escalates to the strong one when unsure
+        LLMConfig.ApiConfig cheapConfig = resolveCheapConfig(config.getCascade());
+        if (cheapConfig != null) {
+            logger.info("LLM request initiated in cascade mode, cheap API: " + cheapConfig.getName() +
+                        ", model: " + cheapConfig.getModel());
+            return cacheDecision(gameState, systemPrompt, cacheKey, similar, trackStage(gameState.stage, cheapConfig, startTime,
+                    new CascadeRequest(gameState, systemPrompt, history, userPrompt, priority, root).start(cheapConfig)));
+        }
+        
+        // Pick the stage's API configuration, or the healthiest one, skipping any whose circuit breaker is open
+        LLMConfig.ApiConfig activeConfig;
+        try {
+            activeConfig = router.select(config, gameState.stage);
+        } catch (IOException e) {
+            logger.error("Error requesting action from LLM: " + e.getMessage());
+            return CompletableFuture.completedFuture("ERROR: " + e.getMessage());
+        }
+        
+        logger.info("LLM request initiated with API type: " + activeConfig.getApiType() + 
+                    ", model: " + activeConfig.getModel() + 
+                    ", name: " + activeConfig.getName());
+        
+        LLMConfig.HedgingConfig hedging = config.getHedging();
+        if (hedging.isEnabled()) {
+            return cacheDecision(gameState, systemPrompt, cacheKey, similar, trackStage(gameState.stage, activeConfig, startTime,
+                    new HedgedRequest(systemPrompt, history, userPrompt, priority, gameState.stage, root)
+                            .start(activeConfig, resolveHedgeConfig(hedging, activeConfig), hedgeDelay(hedging))));
+        }
+        
+        // Async request to the LLM
+        return cacheDecision(gameState, systemPrompt, cacheKey, similar, trackStage(gameState.stage, activeConfig, startTime,
+                attempt(activeConfig, systemPrompt, history, userPrompt, root.child(), priority, gameState.stage)
+                        .exceptionally(e -> {
+                            Throwable cause = unwrap(e);
+                            logger.error("Error requesting action from LLM: " + cause.getMessage(), cause);
+                            return "ERROR: " + cause.getMessage();
+                        })));
+    }
+    
+    /**
+     * Create the handle of a request, with the estimates that price its cancellation
+     * @param promptTokens Estimated prompt tokens of one provider call
+     */
+    private RequestHandle newHandle(GameStageType stage, long promptTokens) {
+        long responses = usageStats.getResponses();
+        long completionTokens = responses > 0 ? usageStats.getCompletionTokens() / responses : DEFAULT_COMPLETION_TOKENS;
+        long expectedLatency = stageStats.percentile(stage, 0.5);
+        if (expectedLatency < 0) {
+            expectedLatency = latencyTracker.size() > 0 ? latencyTracker.percentile(0.5) : 0;
+        }
+        return new RequestHandle(promptTokens, completionTokens, expectedLatency, cancellationStats);
+    }
+    
+    /**
+     * Record the end-to-end latency of an answered request against its stage's SLO
+     */
+    private CompletableFuture<String> trackStage(GameStageType stage, LLMConfig.ApiConfig apiConfig, long startTime,
+                                                 CompletableFuture<String> future) {
+        return future.whenComplete((response, error) -> {
+            if (error != null || response == null || response.isEmpty() || response.startsWith("ERROR:")) {
+                return;
+            }
+            long latency = System.currentTimeMillis() - startTime;
+            long slo = LLMConfig.getInstance().getStageRouting().sloFor(stage);
+            stageStats.recordLatency(stage, apiConfig.getName(), latency, slo);
+            if (slo > 0 && latency > slo) {
+                logger.info(stage + " request to " + apiConfig.getName() + " took " + latency + "ms, over its " + slo + "ms SLO");
+            }
+            if (stageStats.getRequests(stage) % STAGE_LOG_INTERVAL == 0) {
+                logger.info("Stage stats " + stageStats.describe(stage));
+            }
+        });
+    }
+    
+    /**
+     * Store well-formed answers in the decision caches once they arrive
+     * @param shadowMatch The similarity cache's shadow lookup for this state, or null
+     */
+    private CompletableFuture<String> cacheDecision(GameState gameState, String systemPrompt, byte[] cacheKey,
+                                                    SimilarityCache.Match shadowMatch, CompletableFuture<String> future) {
+        if (cacheKey == null && similarityCache == null) {
+            return future;
+        }
+        return future.thenApply(response -> {
+            if (response != null && !response.startsWith("ERROR:") && response.contains("ACTION:")) {
+                if (cacheKey != null) {
+                    decisionCache.put(cacheKey, response);
+                }
+                if (similarityCache != null) {
+                    String action = extractActionFromResponse(response);
+                    similarityCache.store(gameState, systemPrompt, response, action);
+                    if (shadowMatch != null) {
+                        similarityCache.recordShadow(shadowMatch, action);
+                    }
+                }
+            }
+            return response;
+        });
+    }
+    
+    /**
+     * Tell the service whether the action it suggested for a state could be executed.
+     * A failed action is dropped from the decision caches so it is not repeated.
+     */
+    public void reportActionResult(GameState gameState, boolean success) {
+        if (success || (decisionCache == null && similarityCache == null)) {
+            return;
+        }
+        String systemPrompt = buildSystemPrompt(LLMConfig.getInstance().getSystemPrompt());
+        if (decisionCache != null) {
+            decisionCache.remove(StateFingerprint.digest(gameState, systemPrompt));
+        }
+        if (similarityCache != null) {
+            similarityCache.invalidate(gameState, systemPrompt);
+        }
+    }
+    
+    /**
+     * Send one request to the given API: the call queues on the I/O pool,
+     * cleaning the response runs on the CPU pool
+     */
+    private CompletableFuture<String> attempt(LLMConfig.ApiConfig apiConfig, String systemPrompt, List<ChatMessage> history,
+                                              String userPrompt, CancellationToken token, RequestScheduler.Priority priority,
+                                              GameStageType stage) {
+        return scheduler.submit(priority, () -> fetch(apiConfig, systemPrompt, history, userPrompt, token, stage))
+                .thenApplyAsync(this::processResponse, scheduler.cpuExecutor());
+    }
+    
+    /**
+     * Like attempt(), but also returns the logprob of the action and how long the call itself took
+     */
+    private CompletableFuture<ScoredResponse> attemptScored(LLMConfig.ApiConfig apiConfig, String systemPrompt,
+                                                           List<ChatMessage> history, String userPrompt,
+                                                           CancellationToken token, RequestScheduler.Priority priority,
+                                                           GameStageType stage) {
+        return scheduler.submit(priority, () -> {
+            responseLogprob.remove();
+            long callStart = System.currentTimeMillis();
+            try {
+                String raw = fetch(apiConfig, systemPrompt, history, userPrompt, token, stage);
+                return new ScoredResponse(raw, responseLogprob.get(), System.currentTimeMillis() - callStart);
+            } finally {
+                responseLogprob.remove();
+            }
+        }).thenApplyAsync(scored -> new ScoredResponse(processResponse(scored.response), scored.actionLogprob, scored.callMillis),
+                scheduler.cpuExecutor());
+    }
+    
+    /**
+     * Call the given API and record its latency and token usage; returns the raw response text
+     */
+    private String fetch(LLMConfig.ApiConfig apiConfig, String systemPrompt, List<ChatMessage> history, String userPrompt,
+                         CancellationToken token, GameStageType stage) {
+        logger.info("Preparing to send request to " + apiConfig.getApiType() + " API");
+        
+        // Call appropriate API based on config
+        String response = "";
+        long startTime = System.currentTimeMillis();
+        logger.info("Calling " + apiConfig.getApiType() + " API...");
+        try {
+            response = callWithRetry(apiConfig, systemPrompt, history, userPrompt, token);
+            logger.info("Successfully received response from " + apiConfig.getApiType() + " API");
+        } catch (Exception e) {
+            if (token.isCancelled()) {
+                logger.info("Request to " + apiConfig.getName() + " was cancelled");
+                router.recordCancelled(apiConfig);
+            } else {
+                logger.error("API call failed: " + e.getMessage(), e);
+                router.recordFailure(apiConfig);
+            }
+            throw new RuntimeException("Failed to get response from " + apiConfig.getApiType() + ": " + e.getMessage(), e);
+        } finally {
+            stageStats.recordTokens(stage, responseUsage.get());
+            responseUsage.remove();
+        }
+        long latency = System.currentTimeMillis() - startTime;
+        latencyTracker.record(latency);
+        router.recordSuccess(apiConfig, latency);
+        return response;
+    }
+    
+    /**
+     * Clean a raw response and log its action
+     */
+    private String processResponse(String response) {
+        logger.debug("Raw response: " + response);
+        String cleanedResponse = cleanResponse(response);
+        logger.debug("Cleaned response: " + cleanedResponse);
+        String actionOnly = extractActionFromResponse(cleanedResponse);
+        logger.info("Extracted action: " + actionOnly);
+        
+        return cleanedResponse;
+    }
+    
+    /**
+     * Call the provider within its client-side quota, retrying rate limits and
+     * transient errors with exponential backoff
+     */
+    private String callWithRetry(LLMConfig.ApiConfig apiConfig, String systemPrompt, List<ChatMessage> history, String userPrompt,
+                                 CancellationToken token) throws IOException {
+        LLMConfig.RetryConfig retry = LLMConfig.getInstance().getRetry();
+        RateLimiter limiter = rateLimiters.computeIfAbsent(apiConfig.getName(), name -> new RateLimiter());
+        long estimatedTokens = estimateTokens(systemPrompt) + estimateTokens(userPrompt) + apiConfig.getMaxTokens();
+        for (ChatMessage message : history) {
+            estimatedTokens += estimateTokens(message.getContent());
+        }
+        int maxAttempts = Math.max(1, retry.getMaxAttempts());
+        
+        for (int attempt = 1; ; attempt++) {
+            // A request cancelled while it was queued gives its I/O slot back without being sent
+            if (token.isCancelled()) {
+                throw new InterruptedIOException("Request cancelled");
+            }
+            limiter.acquire(apiConfig, estimatedTokens, token);
+            try {
+                return callProvider(apiConfig, systemPrompt, history, userPrompt, token);
+            } catch (IOException e) {
+                if (token.isCancelled() || attempt >= maxAttempts) {
+                    throw e;
+                }
+                long delay = retryDelay(e, attempt, retry, limiter);
+                if (delay < 0) {
+                    throw e;
+                }
+                logger.warn("Attempt " + attempt + "/" + maxAttempts + " to " + apiConfig.getName() + 
+                            " failed (" + e.getMessage() + "), retrying in " + delay + "ms");
+                token.sleep(delay);
+            }
+        }
+    }
+    
+    /**
+     * Delay before the next attempt, or -1 if the error is not worth retrying.
+     * A Retry-After from the provider wins over the backoff and pauses the whole API.
+     */
+    private long retryDelay(IOException error, int attempt, LLMConfig.RetryConfig retry, RateLimiter limiter) {
+        if (error instanceof ProviderHttpException) {
+            ProviderHttpException httpError = (ProviderHttpException) error;
+            if (!httpError.isTransient()) {
+                return -1;
+            }
+            long retryAfter = httpError.getRetryAfterMs();
+            if (retryAfter >= 0) {
+                limiter.pause(retryAfter);
+                return retryAfter <= retry.getMaxRetryAfterMs() ? retryAfter : -1;
+            }
+        } else if (!(error instanceof ConnectException)) {
+            // Timeouts and broken reads may already have cost a full read timeout
+            return -1;
+        }
+        
+        // Exponential backoff with jitter: a random delay in [backoff / 2, backoff]
+        long backoff = Math.min(retry.getMaxDelayMs(), retry.getBaseDelayMs() << Math.min(attempt - 1, 20));
+        backoff = Math.max(1, backoff);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+    
+    /**
+     * Dispatch a request to the caller for the configured API type
+     */
+    private String callProvider(LLMConfig.ApiConfig apiConfig, String systemPrompt, List<ChatMessage> history, String userPrompt,
+                                CancellationToken token) throws IOException {
+        switch (apiConfig.getApiType()) {
+            case OPENAI:
+                return callOpenAI(apiConfig, systemPrompt, history, userPrompt, token);
+            case ANTHROPIC:
+                return callAnthropic(apiConfig, systemPrompt, history, userPrompt, token);
+            case DEEPSEEK:
+                return callDeepSeek(apiConfig, systemPrompt, history, userPrompt, token);
+            default:
+                logger.info("Using default OpenAI API");
+                return callOpenAI(apiConfig, systemPrompt, history, userPrompt, token);
+        }
+    }
+    
+    /**
+     * The cascade's cheap API configuration, or null if the cascade is off or the API cannot be used
+     */
+    private LLMConfig.ApiConfig resolveCheapConfig(LLMConfig.CascadeConfig cascade) {
+        if (!cascade.isEnabled()) {
+            return null;
+        }
+        LLMConfig.ApiConfig cheap = LLMConfig.getInstance().getApiConfigs().get(cascade.getCheapApiName());
+        if (cheap == null || !cheap.isEnabled() || !router.isAvailable(cheap)) {
+            logger.warn("Cascade API '" + cascade.getCheapApiName() + "' is missing, disabled or failing, asking the strong model directly");
+            return null;
+        }
+        return cheap;
+    }
+    
+    /**
+     * The API configuration the cascade escalates to: the configured one, or the stage's normal choice
+     */
+    private LLMConfig.ApiConfig resolveStrongConfig(LLMConfig.CascadeConfig cascade, GameStageType stage) throws IOException {
+        String strongName = cascade.getStrongApiName();
+        if (strongName != null && !strongName.isEmpty()) {
+            LLMConfig.ApiConfig strong = LLMConfig.getInstance().getApiConfigs().get(strongName);
+            if (strong != null && strong.isEnabled() && router.isAvailable(strong)) {
+                return strong;
+            }
+            logger.warn("Cascade API '" + strongName + "' is missing, disabled or failing, escalating to the stage's API");
+        }
+        return router.select(LLMConfig.getInstance(), stage);
+    }
+    
+    /**
+     * What kind of decision a state is, as named in the voting settings: ELITE, BOSS or
+     * MONSTER for combat, the selection type for card selection, otherwise the stage name
+     */
+    private static String decisionKind(GameState gameState) {
+        if (gameState.stageInfo instanceof GameState.BattleStageInfo) {
+            String roomType = ((GameState.BattleStageInfo) gameState.stageInfo).roomType;
+            return roomType != null ? roomType : "MONSTER";
+        }
+        if (gameState.stageInfo instanceof GameState.CardSelectStageInfo) {
+            String selectionType = ((GameState.CardSelectStageInfo) gameState.stageInfo).selectionType;
+            if (selectionType != null) {
+                return selectionType;
+            }
+        }
+        return gameState.stage.name();
+    }
+    
+    /**
+     * Pick the API configuration that receives hedged duplicates
+     */
+    private LLMConfig.ApiConfig resolveHedgeConfig(LLMConfig.HedgingConfig hedging, LLMConfig.ApiConfig primaryConfig) {
+        String alternateName = hedging.getAlternateApiName();
+        if (alternateName != null && !alternateName.isEmpty()) {
+            LLMConfig.ApiConfig alternate = LLMConfig.getInstance().getApiConfigs().get(alternateName);
+            if (alternate != null && alternate.isEnabled() && router.isAvailable(alternate)) {
+                return alternate;
+            }
+            logger.warn("Hedging API '" + alternateName + "' is missing, disabled or failing, hedging to " + primaryConfig.getName());
+        }
+        return primaryConfig;
+    }
+    
+    /**
+     * Delay before a hedge is sent: the configured percentile of recent latency
+     */
+    private long hedgeDelay(LLMConfig.HedgingConfig hedging) {
+        long delay = latencyTracker.size() >= MIN_HEDGE_SAMPLES
+                ? latencyTracker.percentile(hedging.getPercentile())
+                : hedging.getDefaultDelayMs();
+        return Math.max(hedging.getMinDelayMs(), delay);
+    }
+    
+    /**
+     * The response body, gunzipped if the server compressed it
+     */
+    private InputStream responseBody(HttpURLConnection connection) throws IOException {
+        return transferStats.responseStream(connection.getInputStream(), connection.getContentEncoding());
+    }
+    
+    /**
+     * The error body, gunzipped if the server compressed it; null if there is none
+     */
+    private InputStream errorBody(HttpURLConnection connection) throws IOException {
+        return transferStats.responseStream(connection.getErrorStream(), connection.getContentEncoding());
+    }
+    
+    /**
+     * Add a response's reported token usage to the session totals
+     */
+    private void recordUsage(LLMConfig.ApiConfig config, TokenUsage usage) {
+        if (usage == null) {
+            return;
+        }
+        usageStats.record(usage);
+        responseUsage.set(usage);
+        logger.info("Token usage from " + config.getName() + ": " + usage + " (session: " + usageStats + ")");
+    }
+    
+    /**
+     * Strip the CompletionException wrapper added by chained futures
+     */
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+    
+    /**
+     * Rough token estimate, see TokenEstimator
+     */
+    static long estimateTokens(String text) {
+        return TokenEstimator.estimate(text);
+    }
+    
+    /**
+     * Get the provider router, e.g. to inspect per-provider health
+     */
+    public ProviderRouter getRouter() {
+        return router;
+    }
+    
+    /**
+     * Get the hedging counters
+     */
+    public HedgingStats getHedgingStats() {
+        return hedgingStats;
+    }
+    
+    /**
+     * Get the session token usage reported by providers
+     */
+    public UsageStats getUsageStats() {
+        return usageStats;
+    }
+    
+    /**
+     * Get the cascade's escalation and latency counters
+     */
+    public CascadeStats getCascadeStats() {
+        return cascadeStats;
+    }
+    
+    /**
+     * Get the counters of cancelled requests and what cancelling them saved
+     */
+    public CancellationStats getCancellationStats() {
+        return cancellationStats;
+    }
+    
+    /**
+     * Get the self-consistency voting counters
+     */
+    public VoteStats getVoteStats() {
+        return voteStats;
+    }
+    
+    /**
+     * Get the per-stage latency and token histograms
+     */
+    public StageStats getStageStats() {
+        return stageStats;
+    }
+    
+    /**
+     * Get the byte counts of provider traffic, before and after compression
+     */
+    public TransferStats getTransferStats() {
+        return transferStats;
+    }
+    
+    /**
+     * Get the decision cache, or null if it is disabled
+     */
+    public DecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+    
+    /**
+     * Get the similarity cache, or null if it is disabled
+     */
+    public SimilarityCache getSimilarityCache() {
+        return similarityCache;
+    }
+    
+    /**
+     * Get the request scheduler, e.g. to queue background work or read its queue counters
+     */
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+    
+    /**
+     * A request raced against a delayed duplicate; the first valid answer wins.
+     * The hedge is only sent while the original request is still outstanding.
+     */
+    private class HedgedRequest {
+        private final String systemPrompt;
+        private final List<ChatMessage> history;
+        private final String userPrompt;
+        private final RequestScheduler.Priority priority;
+        private final GameStageType stage;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final CancellationToken primaryToken;
+        private final CancellationToken hedgeToken;
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        private volatile boolean hedgeFired = false;
+        private volatile String lastError = "no response";
+        private long primaryStart;
+        // Guarded by this: the hedge timer and whether the original request has completed
+        private ScheduledFuture<?> timer;
+        private boolean primaryDone = false;
+        
+        private HedgedRequest(String systemPrompt, List<ChatMessage> history, String userPrompt, RequestScheduler.Priority priority,
+                              GameStageType stage, CancellationToken root) {
+            this.systemPrompt = systemPrompt;
+            this.history = history;
+            this.userPrompt = userPrompt;
+            this.priority = priority;
+            this.stage = stage;
+            this.primaryToken = root.child();
+            this.hedgeToken = root.child();
+        }
+        
+        private CompletableFuture<String> start(LLMConfig.ApiConfig primaryConfig, LLMConfig.ApiConfig hedgeConfig, long delayMs) {
+            hedgingStats.recordRequest();
+            primaryStart = System.currentTimeMillis();
+            launch(primaryConfig, primaryToken, false);
+            
+            ScheduledFuture<?> scheduled = hedgeTimer.schedule(() -> {
+                // Decided under the lock the original request's completion takes, so a hedge
+                // is never sent after the original has answered
+                synchronized (this) {
+                    if (primaryDone || result.isDone()) {
+                        return;
+                    }
+                    outstanding.incrementAndGet();
+                    hedgeFired = true;
+                }
+                hedgingStats.recordFired();
+                logger.info("No answer after " + delayMs + "ms, sending hedge to " + hedgeConfig.getName());
+                launch(hedgeConfig, hedgeToken, true);
+            }, delayMs, TimeUnit.MILLISECONDS);
+            synchronized (this) {
+                if (primaryDone) {
+                    scheduled.cancel(false);
+                } else {
+                    timer = scheduled;
+                }
+            }
+            result.whenComplete((response, error) -> scheduled.cancel(false));
+            
+            return result;
+        }
+        
+        private synchronized void onPrimaryDone() {
+            primaryDone = true;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+        
+        private synchronized boolean isPrimaryDone() {
+            return primaryDone;
+        }
+        
+        private void launch(LLMConfig.ApiConfig apiConfig, CancellationToken token, boolean isHedge) {
+            attempt(apiConfig, systemPrompt, history, userPrompt, token, priority, stage).whenComplete((response, error) -> {
+                if (!isHedge) {
+                    onPrimaryDone();
+                }
+                if (error != null) {
+                    if (!token.isCancelled()) {
+                        lastError = unwrap(error).getMessage();
+                    }
+                } else if (response.isEmpty()) {
+                    lastError = "empty response from " + apiConfig.getName();
+                } else if (result.complete(response)) {
+                    onWin(isHedge);
+                }
+                if (outstanding.decrementAndGet() == 0) {
+                    result.complete("ERROR: " + lastError);
+                }
+            });
+        }
+        
+        private void onWin(boolean isHedge) {
+            if (!hedgeFired) {
+                return;
+            }
+            
+            // A cancelled original never records its latency, but it took at least this long;
+            // without it the slow tail the hedge cut off would be missing from the percentiles
+            if (isHedge && !isPrimaryDone()) {
+                latencyTracker.record(System.currentTimeMillis() - primaryStart);
+            }
+            
+            // The loser has already been billed for at least its prompt
+            (isHedge ? primaryToken : hedgeToken).cancel();
+            hedgingStats.recordWastedTokens(estimateTokens(systemPrompt) + estimateTokens(userPrompt));
+            if (isHedge) {
+                hedgingStats.recordWon();
+            }
+            logger.info((isHedge ? "Hedge" : "Original request") + " answered first. Hedging stats: " + hedgingStats);
+        }
+    }
     
     /**
-     * Private constructor for singleton
+     * A cleaned response with the logprob of its action, if the provider reported one
      */
-    private LLMService() {
-        // Create a thread pool with daemon threads to avoid blocking game shutdown
-        executor = Executors.newSingleThreadExecutor(r -> {
-            Thread thread = Executors.defaultThreadFactory().newThread(r);
-            thread.setDaemon(true);
-            return thread;
-        });
+    private static class ScoredResponse {
+        private final String response;
+        private final Double actionLogprob;
+        private final long callMillis;
         
-        conversationLogger = new ConversationLogger();
+        private ScoredResponse(String response, Double actionLogprob, long callMillis) {
+            this.response = response;
+            this.actionLogprob = actionLogprob;
+            this.callMillis = callMillis;
+        }
     }
     
     /**
-     * Get the singleton instance
+     * A decision asked of the cheap model first. The cheap samples run concurrently;
+     * the first one's answer is used unless it fails validation, the samples disagree
+     * or its action probability is below the threshold, in which case the strong model
+     * is asked and its answer used instead.
      */
-    public static LLMService getInstance() {
-        if (instance == null) {
-            synchronized (LLMService.class) {
-                if (instance == null) {
-                    instance = new LLMService();
+    private class CascadeRequest {
+        private final GameState gameState;
+        private final String systemPrompt;
+        private final List<ChatMessage> history;
+        private final String userPrompt;
+        private final RequestScheduler.Priority priority;
+        private final LLMConfig.CascadeConfig cascade = LLMConfig.getInstance().getCascade();
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final long startTime = System.currentTimeMillis();
+        private final CancellationToken root;
+        
+        private CascadeRequest(GameState gameState, String systemPrompt, List<ChatMessage> history, String userPrompt,
+                               RequestScheduler.Priority priority, CancellationToken root) {
+            this.gameState = gameState;
+            this.systemPrompt = systemPrompt;
+            this.history = history;
+            this.userPrompt = userPrompt;
+            this.priority = priority;
+            this.root = root;
+        }
+        
+        private CompletableFuture<String> start(LLMConfig.ApiConfig cheapConfig) {
+            int samples = Math.max(1, cascade.getSamples());
+            List<CompletableFuture<ScoredResponse>> futures = new ArrayList<>(samples);
+            for (int i = 0; i < samples; i++) {
+                futures.add(attemptScored(cheapConfig, systemPrompt, history, userPrompt, root.child(), priority, gameState.stage)
+                        .exceptionally(e -> {
+                            logger.warn("Cheap model sample failed: " + unwrap(e).getMessage());
+                            return null;
+                        }));
+            }
+            // Any failure while judging escalates, so the decision is always answered
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .whenComplete((ignored, error) -> {
+                        try {
+                            judge(futures);
+                        } catch (Throwable e) {
+                            logger.error("Could not judge the cheap answers: " + e.getMessage(), e);
+                            if (!result.isDone()) {
+                                escalate(CascadeStats.Escalation.FAILED, null);
+                            }
+                        }
+                    });
+            
+            result.whenComplete((response, error) -> {
+                cascadeStats.recordDecision(System.currentTimeMillis() - startTime);
+                if (cascadeStats.getDecisions() % CASCADE_LOG_INTERVAL == 0) {
+                    logger.info("Cascade stats: " + cascadeStats);
+                }
+            });
+            return result;
+        }
+        
+        /**
+         * Accept the first cheap answer or escalate
+         */
+        private void judge(List<CompletableFuture<ScoredResponse>> futures) {
+            List<ScoredResponse> answers = new ArrayList<>();
+            for (CompletableFuture<ScoredResponse> future : futures) {
+                ScoredResponse answer = future.join();
+                if (answer != null && !answer.response.isEmpty()) {
+                    answers.add(answer);
+                }
+            }
+            if (answers.isEmpty()) {
+                escalate(CascadeStats.Escalation.FAILED, null);
+                return;
+            }
+            
+            ScoredResponse first = answers.get(0);
+            String action = extractActionFromResponse(first.response);
+            String invalid = ActionValidator.validate(gameState, action);
+            if (invalid != null) {
+                logger.info("Cheap action " + action + " failed validation: " + invalid);
+                escalate(CascadeStats.Escalation.INVALID, null);
+                return;
+            }
+            String normalized = CommandParser.parse(action).toString();
+            for (ScoredResponse other : answers.subList(1, answers.size())) {
+                String otherAction = CommandParser.parse(extractActionFromResponse(other.response)).toString();
+                if (!otherAction.equals(normalized)) {
+                    logger.info("Cheap samples disagree: " + normalized + " vs " + otherAction);
+                    escalate(CascadeStats.Escalation.DISAGREEMENT, first.response);
+                    return;
+                }
+            }
+            for (ScoredResponse answer : answers) {
+                if (answer.actionLogprob != null && Math.exp(answer.actionLogprob) < cascade.getMinActionProbability()) {
+                    logger.info(String.format("Cheap action %s has probability %.2f, below %.2f",
+                            normalized, Math.exp(answer.actionLogprob), cascade.getMinActionProbability()));
+                    escalate(CascadeStats.Escalation.LOW_CONFIDENCE, first.response);
+                    return;
                 }
             }
+            
+            logger.info("Cascade accepted the cheap answer " + normalized);
+            result.complete(first.response);
+            if (cascade.getBaselineRate() > 0 && ThreadLocalRandom.current().nextDouble() < cascade.getBaselineRate()) {
+                measureBaseline(normalized);
+            }
+        }
+        
+        /**
+         * Ask the strong model; if it fails, a usable cheap answer is better than none
+         * @param fallback A valid cheap answer, or null
+         */
+        private void escalate(CascadeStats.Escalation reason, String fallback) {
+            cascadeStats.recordEscalation(reason);
+            LLMConfig.ApiConfig strong;
+            try {
+                strong = resolveStrongConfig(cascade, gameState.stage);
+            } catch (IOException e) {
+                result.complete(fallback != null ? fallback : "ERROR: " + e.getMessage());
+                return;
+            }
+            logger.info("Escalating to " + strong.getName() + " (" + reason + ")");
+            try {
+                attemptScored(strong, systemPrompt, history, userPrompt, root.child(), priority, gameState.stage)
+                        .whenComplete((answer, error) -> {
+                            if (error == null && !answer.response.isEmpty()) {
+                                cascadeStats.recordEscalatedCall(answer.callMillis);
+                                result.complete(answer.response);
+                            } else {
+                                String message = error != null ? unwrap(error).getMessage() : "empty response from " + strong.getName();
+                                logger.error("Escalated request failed: " + message);
+                                result.complete(fallback != null ? fallback : "ERROR: " + message);
+                            }
+                        });
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+        
+        /**
+         * Send an accepted decision to the strong model too, in the background, to
+         * measure its latency and how often it agrees with the cheap model
+         */
+        private void measureBaseline(String acceptedAction) {
+            LLMConfig.ApiConfig strong;
+            try {
+                strong = resolveStrongConfig(cascade, gameState.stage);
+            } catch (IOException e) {
+                return;
+            }
+            attemptScored(strong, systemPrompt, history, userPrompt, new CancellationToken(), RequestScheduler.Priority.BACKGROUND, gameState.stage)
+                    .whenComplete((answer, error) -> {
+                        if (error == null && !answer.response.isEmpty()) {
+                            String strongAction = CommandParser.parse(extractActionFromResponse(answer.response)).toString();
+                            cascadeStats.recordBaseline(answer.callMillis, strongAction.equals(acceptedAction));
+                        }
+                    });
         }
-        return instance;
     }
     
     /**
-     * Ask the LLM for the next action given the current game state
-     * @param gameState The current game state
-     * @return A CompletableFuture that will resolve to the action to take
+     * A decision taken by majority vote of concurrent samples. Each answer's action is
+     * normalized through CommandParser and checked against the state; invalid answers
+     * do not vote. The vote ends, and the outstanding samples are cancelled, as soon as
+     * one action has the quorum; otherwise the action with the most votes wins once all
+     * samples are in, the earliest answer breaking ties.
      */
-    public CompletableFuture<String> requestAction(GameState gameState) {
-        LLMConfig config = LLMConfig.getInstance();
-        
-        // 獲取當前活躍的API配置
-        LLMConfig.ApiConfig activeConfig = config.getActiveApiConfig();
+    private class VoteRequest {
+        private final GameState gameState;
+        private final String systemPrompt;
+        private final List<ChatMessage> history;
+        private final String userPrompt;
+        private final RequestScheduler.Priority priority;
+        private final CancellationToken root;
+        private final int samples;
+        private final int quorum;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final List<CancellationToken> tokens = new ArrayList<>();
+        private final Map<String, Integer> votes = new LinkedHashMap<>();
+        private final Map<String, String> responses = new LinkedHashMap<>();
+        private final long startTime = System.currentTimeMillis();
+        private int outstanding;
+        private String lastError = "no response";
         
-        logger.info("LLM request initiated with API type: " + activeConfig.getApiType() + 
-                    ", model: " + activeConfig.getModel() + 
-                    ", name: " + config.getActiveApiName());
-        
-        // Check if LLM is enabled - always true due to the overridden method in LLMConfig
-        if (!config.isEnabled()) {
-            logger.warn("LLM is disabled, no action will be taken");
-            return CompletableFuture.completedFuture("");
+        private VoteRequest(GameState gameState, String systemPrompt, List<ChatMessage> history, String userPrompt,
+                            RequestScheduler.Priority priority, LLMConfig.VotingConfig voting, CancellationToken root) {
+            this.gameState = gameState;
+            this.systemPrompt = systemPrompt;
+            this.history = history;
+            this.userPrompt = userPrompt;
+            this.priority = priority;
+            this.root = root;
+            this.samples = Math.max(1, voting.getSamples());
+            this.quorum = Math.min(samples, voting.getQuorum());
         }
         
-        // Convert game state to JSON
-        String gameStateJson = gameState.toString();
-        
-        // 移除缓存检查，始终发送新请求
-        // 记录请求状态
-        lastGameState = gameStateJson;
-        lastRequestTime = System.currentTimeMillis();
+        private CompletableFuture<String> start(LLMConfig.ApiConfig apiConfig) {
+            synchronized (this) {
+                outstanding = samples;
+                for (int i = 0; i < samples; i++) {
+                    tokens.add(root.child());
+                }
+            }
+            for (CancellationToken token : tokens) {
+                attemptScored(apiConfig, systemPrompt, history, userPrompt, token, priority, gameState.stage)
+                        .whenComplete((answer, error) -> onSample(answer, error, token));
+            }
+            return result;
+        }
         
-        // Async request to the LLM
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                logger.info("Preparing to send request to " + activeConfig.getApiType() + " API");
-                
-                // Build user prompt from game state with formatting instructions
-                String userPrompt = buildPrompt(gameState);
-                
-                logger.debug("User prompt length: " + userPrompt.length() + " characters");
-                
-                // Call appropriate API based on config
-                String response = "";
-                logger.info("Calling " + activeConfig.getApiType() + " API...");
-                try {
-                    switch (activeConfig.getApiType()) {
-                        case OPENAI:
-                            response = callOpenAI(activeConfig, config.getSystemPrompt(), userPrompt);
-                            break;
-                        case ANTHROPIC:
-                            response = callAnthropic(activeConfig, config.getSystemPrompt(), userPrompt);
-                            break;
-                        case DEEPSEEK:
-                            response = callDeepSeek(activeConfig, config.getSystemPrompt(), userPrompt);
-                            break;
-                        default:
-                            logger.info("Using default OpenAI API");
-                            response = callOpenAI(activeConfig, config.getSystemPrompt(), userPrompt);
-                            break;
+        private synchronized void onSample(ScoredResponse answer, Throwable error, CancellationToken token) {
+            outstanding--;
+            if (result.isDone()) {
+                return;
+            }
+            
+            if (error != null || answer.response.isEmpty()) {
+                if (!token.isCancelled()) {
+                    lastError = error != null ? unwrap(error).getMessage() : "empty response";
+                }
+            } else {
+                String action = extractActionFromResponse(answer.response);
+                String invalid = ActionValidator.validate(gameState, action);
+                voteStats.recordSample(answer.callMillis, invalid == null);
+                if (invalid != null) {
+                    logger.info("Vote sample " + action + " failed validation: " + invalid);
+                } else {
+                    String normalized = CommandParser.parse(action).toString();
+                    int count = votes.merge(normalized, 1, Integer::sum);
+                    responses.putIfAbsent(normalized, answer.response);
+                    if (count >= quorum) {
+                        finish(normalized, outstanding > 0);
+                        return;
                     }
-                    logger.info("Successfully received response from " + activeConfig.getApiType() + " API");
-                } catch (Exception e) {
-                    logger.error("API call failed: " + e.getMessage(), e);
-                    throw new RuntimeException("Failed to get response from " + activeConfig.getApiType() + ": " + e.getMessage(), e);
                 }
-                
-                // Clean up response and update cache
-                logger.debug("Raw response: " + response);
-                String cleanedResponse = cleanResponse(response);
-                logger.debug("Cleaned response: " + cleanedResponse);
-                String actionOnly = extractActionFromResponse(cleanedResponse);
-                logger.info("Extracted action: " + actionOnly);
-                lastResponse = actionOnly;
-                
-                return cleanedResponse;
-            } catch (Exception e) {
-                logger.error("Error requesting action from LLM: " + e.getMessage(), e);
-                return "ERROR: " + e.getMessage();
             }
-        }, executor);
+            
+            if (outstanding == 0) {
+                String winner = null;
+                for (Map.Entry<String, Integer> entry : votes.entrySet()) {
+                    if (winner == null || entry.getValue() > votes.get(winner)) {
+                        winner = entry.getKey();
+                    }
+                }
+                if (winner != null) {
+                    finish(winner, false);
+                } else {
+                    voteStats.recordFailed();
+                    logger.error("No vote sample gave a usable action: " + lastError);
+                    result.complete("ERROR: " + lastError);
+                }
+            }
+        }
+        
+        private void finish(String winner, boolean early) {
+            for (CancellationToken token : tokens) {
+                token.cancel();
+            }
+            long latency = System.currentTimeMillis() - startTime;
+            voteStats.recordVote(latency, early, votes.size() == 1, outstanding);
+            logger.info("Vote chose " + winner + " with " + votes.get(winner) + " of " + samples + " samples " + votes +
+                        (early ? ", quorum reached with " + outstanding + " still outstanding" : "") + " after " + latency + "ms");
+            if (voteStats.getVotes() % VOTE_LOG_INTERVAL == 0) {
+                logger.info("Vote stats: " + voteStats);
+            }
+            result.complete(responses.get(winner));
+        }
     }
     
     /**
@@ -210,7 +1208,8 @@ public class LLMService {
     /**
      * Call the OpenAI API
      */
-    private String callOpenAI(LLMConfig.ApiConfig config, String systemPrompt, String userPrompt) throws IOException {
+    private String callOpenAI(LLMConfig.ApiConfig config, String systemPrompt, List<ChatMessage> history, String userPrompt,
+                              CancellationToken token) throws IOException {
         logger.info("Preparing OpenAI API call to endpoint: " + config.getApiEndpoint());
         
         // 检查API密钥是否已设置
@@ -220,183 +1219,143 @@ public class LLMService {
         
         URL url = new URL(config.getApiEndpoint());
         HttpURLConnection connection = null;
+        boolean reusable = false;
         
         try {
-            connection = (HttpURLConnection) url.openConnection();
+            connection = connectionPool.open(config, url);
+            token.attach(connection);
             connection.setRequestMethod("POST");
             connection.setRequestProperty("Content-Type", "application/json");
             connection.setRequestProperty("Authorization", "Bearer " + config.getApiKey());
             connection.setDoOutput(true);
-            connection.setConnectTimeout(30000); // 30秒连接超时
-            connection.setReadTimeout(60000);    // 60秒读取超时
-            
-            // Prepare request body
-            JsonObject requestBody = new JsonObject();
-            requestBody.addProperty("model", config.getModel());
-            requestBody.addProperty("max_tokens", config.getMaxTokens());
-            requestBody.addProperty("temperature", config.getTemperature());
-            
-            JsonArray messages = new JsonArray();
-            
-            // System prompt
-            JsonObject systemMessage = new JsonObject();
-            systemMessage.addProperty("role", "system");
-            systemMessage.addProperty("content", systemPrompt);
-            messages.add(systemMessage);
             
-            // User prompt with game state
-            JsonObject userMessage = new JsonObject();
-            userMessage.addProperty("role", "user");
-            userMessage.addProperty("content", userPrompt);
-            messages.add(userMessage);
-            
-            requestBody.add("messages", messages);
-            
-            String requestBodyString = requestBody.toString();
-            logger.debug("OpenAI request payload: " + requestBodyString);
-            
-            // Send request
-            try (OutputStream os = connection.getOutputStream()) {
-                byte[] input = requestBodyString.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
-            }
+            // Send request, streaming the body into the connection
+            long bodyBytes = requestBodyWriter.write(connection, config, RequestBodyWriter.Format.OPENAI_CHAT, systemPrompt, history, userPrompt);
+            logger.debug("OpenAI request body: " + bodyBytes + " bytes");
             
             // Log the conversation
-            conversationLogger.logRequest("OpenAI", systemPrompt, userPrompt);
+            conversationLogger.logRequest("OpenAI", config.getName(), systemPrompt, userPrompt);
             
             // Process response
             int responseCode = connection.getResponseCode();
             logger.info("OpenAI API response code: " + responseCode);
             
-            if (responseCode == 200) {
-                // 成功响应
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                    StringBuilder response = new StringBuilder();
-                    String responseLine;
-                    while ((responseLine = br.readLine()) != null) {
-                        response.append(responseLine.trim());
-                    }
-                    String responseString = response.toString();
-                    logger.debug("OpenAI raw response: " + responseString);
-                    
-                    // Parse JSON and extract content
-                    JsonObject jsonResponse = new Gson().fromJson(responseString, JsonObject.class);
-                    JsonArray choices = jsonResponse.getAsJsonArray("choices");
-                    if (choices != null && choices.size() > 0) {
-                        JsonObject choice = choices.get(0).getAsJsonObject();
-                        JsonObject message = choice.getAsJsonObject("message");
-                        String content = message.get("content").getAsString();
-                        return content;
-                    } else {
-                        logger.error("OpenAI response did not contain any choices");
-                        throw new IOException("OpenAI response did not contain any choices");
-                    }
+            if (responseCode == 200 && config.isStream()) {
+                // Streaming response, stop reading once the ACTION: line is complete
+                SseResponseReader reader = new SseResponseReader(SseResponseReader.Format.OPENAI);
+                String content = reader.read(responseBody(connection));
+                reusable = reader.isComplete();
+                if (reader.isCutOff()) {
+                    logger.info("OpenAI stream closed early after ACTION line (" + content.length() + " chars)");
                 }
+                recordUsage(config, reader.getUsage());
+                responseLogprob.set(reader.getActionLogprob());
+                return content;
+            } else if (responseCode == 200) {
+                // 成功响应: pull only choices[0].message.content and usage out of the body
+                ResponseDecoder.Result result = ResponseDecoder.decode(responseBody(connection), ResponseDecoder.Format.OPENAI);
+                reusable = true;
+                recordUsage(config, result.getUsage());
+                responseLogprob.set(result.getActionLogprob());
+                return result.getContent();
             } else {
                 // 错误响应，尝试读取错误信息
                 String errorBody = "";
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getErrorStream(), StandardCharsets.UTF_8))) {
+                try (BufferedReader br = new BufferedReader(new InputStreamReader(errorBody(connection), StandardCharsets.UTF_8))) {
                     StringBuilder response = new StringBuilder();
                     String responseLine;
                     while ((responseLine = br.readLine()) != null) {
                         response.append(responseLine.trim());
                     }
                     errorBody = response.toString();
+                    reusable = true;
                 } catch (Exception e) {
                     logger.error("Error reading error stream", e);
                 }
                 
                 logger.error("OpenAI API error (code " + responseCode + "): " + errorBody);
-                throw new IOException("OpenAI API error code: " + responseCode + ", details: " + errorBody);
+                throw ProviderHttpException.from(connection, responseCode, "OpenAI API error code: " + responseCode + ", details: " + errorBody);
             }
         } catch (IOException e) {
             logger.error("OpenAI API call failed: " + e.getMessage(), e);
             throw e;
         } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+            token.detach();
+            connectionPool.release(connection, reusable);
         }
     }
     
     /**
      * Call the Anthropic API
      */
-    private String callAnthropic(LLMConfig.ApiConfig config, String systemPrompt, String userPrompt) throws IOException {
+    private String callAnthropic(LLMConfig.ApiConfig config, String systemPrompt, List<ChatMessage> history, String userPrompt,
+                                 CancellationToken token) throws IOException {
         URL url = new URL(config.getApiEndpoint());
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("x-api-key", config.getApiKey());
-        connection.setRequestProperty("anthropic-version", "2023-06-01");
-        connection.setDoOutput(true);
-        
-        // Prepare request body
-        JsonObject requestBody = new JsonObject();
-        requestBody.addProperty("model", config.getModel());
-        requestBody.addProperty("max_tokens", config.getMaxTokens());
-        requestBody.addProperty("temperature", config.getTemperature());
-        requestBody.addProperty("system", systemPrompt);
-        
-        JsonArray messages = new JsonArray();
-        
-        // User message
-        JsonObject userMessage = new JsonObject();
-        userMessage.addProperty("role", "user");
-        userMessage.addProperty("content", userPrompt);
-        messages.add(userMessage);
-        
-        requestBody.add("messages", messages);
-        
-        // Send request
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = requestBody.toString().getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
-        }
-        
-        // Log the conversation
-        conversationLogger.logRequest("Anthropic", systemPrompt, userPrompt);
-        
-        // Process response
-        int responseCode = connection.getResponseCode();
-        if (responseCode == 200) {
-            try (Scanner scanner = new Scanner(connection.getInputStream(), StandardCharsets.UTF_8.name())) {
-                String responseBody = scanner.useDelimiter("\\A").next();
+        HttpURLConnection connection = connectionPool.open(config, url);
+        boolean reusable = false;
+        
+        try {
+            token.attach(connection);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("x-api-key", config.getApiKey());
+            connection.setRequestProperty("anthropic-version", "2023-06-01");
+            connection.setDoOutput(true);
+            
+            // Send request, streaming the body into the connection
+            long bodyBytes = requestBodyWriter.write(connection, config, RequestBodyWriter.Format.ANTHROPIC_MESSAGES, systemPrompt, history, userPrompt);
+            logger.debug("Anthropic request body: " + bodyBytes + " bytes");
+            
+            // Log the conversation
+            conversationLogger.logRequest("Anthropic", config.getName(), systemPrompt, userPrompt);
+            
+            // Process response
+            int responseCode = connection.getResponseCode();
+            if (responseCode == 200 && config.isStream()) {
+                // Streaming response, stop reading once the ACTION: line is complete
+                SseResponseReader reader = new SseResponseReader(SseResponseReader.Format.ANTHROPIC);
+                String text = reader.read(responseBody(connection));
+                reusable = reader.isComplete();
+                if (reader.isCutOff()) {
+                    logger.info("Anthropic stream closed early after ACTION line (" + text.length() + " chars)");
+                }
+                recordUsage(config, reader.getUsage());
+                conversationLogger.logResponse(text);
+                return text;
+            } else if (responseCode == 200) {
+                // Pull only the text blocks and usage out of the body
+                ResponseDecoder.Result result = ResponseDecoder.decode(responseBody(connection), ResponseDecoder.Format.ANTHROPIC);
+                reusable = true;
+                recordUsage(config, result.getUsage());
                 
-                // Parse JSON response
-                Gson gson = new Gson();
-                JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
-                JsonObject content = jsonResponse.getAsJsonObject("content");
+                // Log the conversation
+                conversationLogger.logResponse(result.getContent());
                 
-                if (content != null) {
-                    String text = content.get("text").getAsString();
-                    
-                    // Log the conversation
-                    conversationLogger.logResponse(text);
-                    
-                    return text;
+                return result.getContent();
+            } else {
+                // Handle error
+                String errorBody = "";
+                try (Scanner scanner = new Scanner(errorBody(connection), StandardCharsets.UTF_8.name())) {
+                    errorBody = scanner.useDelimiter("\\A").next();
+                    reusable = true;
                 }
+                
+                // Log error
+                conversationLogger.logError("Anthropic API Error: " + responseCode + "\n" + errorBody);
+                
+                throw ProviderHttpException.from(connection, responseCode, "Anthropic API error: " + responseCode + " - " + errorBody);
             }
-        } else {
-            // Handle error
-            String errorBody = "";
-            try (Scanner scanner = new Scanner(connection.getErrorStream(), StandardCharsets.UTF_8.name())) {
-                errorBody = scanner.useDelimiter("\\A").next();
-            }
-            
-            // Log error
-            conversationLogger.logError("Anthropic API Error: " + responseCode + "\n" + errorBody);
-            
-            throw new IOException("Anthropic API error: " + responseCode + " - " + errorBody);
+        } finally {
+            token.detach();
+            connectionPool.release(connection, reusable);
         }
-        
-        return "";
     }
     
     /**
      * Call the DeepSeek API
      */
-    private String callDeepSeek(LLMConfig.ApiConfig config, String systemPrompt, String userPrompt) throws IOException {
+    private String callDeepSeek(LLMConfig.ApiConfig config, String systemPrompt, List<ChatMessage> history, String userPrompt,
+                                CancellationToken token) throws IOException {
         logger.info("Preparing DeepSeek API call to endpoint: " + config.getApiEndpoint());
         
         // Check if API key is set
@@ -406,223 +1365,220 @@ public class LLMService {
         
         URL url = new URL(config.getApiEndpoint());
         HttpURLConnection connection = null;
+        boolean reusable = false;
         
         try {
-            connection = (HttpURLConnection) url.openConnection();
+            connection = connectionPool.open(config, url);
+            token.attach(connection);
             connection.setRequestMethod("POST");
             connection.setRequestProperty("Content-Type", "application/json");
             connection.setRequestProperty("Authorization", "Bearer " + config.getApiKey());
             connection.setDoOutput(true);
-            connection.setConnectTimeout(30000); // 30-second connection timeout
-            connection.setReadTimeout(60000);    // 60-second read timeout
-            
-            // Prepare request body (similar to OpenAI format)
-            JsonObject requestBody = new JsonObject();
-            requestBody.addProperty("model", config.getModel());
-            requestBody.addProperty("max_tokens", config.getMaxTokens());
-            requestBody.addProperty("temperature", config.getTemperature());
-            
-            JsonArray messages = new JsonArray();
-            
-            // System prompt
-            JsonObject systemMessage = new JsonObject();
-            systemMessage.addProperty("role", "system");
-            systemMessage.addProperty("content", systemPrompt);
-            messages.add(systemMessage);
-            
-            // User prompt with game state
-            JsonObject userMessage = new JsonObject();
-            userMessage.addProperty("role", "user");
-            userMessage.addProperty("content", userPrompt);
-            messages.add(userMessage);
             
-            requestBody.add("messages", messages);
-            
-            String requestBodyString = requestBody.toString();
-            logger.debug("DeepSeek request payload: " + requestBodyString);
-            
-            // Send request
-            try (OutputStream os = connection.getOutputStream()) {
-                byte[] input = requestBodyString.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
-            }
+            // Send request (OpenAI format), streaming the body into the connection
+            long bodyBytes = requestBodyWriter.write(connection, config, RequestBodyWriter.Format.OPENAI_CHAT, systemPrompt, history, userPrompt);
+            logger.debug("DeepSeek request body: " + bodyBytes + " bytes");
             
             // Log the conversation
-            conversationLogger.logRequest("DeepSeek", systemPrompt, userPrompt);
+            conversationLogger.logRequest("DeepSeek", config.getName(), systemPrompt, userPrompt);
             
             // Process response
             int responseCode = connection.getResponseCode();
             logger.info("DeepSeek API response code: " + responseCode);
             
-            if (responseCode == 200) {
-                // Success response
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                    StringBuilder response = new StringBuilder();
-                    String responseLine;
-                    while ((responseLine = br.readLine()) != null) {
-                        response.append(responseLine.trim());
-                    }
-                    String responseString = response.toString();
-                    logger.debug("DeepSeek raw response: " + responseString);
-                    
-                    // Parse JSON and extract content (same format as OpenAI)
-                    JsonObject jsonResponse = new Gson().fromJson(responseString, JsonObject.class);
-                    JsonArray choices = jsonResponse.getAsJsonArray("choices");
-                    if (choices != null && choices.size() > 0) {
-                        JsonObject choice = choices.get(0).getAsJsonObject();
-                        JsonObject message = choice.getAsJsonObject("message");
-                        String content = message.get("content").getAsString();
-                        
-                        // Log the conversation response
-                        conversationLogger.logResponse(content);
-                        
-                        return content;
-                    } else {
-                        logger.error("DeepSeek response did not contain any choices");
-                        throw new IOException("DeepSeek response did not contain any choices");
-                    }
+            if (responseCode == 200 && config.isStream()) {
+                // Streaming response, stop reading once the ACTION: line is complete
+                SseResponseReader reader = new SseResponseReader(SseResponseReader.Format.OPENAI);
+                String content = reader.read(responseBody(connection));
+                reusable = reader.isComplete();
+                if (reader.isCutOff()) {
+                    logger.info("DeepSeek stream closed early after ACTION line (" + content.length() + " chars)");
                 }
+                recordUsage(config, reader.getUsage());
+                responseLogprob.set(reader.getActionLogprob());
+                conversationLogger.logResponse(content);
+                return content;
+            } else if (responseCode == 200) {
+                // Success response (same format as OpenAI)
+                ResponseDecoder.Result result = ResponseDecoder.decode(responseBody(connection), ResponseDecoder.Format.OPENAI);
+                reusable = true;
+                recordUsage(config, result.getUsage());
+                responseLogprob.set(result.getActionLogprob());
+                
+                // Log the conversation response
+                conversationLogger.logResponse(result.getContent());
+                
+                return result.getContent();
             } else {
                 // Error response
                 String errorBody = "";
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getErrorStream(), StandardCharsets.UTF_8))) {
+                try (BufferedReader br = new BufferedReader(new InputStreamReader(errorBody(connection), StandardCharsets.UTF_8))) {
                     StringBuilder response = new StringBuilder();
                     String responseLine;
                     while ((responseLine = br.readLine()) != null) {
                         response.append(responseLine.trim());
                     }
                     errorBody = response.toString();
+                    reusable = true;
                 } catch (Exception e) {
                     logger.error("Error reading error stream", e);
                 }
                 
                 logger.error("DeepSeek API error (code " + responseCode + "): " + errorBody);
-                throw new IOException("DeepSeek API error code: " + responseCode + ", details: " + errorBody);
+                throw ProviderHttpException.from(connection, responseCode, "DeepSeek API error code: " + responseCode + ", details: " + errorBody);
             }
         } catch (IOException e) {
             logger.error("DeepSeek API call failed: " + e.getMessage(), e);
             throw e;
         } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+            token.detach();
+            connectionPool.release(connection, reusable);
         }
     }
     
     /**
      * Call the Google API
      */
-    private String callGoogle(LLMConfig.ApiConfig config, String systemPrompt, String userPrompt) throws IOException {
+    private String callGoogle(LLMConfig.ApiConfig config, String systemPrompt, String userPrompt, CancellationToken token) throws IOException {
         URL url = new URL(config.getApiEndpoint() + "/" + config.getModel() + ":generateContent?key=" + config.getApiKey());
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setDoOutput(true);
-        
-        // Prepare request body
-        JsonObject requestBody = new JsonObject();
-        
-        JsonArray contents = new JsonArray();
-        
-        // Add system prompt as a part
-        JsonObject systemPart = new JsonObject();
-        systemPart.addProperty("role", "system");
-        systemPart.addProperty("parts", systemPrompt);
-        contents.add(systemPart);
-        
-        // Add user prompt
-        JsonObject userPart = new JsonObject();
-        userPart.addProperty("role", "user");
-        userPart.addProperty("parts", userPrompt);
-        contents.add(userPart);
-        
-        requestBody.add("contents", contents);
-        
-        // Add generation config
-        JsonObject generationConfig = new JsonObject();
-        generationConfig.addProperty("temperature", config.getTemperature());
-        generationConfig.addProperty("maxOutputTokens", config.getMaxTokens());
-        requestBody.add("generationConfig", generationConfig);
-        
-        // Send request
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = requestBody.toString().getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
-        }
-        
-        // Log the conversation
-        conversationLogger.logRequest("Google", systemPrompt, userPrompt);
-        
-        // Process response
-        int responseCode = connection.getResponseCode();
-        if (responseCode == 200) {
-            try (Scanner scanner = new Scanner(connection.getInputStream(), StandardCharsets.UTF_8.name())) {
-                String responseBody = scanner.useDelimiter("\\A").next();
-                
-                // Parse JSON response (format depends on the Google API)
-                Gson gson = new Gson();
-                JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
-                
-                // Extract the text from the response (adjust this based on the actual response format)
-                JsonArray candidates = jsonResponse.getAsJsonArray("candidates");
-                if (candidates != null && candidates.size() > 0) {
-                    JsonObject candidate = candidates.get(0).getAsJsonObject();
-                    JsonObject content = candidate.getAsJsonObject("content");
-                    JsonArray parts = content.getAsJsonArray("parts");
-                    
-                    if (parts != null && parts.size() > 0) {
-                        String text = parts.get(0).getAsJsonObject().get("text").getAsString();
-                        
-                        // Log the conversation
-                        conversationLogger.logResponse(text);
-                        
-                        return text;
+        HttpURLConnection connection = connectionPool.open(config, url);
+        boolean reusable = false;
+        
+        try {
+            token.attach(connection);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setDoOutput(true);
+            
+            // Prepare request body
+            JsonObject requestBody = new JsonObject();
+            
+            JsonArray contents = new JsonArray();
+            
+            // Add system prompt as a part
+            JsonObject systemPart = new JsonObject();
+            systemPart.addProperty("role", "system");
+            systemPart.addProperty("parts", systemPrompt);
+            contents.add(systemPart);
+            
+            // Add user prompt
+            JsonObject userPart = new JsonObject();
+            userPart.addProperty("role", "user");
+            userPart.addProperty("parts", userPrompt);
+            contents.add(userPart);
+            
+            requestBody.add("contents", contents);
+            
+            // Add generation config
+            JsonObject generationConfig = new JsonObject();
+            generationConfig.addProperty("temperature", config.getTemperature());
+            generationConfig.addProperty("maxOutputTokens", config.getMaxTokens());
+            requestBody.add("generationConfig", generationConfig);
+            
+            // Send request
+            try (OutputStream os = connection.getOutputStream()) {
+                byte[] input = requestBody.toString().getBytes(StandardCharsets.UTF_8);
+                os.write(input, 0, input.length);
+            }
+            
+            // Log the conversation
+            conversationLogger.logRequest("Google", config.getName(), systemPrompt, userPrompt);
+            
+            // Process response
+            int responseCode = connection.getResponseCode();
+            if (responseCode == 200) {
+                try (Scanner scanner = new Scanner(responseBody(connection), StandardCharsets.UTF_8.name())) {
+                    String responseBody = scanner.useDelimiter("\\A").next();
+            
+                    // Parse JSON response (format depends on the Google API)
+                    Gson gson = new Gson();
+                    JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
+            
+                    // Extract the text from the response (adjust this based on the actual response format)
+                    JsonArray candidates = jsonResponse.getAsJsonArray("candidates");
+                    if (candidates != null && candidates.size() > 0) {
+                        JsonObject candidate = candidates.get(0).getAsJsonObject();
+                        JsonObject content = candidate.getAsJsonObject("content");
+                        JsonArray parts = content.getAsJsonArray("parts");
+            
+                        if (parts != null && parts.size() > 0) {
+                            String text = parts.get(0).getAsJsonObject().get("text").getAsString();
+            
+                            // Log the conversation
+                            conversationLogger.logResponse(text);
+            
+                            return text;
+                        }
                     }
                 }
-            }
-        } else {
-            // Handle error
-            String errorBody = "";
-            try (Scanner scanner = new Scanner(connection.getErrorStream(), StandardCharsets.UTF_8.name())) {
-                errorBody = scanner.useDelimiter("\\A").next();
-            }
+            } else {
+                // Handle error
+                String errorBody = "";
+                try (Scanner scanner = new Scanner(errorBody(connection), StandardCharsets.UTF_8.name())) {
+                    errorBody = scanner.useDelimiter("\\A").next();
+                    reusable = true;
+                }
             
-            // Log error
-            conversationLogger.logError("Google API Error: " + responseCode + "\n" + errorBody);
+                // Log error
+                conversationLogger.logError("Google API Error: " + responseCode + "\n" + errorBody);
+            
+                throw ProviderHttpException.from(connection, responseCode, "Google API error: " + responseCode + " - " + errorBody);
+            }
             
-            throw new IOException("Google API error: " + responseCode + " - " + errorBody);
+            return "";
+        } finally {
+            token.detach();
+            connectionPool.release(connection, reusable);
         }
-        
-        return "";
     }
     
     /**
      * Call a custom API (using OpenAI-compatible format)
      */
-    private String callCustomAPI(LLMConfig.ApiConfig config, String systemPrompt, String userPrompt) throws IOException {
+    private String callCustomAPI(LLMConfig.ApiConfig config, String systemPrompt, List<ChatMessage> history, String userPrompt,
+                                 CancellationToken token) throws IOException {
         // Fall back to OpenAI format for custom endpoints
-        return callOpenAI(config, systemPrompt, userPrompt);
+        return callOpenAI(config, systemPrompt, history, userPrompt, token);
+    }
+    
+    /**
+     * @return The executor for CPU-bound work that must stay off the game thread
+     */
+    public Executor cpuExecutor() {
+        return scheduler.cpuExecutor();
     }
     
     /**
-     * Shut down the executor service
+     * Shut down the scheduler
      */
     public void shutdown() {
-        if (executor != null && !executor.isShutdown()) {
-            try {
-                executor.shutdown();
-                if (!executor.awaitTermination(2, TimeUnit.SECONDS)) {
-                    executor.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
+        hedgeTimer.shutdownNow();
+        conversationLogger.flush();
+        scheduler.shutdown();
+        if (decisionCache != null) {
+            logger.info("Decision cache: " + decisionCache);
+            decisionCache.close();
+        }
+        if (similarityCache != null) {
+            logger.info("Similarity cache: " + similarityCache);
+        }
+        logger.info("Stage stats:\n" + stageStats.describe());
+        if (cascadeStats.getDecisions() > 0) {
+            logger.info("Cascade stats: " + cascadeStats);
+        }
+        if (voteStats.getVotes() > 0) {
+            logger.info("Vote stats: " + voteStats);
+        }
+        conversation.end();
+        if (cancellationStats.getCancelled() > 0) {
+            logger.info("Cancellation stats: " + cancellationStats);
         }
     }
     
     /**
-     * Class to handle logging conversations to file
+     * Class to handle logging conversations to file.
+     * Entries are formatted immediately and written by BACKGROUND work on the
+     * scheduler, so file I/O never delays a provider call.
      */
     private class ConversationLogger {
         private final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
@@ -630,6 +1586,8 @@ public class LLMService {
         
         private String sessionLogFile;
         private LLMConfig config;
+        private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
         
         private ConversationLogger() {
             config = LLMConfig.getInstance();
@@ -671,22 +1629,24 @@ public class LLMService {
             }
         }
         
-        public void logRequest(String apiType, String systemPrompt, String userPrompt) {
+        public void logRequest(String apiType, String apiName, String systemPrompt, String userPrompt) {
             if (!config.isSaveConversations() || sessionLogFile == null) {
                 return;
             }
             
-            try (PrintWriter writer = new PrintWriter(new FileWriter(sessionLogFile, true))) {
+            StringWriter entry = new StringWriter();
+            PrintWriter writer = new PrintWriter(entry);
+            synchronized (TIMESTAMP_FORMAT) {
                 writer.println("--- Request: " + TIMESTAMP_FORMAT.format(new Date()) + " ---");
-                writer.println("[API: " + apiType + " / " + config.getActiveApiName() + "]");
-                writer.println("\n[SYSTEM PROMPT]");
-                writer.println(systemPrompt);
-                writer.println("\n[USER PROMPT]");
-                writer.println(userPrompt);
-                writer.println();
-            } catch (IOException e) {
-                logger.error("Failed to log conversation request: " + e.getMessage(), e);
             }
+            writer.println("[API: " + apiType + " / " + apiName + "]");
+            writer.println("\n[SYSTEM PROMPT]");
+            writer.println(systemPrompt);
+            writer.println("\n[USER PROMPT]");
+            writer.println(userPrompt);
+            writer.println();
+            writer.flush();
+            append(entry.toString());
         }
         
         public void logResponse(String response) {
@@ -694,13 +1654,8 @@ public class LLMService {
                 return;
             }
             
-            try (PrintWriter writer = new PrintWriter(new FileWriter(sessionLogFile, true))) {
-                writer.println("[RESPONSE]");
-                writer.println(response);
-                writer.println("\n----------------------------\n");
-            } catch (IOException e) {
-                logger.error("Failed to log conversation response: " + e.getMessage(), e);
-            }
+            append("[RESPONSE]" + System.lineSeparator() + response + System.lineSeparator()
+                    + "\n----------------------------\n" + System.lineSeparator());
         }
         
         public void logError(String error) {
@@ -708,93 +1663,127 @@ public class LLMService {
                 return;
             }
             
-            try (PrintWriter writer = new PrintWriter(new FileWriter(sessionLogFile, true))) {
-                writer.println("[ERROR]");
-                writer.println(error);
-                writer.println("\n----------------------------\n");
-            } catch (IOException e) {
-                logger.error("Failed to log conversation error: " + e.getMessage(), e);
-            }
+            append("[ERROR]" + System.lineSeparator() + error + System.lineSeparator()
+                    + "\n----------------------------\n" + System.lineSeparator());
         }
-    }
-    
-    private String buildPrompt(GameState gameState) {
-        StringBuilder prompt = new StringBuilder();
         
-        // 添加系统提示
-        prompt.append("You are an AI playing Slay the Spire. Your goal is to make optimal decisions.\n\n");
-        prompt.append("IMPORTANT: You MUST format your response in exactly this way:\n");
-        prompt.append("REASON: [Your reasoning for the action]\n");
-        prompt.append("ACTION: [The exact one action to take from the available actions]\n\n");
-        
-        prompt.append("Valid action formats:\n");
-        prompt.append("- PLAY_CARD [index] [target_index] or PLAY_CARD index target_index (for cards requiring targets)\n");
-        prompt.append("- PLAY_CARD [index] or PLAY_CARD index (for cards not requiring targets)\n");
-        prompt.append("- USE_POTION [index] [target_index] or USE_POTION index target_index (for targeted potions)\n");
-        prompt.append("- END_TURN\n");
-        prompt.append("- CHOOSE_OPTION [index] or CHOOSE_OPTION index (for event options)\n");
-        prompt.append("And other actions as shown in 'Available Actions' below.\n\n");
-        
-        prompt.append("Do not include any other text in your response. Only return one action at a time.\n\n");
-        
-        // 添加游戏状态信息
-        prompt.append("Current Game State:\n");
-        prompt.append("Stage: ").append(gameState.stage.getDisplayName()).append("\n");
-        
-        // 添加玩家信息
-        AbstractPlayer player = AbstractDungeon.player;
-        if (player != null) {
-            prompt.append("\nPlayer Info:\n");
-            prompt.append("HP: ").append(player.currentHealth).append("/").append(player.maxHealth).append("\n");
-            prompt.append("Energy: ").append(EnergyPanel.totalCount).append("\n");
-            prompt.append("Hand Size: ").append(player.hand.size()).append("\n");
-            
-            // 添加手牌信息
-            if (!player.hand.isEmpty()) {
-                prompt.append("\nHand:\n");
-                for (int i = 0; i < player.hand.size(); i++) {
-                    AbstractCard card = player.hand.group.get(i);
-                    prompt.append(i).append(": ").append(card.name)
-                          .append(" (Cost: ").append(card.costForTurn).append(", Type: ").append(card.type);
-                    
-                    // 添加卡牌需要目标的信息
-                    if (card.target == AbstractCard.CardTarget.ENEMY || card.target == AbstractCard.CardTarget.SELF_AND_ENEMY) {
-                        prompt.append(", Requires Target");
+        /**
+         * Queue an entry and make sure a background flush is pending
+         */
+        private void append(String entry) {
+            pending.add(entry);
+            if (flushScheduled.compareAndSet(false, true)) {
+                scheduler.submit(RequestScheduler.Priority.BACKGROUND, () -> {
+                    flush();
+                    return null;
+                }).whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        // Shed or rejected: leave the entries for the next flush
+                        flushScheduled.set(false);
                     }
-                    
-                    prompt.append(")\n");
-                }
+                });
             }
         }
         
-        // 添加怪物信息
-        if (AbstractDungeon.getMonsters() != null && !AbstractDungeon.getMonsters().monsters.isEmpty()) {
-            prompt.append("\nMonsters:\n");
-            for (int i = 0; i < AbstractDungeon.getMonsters().monsters.size(); i++) {
-                AbstractMonster monster = AbstractDungeon.getMonsters().monsters.get(i);
-                prompt.append(i).append(": ").append(monster.name)
-                      .append(" (HP: ").append(monster.currentHealth).append("/").append(monster.maxHealth)
-                      .append(", Intent: ").append(monster.intent.name()).append(")\n");
+        /**
+         * Write all queued entries in order
+         */
+        private synchronized void flush() {
+            flushScheduled.set(false);
+            if (pending.isEmpty() || sessionLogFile == null) {
+                return;
+            }
+            
+            try (PrintWriter writer = new PrintWriter(new FileWriter(sessionLogFile, true))) {
+                String entry;
+                while ((entry = pending.poll()) != null) {
+                    writer.print(entry);
+                }
+            } catch (IOException e) {
+                logger.error("Failed to write conversation log: " + e.getMessage(), e);
             }
         }
-        
-        // 添加可用动作
-        prompt.append("\nAvailable Actions:\n");
-        for (String action : gameState.availableActions) {
-            prompt.append("- ").append(action).append("\n");
+    }
+    
+    /**
+     * Instructions that never change between requests. They are part of the system
+     * prompt, ahead of anything volatile, so the provider's prompt cache can reuse them.
+     */
+    private static final String PROMPT_INSTRUCTIONS =
+            "You are an AI playing Slay the Spire. Your goal is to make optimal decisions.\n\n" +
+            "IMPORTANT: You MUST format your response in exactly this way:\n" +
+            "REASON: [Your reasoning for the action]\n" +
+            "ACTION: [The exact one action to take from the available actions]\n\n" +
+            "Valid action formats:\n" +
+            "- PLAY_CARD [index] [target_index] or PLAY_CARD index target_index (for cards requiring targets)\n" +
+            "- PLAY_CARD [index] or PLAY_CARD index (for cards not requiring targets)\n" +
+            "- USE_POTION [index] [target_index] or USE_POTION index target_index (for targeted potions)\n" +
+            "- END_TURN\n" +
+            "- CHOOSE_OPTION [index] or CHOOSE_OPTION index (for event options)\n" +
+            "And other actions as shown in 'Available Actions' in the game state.\n\n" +
+            "Do not include any other text in your response. Only return one action at a time.\n\n" +
+            "Important Notes:\n" +
+            "1. For cards that require a target (marked with 'Requires Target'), you MUST specify the target index in the format: PLAY_CARD [card_index] [target_index]\n" +
+            "2. Target index should be the index of the monster from the Monsters list (0-based)\n" +
+            "3. For cards that don't require a target, you can use: PLAY_CARD [card_index]\n" +
+            "4. Always check if a card requires a target before playing it\n" +
+            "5. Remember to format your response with REASON: and ACTION: lines\n\n" +
+            "The user message holds the current game state. Based on it, decide what action should be taken.";
+    
+    private static final String PLAN_INSTRUCTIONS =
+            "Planning mode: in combat, plan your whole turn at once. Add a line\n" +
+            "PLAN: [every action for this turn, in order, separated by ';', ending with END_TURN]\n" +
+            "before the ACTION: line. The ACTION: line must be the first step of the plan.\n" +
+            "Use the card, potion and monster indices exactly as shown in the game state, before anything is played; " +
+            "do not shift them for cards that have left the hand. Example:\n" +
+            "REASON: Bash the Jaw Worm to apply Vulnerable, then Strike it.\n" +
+            "PLAN: PLAY_CARD 2 0; PLAY_CARD 0 0; PLAY_CARD 1; END_TURN\n" +
+            "ACTION: PLAY_CARD 2 0\n" +
+            "Outside of combat, answer with REASON: and ACTION: only.";
+    
+    private static final String CONVERSATION_INSTRUCTIONS =
+            "Conversation mode: in combat, the first message holds the full game state and each later message only " +
+            "lists what changed since the previous one. Everything not mentioned is unchanged. 'Hand now', " +
+            "'Monsters now' and 'Available Actions now' replace the earlier lists, and their indices are the ones to use.";
+    
+    /**
+     * The configured system prompt followed by the static instructions, and the
+     * planning and conversation instructions when those modes are on.
+     * The same String instance is returned while the configuration is unchanged.
+     */
+    private String buildSystemPrompt(String basePrompt) {
+        boolean planning = LLMConfig.getInstance().getPlanning().isEnabled();
+        boolean conversation = LLMConfig.getInstance().getConversation().isEnabled();
+        String cached = cachedSystemPrompt;
+        if (cached != null && basePrompt == cachedBasePrompt && planning == cachedPlanning && conversation == cachedConversation) {
+            return cached;
         }
-        
-        // 添加重要说明
-        prompt.append("\nImportant Notes:\n");
-        prompt.append("1. For cards that require a target (marked with 'Requires Target'), you MUST specify the target index in the format: PLAY_CARD [card_index] [target_index]\n");
-        prompt.append("2. Target index should be the index of the monster from the Monsters list (0-based)\n");
-        prompt.append("3. For cards that don't require a target, you can use: PLAY_CARD [card_index]\n");
-        prompt.append("4. Always check if a card requires a target before playing it\n");
-        prompt.append("5. Remember to format your response with REASON: and ACTION: lines\n");
-        
-        // 添加决策请求
-        prompt.append("\nBased on the current game state, what action should be taken?");
-        
-        return prompt.toString();
+        String instructions = planning ? PROMPT_INSTRUCTIONS + "\n\n" + PLAN_INSTRUCTIONS : PROMPT_INSTRUCTIONS;
+        if (conversation) {
+            instructions = instructions + "\n\n" + CONVERSATION_INSTRUCTIONS;
+        }
+        String systemPrompt = basePrompt == null || basePrompt.isEmpty()
+                ? instructions
+                : basePrompt + "\n\n" + instructions;
+        cachedSystemPrompt = systemPrompt;
+        cachedBasePrompt = basePrompt;
+        cachedPlanning = planning;
+        cachedConversation = conversation;
+        return systemPrompt;
+    }
+    
+    /**
+     * Build the volatile part of the request: the current game state only.
+     * Reads nothing but the captured state, so it also works for predicted states.
+     * Cards are written as dictionary codes. With the collection enabled, relics,
+     * potions and piles follow as codes with counts, and a reference at the end
+     * describes each code once. With a prompt budget, potions, relics and piles that
+     * do not fit are summarized, see PromptBudget.
+     * @param codes Collects the dictionary codes the prompt uses
+     */
+    private String buildPrompt(GameState gameState, Set<String> codes) {
+        LLMConfig.PromptBudgetConfig budgetConfig = LLMConfig.getInstance().getPromptBudget();
+        return statePrompt.render(gameState, budgetConfig.isEnabled() ? budgetConfig.budgetFor(gameState.stage) : 0,
+                                  budgetConfig.isCollection(), codes);
     }
 } 
\ No newline at end of file
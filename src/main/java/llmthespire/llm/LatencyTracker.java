@@ -0,0 +1,47 @@
+package llmthespire.llm;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of recent request latencies
+ */
+public class LatencyTracker {
+    private final long[] samples;
+    private int count = 0;
+    private int next = 0;
+
+    public LatencyTracker(int windowSize) {
+        this.samples = new long[windowSize];
+    }
+
+    /**
+     * Record the latency of a completed request
+     */
+    public synchronized void record(long latencyMs) {
+        samples[next] = latencyMs;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * @return Number of samples currently in the window
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Get a percentile of the recorded latencies
+     * @param percentile A value between 0 and 1, e.g. 0.9 for p90
+     * @return The latency in milliseconds, or -1 if nothing has been recorded
+     */
+    public synchronized long percentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(Math.max(0.0, Math.min(1.0, percentile)) * count) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
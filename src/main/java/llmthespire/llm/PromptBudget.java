@@ -0,0 +1,247 @@
+package llmthespire.llm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fits the sections of a state prompt into a token budget.
+ *
+ * Required sections are always sent in full. The others are filled in by
+ * priority while they fit: a section's cost is its text plus the reference lines
+ * of the dictionary codes it adds. From the first one that does not fit on, the
+ * sections are sent as their summaries, so lower priorities never crowd out
+ * higher ones and nothing is dropped entirely. Sections keep the order they were
+ * added in, and the reference of the codes of the full sections comes last.
+ *
+ * Each thread reuses one instance: sections are written into a shared buffer and
+ * kept as ranges of it, so a prompt allocates little beyond the String it returns.
+ */
+class PromptBudget {
+    private static final Logger logger = LogManager.getLogger(PromptBudget.class.getName());
+
+    // Priorities, most important first
+    static final int ACTIONS = 0;
+    static final int HAND = 1;
+    static final int MONSTERS = 2;
+    static final int PLAYER = 3;
+    static final int POTIONS = 4;
+    static final int RELICS = 5;
+    static final int DRAW_PILE = 6;
+    static final int DISCARD_PILE = 7;
+    static final int EXHAUST_PILE = 8;
+
+    private static final String REFERENCE_HEADER = "\nReference:\n";
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    // Buffers that grew past this for an unusual prompt are not kept
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<PromptBudget> POOL = new ThreadLocal<PromptBudget>() {
+        @Override
+        protected PromptBudget initialValue() {
+            return new PromptBudget();
+        }
+    };
+
+    private CardDictionary dictionary;
+    private long maxTokens;
+
+    private StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+    private StringBuilder output = new StringBuilder(INITIAL_CAPACITY);
+    private final List<String> codes = new ArrayList<>();
+    private final List<Section> sections = new ArrayList<>();
+    private final List<Section> byPriority = new ArrayList<>();
+    private final Set<String> described = new HashSet<>();
+    private final List<String> pending = new ArrayList<>();
+    private final Set<String> known = new HashSet<>();
+    private int count;
+    private Section current;
+
+    /**
+     * A section as ranges of the buffer and of the code list
+     */
+    private static class Section {
+        private int priority;
+        private int fullStart;
+        private int fullEnd;
+        private int summaryStart;
+        private int summaryEnd;
+        private int codesStart;
+        private int codesEnd;
+        private boolean full;
+    }
+
+    private PromptBudget() {
+    }
+
+    /**
+     * The calling thread's budget, emptied
+     * @param maxTokens Estimated tokens the sections may take, 0 for no limit
+     */
+    static PromptBudget forThread(CardDictionary dictionary, long maxTokens) {
+        PromptBudget budget = POOL.get();
+        budget.dictionary = dictionary;
+        budget.maxTokens = maxTokens;
+        budget.buffer.setLength(0);
+        budget.codes.clear();
+        budget.count = 0;
+        budget.current = null;
+        return budget;
+    }
+
+    /**
+     * Start a section; its text is appended to the returned buffer
+     */
+    StringBuilder begin(int priority) {
+        if (count == sections.size()) {
+            sections.add(new Section());
+        }
+        current = sections.get(count++);
+        current.priority = priority;
+        current.fullStart = buffer.length();
+        current.summaryStart = -1;
+        current.codesStart = codes.size();
+        return buffer;
+    }
+
+    /**
+     * Collects the dictionary codes the current section's full text uses
+     */
+    Collection<String> codes() {
+        return codes;
+    }
+
+    /**
+     * End the full text of the current section; what is appended next is its summary
+     */
+    void summary() {
+        current.fullEnd = buffer.length();
+        current.summaryStart = current.fullEnd;
+    }
+
+    /**
+     * End a section that is always sent in full
+     */
+    void end() {
+        current.fullEnd = buffer.length();
+        current.codesEnd = codes.size();
+        current.full = true;
+    }
+
+    /**
+     * End a section that collapses into its summary when it does not fit. Without
+     * a summary(), the summary is the same text without the reference of its codes.
+     */
+    void endOptional() {
+        if (current.summaryStart < 0) {
+            current.fullEnd = buffer.length();
+            current.summaryStart = current.fullStart;
+        }
+        current.summaryEnd = buffer.length();
+        current.codesEnd = codes.size();
+        current.full = false;
+    }
+
+    /**
+     * @param promptCodes Collects the dictionary codes the prompt uses
+     * @return The sections and the reference of their codes
+     */
+    String render(Set<String> promptCodes) {
+        fit();
+
+        output.setLength(0);
+        for (int i = 0; i < count; i++) {
+            Section section = sections.get(i);
+            if (section.full) {
+                output.append(buffer, section.fullStart, section.fullEnd);
+                promptCodes.addAll(codes.subList(section.codesStart, section.codesEnd));
+            } else {
+                output.append(buffer, section.summaryStart, section.summaryEnd);
+            }
+        }
+        known.clear();
+        dictionary.appendReference(promptCodes, known, output);
+        String prompt = output.toString();
+
+        if (buffer.capacity() > MAX_POOLED_CAPACITY) {
+            buffer = new StringBuilder(INITIAL_CAPACITY);
+        }
+        if (output.capacity() > MAX_POOLED_CAPACITY) {
+            output = new StringBuilder(INITIAL_CAPACITY);
+        }
+        return prompt;
+    }
+
+    private void fit() {
+        // Insertion sort keeps the order of equal priorities
+        byPriority.clear();
+        for (int i = 0; i < count; i++) {
+            Section section = sections.get(i);
+            int at = byPriority.size();
+            while (at > 0 && byPriority.get(at - 1).priority > section.priority) {
+                at--;
+            }
+            byPriority.add(at, section);
+        }
+
+        described.clear();
+        long used = TokenEstimator.estimate(REFERENCE_HEADER);
+        for (Section section : byPriority) {
+            if (section.full) {
+                pending.clear();
+                used += TokenEstimator.estimate(buffer, section.fullStart, section.fullEnd) + referenceTokens(section);
+                described.addAll(pending);
+            } else {
+                used += TokenEstimator.estimate(buffer, section.summaryStart, section.summaryEnd);
+            }
+        }
+
+        boolean filling = true;
+        int summarized = 0;
+        for (Section section : byPriority) {
+            if (section.full) {
+                continue;
+            }
+            if (filling) {
+                pending.clear();
+                long extra = TokenEstimator.estimate(buffer, section.fullStart, section.fullEnd)
+                        - TokenEstimator.estimate(buffer, section.summaryStart, section.summaryEnd)
+                        + referenceTokens(section);
+                if (maxTokens <= 0 || used + extra <= maxTokens) {
+                    section.full = true;
+                    described.addAll(pending);
+                    used += extra;
+                    continue;
+                }
+                filling = false;
+            }
+            summarized++;
+        }
+        if (summarized > 0) {
+            logger.debug("Prompt budget of " + maxTokens + " tokens: " + summarized + " sections summarized, " +
+                         used + " tokens estimated");
+        }
+    }
+
+    /**
+     * Tokens of the reference lines of the section's codes not described yet;
+     * those codes are collected in pending
+     */
+    private long referenceTokens(Section section) {
+        long tokens = 0;
+        for (int i = section.codesStart; i < section.codesEnd; i++) {
+            String code = codes.get(i);
+            String description = dictionary.describe(code);
+            if (description != null && !described.contains(code) && !pending.contains(code)) {
+                pending.add(code);
+                tokens += TokenEstimator.estimate(code) + TokenEstimator.estimate(description) + 2;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,203 @@
+package llmthespire.llm;
+
+import llmthespire.game.GameState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Describes what changed between two combat states, in the terms of the full
+ * state prompt: HP, energy, the hand, the monsters, the available actions and,
+ * when the prompt lists them, the potions and the card piles.
+ *
+ * The hand and, when a monster died or appeared, the monsters are listed again
+ * with their new indices, because indices shift as cards are played and monsters
+ * die. A card the previous hand did not hold is described in full; one it did is
+ * named only.
+ */
+class PromptDiff {
+    private PromptDiff() {
+    }
+
+    /**
+     * @param before The state the model last saw
+     * @param after The current state
+     * @param dictionary Codes the cards and potions
+     * @param collection Whether to describe changes to the potions and piles
+     * @return The changes, one per line
+     */
+    static String describe(GameState before, GameState after, CardDictionary dictionary, boolean collection) {
+        StringBuilder diff = new StringBuilder("Changes since the last state:\n");
+        int length = diff.length();
+
+        if (before.currentHp != after.currentHp || before.maxHp != after.maxHp) {
+            diff.append("HP: ").append(before.currentHp).append(" -> ").append(after.currentHp)
+                .append("/").append(after.maxHp).append("\n");
+        }
+        GameState.BattleStageInfo oldBattle = battle(before);
+        GameState.BattleStageInfo newBattle = battle(after);
+        if (oldBattle != null && newBattle != null && oldBattle.energy != newBattle.energy) {
+            diff.append("Energy: ").append(oldBattle.energy).append(" -> ").append(newBattle.energy).append("\n");
+        }
+
+        if (!sameHand(before.hand, after.hand)) {
+            diff.append("Hand now:\n");
+            for (int i = 0; i < after.hand.size(); i++) {
+                GameState.CardInfo card = after.hand.get(i);
+                diff.append(i).append(": ").append(dictionary.code(card));
+                if (!contains(before.hand, card)) {
+                    diff.append(" (Cost: ").append(card.costForTurn).append(", Type: ").append(card.type);
+                    if ("ENEMY".equals(card.target) || "SELF_AND_ENEMY".equals(card.target)) {
+                        diff.append(", Requires Target");
+                    }
+                    diff.append(")");
+                }
+                diff.append("\n");
+            }
+            if (after.hand.isEmpty()) {
+                diff.append("(empty)\n");
+            }
+        }
+
+        if (oldBattle != null && newBattle != null) {
+            describeMonsters(oldBattle.monsters, newBattle.monsters, diff);
+        }
+
+        if (!before.availableActions.equals(after.availableActions)) {
+            diff.append("Available Actions now:\n");
+            for (String action : after.availableActions) {
+                diff.append("- ").append(action).append("\n");
+            }
+        }
+
+        if (collection) {
+            if (!names(before.potions, dictionary).equals(names(after.potions, dictionary))) {
+                diff.append("Potions now: ");
+                List<String> potions = names(after.potions, dictionary);
+                for (int i = 0; i < potions.size(); i++) {
+                    diff.append(i > 0 ? ", " : "").append(i).append(": ").append(potions.get(i));
+                }
+                diff.append(potions.isEmpty() ? "(none)\n" : "\n");
+            }
+            describePile("Draw Pile now", before.drawPile, after.drawPile, dictionary, diff);
+            describePile("Discard Pile now", before.discardPile, after.discardPile, dictionary, diff);
+            describePile("Exhaust Pile now", before.exhaustPile, after.exhaustPile, dictionary, diff);
+        }
+
+        if (diff.length() == length) {
+            diff.append("Nothing changed.\n");
+        }
+        return diff.toString();
+    }
+
+    private static void describeMonsters(List<GameState.CustomMonsterInfo> before, List<GameState.CustomMonsterInfo> after,
+                                         StringBuilder diff) {
+        if (!names(before).equals(names(after))) {
+            diff.append("Monsters now:\n");
+            for (int i = 0; i < after.size(); i++) {
+                GameState.CustomMonsterInfo monster = after.get(i);
+                diff.append(i).append(": ").append(monster.name)
+                    .append(" (HP: ").append(monster.currentHp).append("/").append(monster.maxHp)
+                    .append(", Intent: ").append(monster.intent).append(")\n");
+            }
+            if (after.isEmpty()) {
+                diff.append("(none)\n");
+            }
+            return;
+        }
+        for (int i = 0; i < after.size(); i++) {
+            GameState.CustomMonsterInfo old = before.get(i);
+            GameState.CustomMonsterInfo monster = after.get(i);
+            boolean hpChanged = old.currentHp != monster.currentHp || old.maxHp != monster.maxHp;
+            boolean intentChanged = !Objects.equals(old.intent, monster.intent);
+            if (!hpChanged && !intentChanged) {
+                continue;
+            }
+            diff.append("Monster ").append(i).append(" ").append(monster.name).append(":");
+            if (hpChanged) {
+                diff.append(" HP ").append(old.currentHp).append(" -> ").append(monster.currentHp).append("/").append(monster.maxHp);
+            }
+            if (intentChanged) {
+                diff.append(hpChanged ? "," : "").append(" Intent ").append(old.intent).append(" -> ").append(monster.intent);
+            }
+            diff.append("\n");
+        }
+    }
+
+    /**
+     * List a pile again if the cards in it changed; the order is not shown, so it is not compared
+     */
+    private static void describePile(String title, List<GameState.CardInfo> before, List<GameState.CardInfo> after,
+                                     CardDictionary dictionary, StringBuilder diff) {
+        Map<String, Integer> oldCounts = counts(before, dictionary);
+        if (oldCounts.equals(counts(after, dictionary))) {
+            return;
+        }
+        if (after.isEmpty()) {
+            diff.append(title).append(": (empty)\n");
+            return;
+        }
+        dictionary.appendPile(title, after, diff, new HashSet<String>());
+    }
+
+    private static Map<String, Integer> counts(List<GameState.CardInfo> pile, CardDictionary dictionary) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (GameState.CardInfo card : pile) {
+            counts.merge(dictionary.code(card), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static List<String> names(List<GameState.PotionInfo> potions, CardDictionary dictionary) {
+        List<String> names = new ArrayList<>(potions.size());
+        for (GameState.PotionInfo potion : potions) {
+            names.add(dictionary.code(potion));
+        }
+        return names;
+    }
+
+    private static GameState.BattleStageInfo battle(GameState state) {
+        return state.stageInfo instanceof GameState.BattleStageInfo ? (GameState.BattleStageInfo) state.stageInfo : null;
+    }
+
+    private static boolean sameHand(List<GameState.CardInfo> before, List<GameState.CardInfo> after) {
+        if (before.size() != after.size()) {
+            return false;
+        }
+        for (int i = 0; i < after.size(); i++) {
+            if (!sameCard(before.get(i), after.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(List<GameState.CardInfo> hand, GameState.CardInfo card) {
+        for (GameState.CardInfo other : hand) {
+            if (sameCard(other, card)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same card as far as the prompt shows it
+     */
+    private static boolean sameCard(GameState.CardInfo a, GameState.CardInfo b) {
+        return Objects.equals(a.name, b.name) && a.costForTurn == b.costForTurn
+                && Objects.equals(a.type, b.type) && Objects.equals(a.target, b.target);
+    }
+
+    private static List<String> names(List<GameState.CustomMonsterInfo> monsters) {
+        List<String> names = new ArrayList<>(monsters.size());
+        for (GameState.CustomMonsterInfo monster : monsters) {
+            names.add(monster.name);
+        }
+        return names;
+    }
+}
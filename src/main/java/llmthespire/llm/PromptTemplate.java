@@ -0,0 +1,82 @@
+package llmthespire.llm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A prompt fragment compiled once: constant text with {name} slots that are
+ * filled from a source object, e.g. a card or the captured game state.
+ *
+ * The constant parts are shared immutable Strings and a render only appends
+ * to the caller's buffer, so rendering allocates nothing of its own. Unknown or
+ * unbound slot names fail when the template is built, not when a prompt is.
+ *
+ * @param <T> The object the slots read
+ */
+class PromptTemplate<T> {
+    /**
+     * Appends the value of one slot
+     */
+    interface Slot<T> {
+        void append(T source, StringBuilder out);
+    }
+
+    private final String[] literals;
+    private final Slot<T>[] slots;
+
+    private PromptTemplate(String[] literals, Slot<T>[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+    }
+
+    /**
+     * Append the template with its slots filled from the source
+     */
+    void render(T source, StringBuilder out) {
+        for (int i = 0; i < slots.length; i++) {
+            out.append(literals[i]);
+            slots[i].append(source, out);
+        }
+        out.append(literals[slots.length]);
+    }
+
+    static class Builder<T> {
+        private final String text;
+        private final Map<String, Slot<T>> bindings = new HashMap<>();
+
+        Builder(String text) {
+            this.text = text;
+        }
+
+        Builder<T> slot(String name, Slot<T> slot) {
+            bindings.put(name, slot);
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        PromptTemplate<T> build() {
+            List<String> literals = new ArrayList<>();
+            List<Slot<T>> slots = new ArrayList<>();
+            int start = 0;
+            int open;
+            while ((open = text.indexOf('{', start)) >= 0) {
+                int close = text.indexOf('}', open);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unclosed slot in template: " + text);
+                }
+                String name = text.substring(open + 1, close);
+                Slot<T> slot = bindings.get(name);
+                if (slot == null) {
+                    throw new IllegalArgumentException("Unbound slot {" + name + "} in template: " + text);
+                }
+                literals.add(text.substring(start, open));
+                slots.add(slot);
+                start = close + 1;
+            }
+            literals.add(text.substring(start));
+            return new PromptTemplate<>(literals.toArray(new String[0]), slots.toArray(new Slot[0]));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package llmthespire.llm;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * A provider answered with an HTTP error status
+ */
+public class ProviderHttpException extends IOException {
+    private final int statusCode;
+    private final long retryAfterMs;
+
+    /**
+     * @param message The error message, including the response body if any
+     * @param statusCode The HTTP status code
+     * @param retryAfterMs The delay requested by the provider, or -1 if it gave none
+     */
+    public ProviderHttpException(String message, int statusCode, long retryAfterMs) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * Build an exception from an error response, picking up its Retry-After hint
+     */
+    public static ProviderHttpException from(HttpURLConnection connection, int statusCode, String message) {
+        return new ProviderHttpException(message, statusCode, parseRetryAfter(connection));
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return The delay requested by the provider in milliseconds, or -1 if it gave none
+     */
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    /**
+     * True for rate limiting and server-side errors that are worth another try
+     */
+    public boolean isTransient() {
+        switch (statusCode) {
+            case 408: // Request Timeout
+            case 429: // Too Many Requests
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+            case 529: // Anthropic: overloaded
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Read retry-after-ms (OpenAI) or Retry-After in seconds or as an HTTP date
+     */
+    private static long parseRetryAfter(HttpURLConnection connection) {
+        String millis = connection.getHeaderField("retry-after-ms");
+        if (millis != null) {
+            try {
+                return Math.max(0, (long) Double.parseDouble(millis.trim()));
+            } catch (NumberFormatException e) {
+                // fall through to Retry-After
+            }
+        }
+
+        String value = connection.getHeaderField("Retry-After");
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, (long) (Double.parseDouble(value) * 1000));
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, try an HTTP date
+        }
+        try {
+            SimpleDateFormat httpDate = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            Date date = httpDate.parse(value);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package llmthespire.llm;
+
+import llmthespire.LLMConfig;
+import llmthespire.game.GameStageType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes each request to the healthiest API configuration.
+ *
+ * Every candidate keeps an EWMA of its latency and error rate and its own circuit
+ * breaker, so a provider that keeps failing is skipped instead of costing another
+ * read timeout. The active configuration wins ties, and a configuration that has
+ * never been tried ranks after every one that has, unless it is the active one, so
+ * routing never moves requests to an unknown provider while a measured one works.
+ *
+ * With stage routing, a stage mapped to its own configuration goes there as long
+ * as that configuration's latency is within the stage's SLO and its breaker is
+ * closed; otherwise the request falls back to the normal choice, with every
+ * PROBE_INTERVAL-th request still sent to the mapped one to see if it recovered.
+ */
+public class ProviderRouter {
+    private static final Logger logger = LogManager.getLogger(ProviderRouter.class.getName());
+
+    // Penalty applied to the latency score per unit of error rate
+    private static final double ERROR_PENALTY = 4.0;
+    // Latency assumed for a configuration that has failed but never answered
+    private static final double UNANSWERED_LATENCY_MS = 60000;
+
+    // Every n-th request of a stage whose API misses its SLO still goes to that API
+    private static final int PROBE_INTERVAL = 10;
+
+    private final Map<String, ProviderHealth> health = new ConcurrentHashMap<>();
+    private final Map<GameStageType, AtomicLong> sloFallbacks = new ConcurrentHashMap<>();
+
+    /**
+     * Choose the API configuration for a request of the given stage
+     * @throws IOException If every candidate's circuit breaker is open
+     */
+    public LLMConfig.ApiConfig select(LLMConfig config, GameStageType stage) throws IOException {
+        LLMConfig.StageRoutingConfig stageRouting = config.getStageRouting();
+        LLMConfig.StageRoute route = stageRouting.isEnabled() ? stageRouting.routeFor(stage) : null;
+        LLMConfig.ApiConfig mapped = route != null && route.getApiName() != null && !route.getApiName().isEmpty()
+                ? config.getApiConfigs().get(route.getApiName())
+                : null;
+        if (mapped == null || !mapped.isEnabled()) {
+            if (mapped != null) {
+                logger.warn("API '" + route.getApiName() + "' for stage " + stage + " is disabled, using the default routing");
+            }
+            return select(config);
+        }
+        if (!config.getRouting().isEnabled()) {
+            return mapped;
+        }
+
+        ProviderHealth mappedHealth = healthOf(mapped);
+        long slo = route.getSloMs();
+        double latency = mappedHealth.latency();
+        boolean withinSlo = slo <= 0 || latency < 0 || latency <= slo;
+        if (!withinSlo) {
+            long fallbacks = sloFallbacks.computeIfAbsent(stage, key -> new AtomicLong()).incrementAndGet();
+            withinSlo = fallbacks % PROBE_INTERVAL == 0;
+            if (!withinSlo) {
+                logger.debug(mapped.getName() + " is over the " + slo + "ms SLO of " + stage + " (" + mappedHealth + ")");
+            }
+        }
+        if (withinSlo && mappedHealth.breaker.tryAcquire()) {
+            return mapped;
+        }
+        return select(config);
+    }
+
+    /**
+     * Choose the API configuration for the next request and claim its breaker permission
+     * @throws IOException If every candidate's circuit breaker is open
+     */
+    public LLMConfig.ApiConfig select(LLMConfig config) throws IOException {
+        LLMConfig.ApiConfig active = config.getActiveApiConfig();
+        if (!config.getRouting().isEnabled()) {
+            return active;
+        }
+
+        List<LLMConfig.ApiConfig> candidates = new ArrayList<>();
+        candidates.add(active);
+        for (LLMConfig.ApiConfig apiConfig : config.getApiConfigs().values()) {
+            if (apiConfig != active && apiConfig.isEnabled() &&
+                apiConfig.getApiKey() != null && !apiConfig.getApiKey().isEmpty()) {
+                candidates.add(apiConfig);
+            }
+        }
+
+        // Snapshot the scores; the stable sort keeps the active configuration first among equals
+        Map<LLMConfig.ApiConfig, Double> scores = new IdentityHashMap<>();
+        for (LLMConfig.ApiConfig candidate : candidates) {
+            double score = healthOf(candidate).score();
+            if (score < 0) {
+                score = candidate == active ? 0 : Double.POSITIVE_INFINITY;
+            }
+            scores.put(candidate, score);
+        }
+        candidates.sort((a, b) -> Double.compare(scores.get(a), scores.get(b)));
+
+        for (LLMConfig.ApiConfig candidate : candidates) {
+            if (healthOf(candidate).breaker.tryAcquire()) {
+                if (candidate != active) {
+                    logger.info("Routing request to " + candidate.getName() + " (" + healthOf(candidate) + ")");
+                }
+                return candidate;
+            }
+            logger.debug("Skipping " + candidate.getName() + ", circuit breaker " + healthOf(candidate).breaker.getState());
+        }
+
+        throw new IOException("All API configurations are unavailable (circuit breakers open)");
+    }
+
+    /**
+     * Check whether a configuration could take a request right now
+     */
+    public boolean isAvailable(LLMConfig.ApiConfig apiConfig) {
+        return !LLMConfig.getInstance().getRouting().isEnabled() || healthOf(apiConfig).breaker.isAvailable();
+    }
+
+    public void recordSuccess(LLMConfig.ApiConfig apiConfig, long latencyMs) {
+        ProviderHealth providerHealth = healthOf(apiConfig);
+        providerHealth.record(latencyMs, false);
+        providerHealth.breaker.recordSuccess();
+    }
+
+    public void recordFailure(LLMConfig.ApiConfig apiConfig) {
+        ProviderHealth providerHealth = healthOf(apiConfig);
+        providerHealth.record(-1, true);
+        providerHealth.breaker.recordFailure();
+        if (providerHealth.breaker.getState() == CircuitBreaker.State.OPEN) {
+            logger.warn("Circuit breaker open for " + apiConfig.getName() + " (" + providerHealth + ")");
+        }
+    }
+
+    /**
+     * Release a breaker permission for a request that ended without an outcome
+     */
+    public void recordCancelled(LLMConfig.ApiConfig apiConfig) {
+        healthOf(apiConfig).breaker.release();
+    }
+
+    /**
+     * Get a human-readable summary of every tracked configuration
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, ProviderHealth> entry : health.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private ProviderHealth healthOf(LLMConfig.ApiConfig apiConfig) {
+        LLMConfig.RoutingConfig routing = LLMConfig.getInstance().getRouting();
+        return health.computeIfAbsent(apiConfig.getName(), name -> new ProviderHealth(routing));
+    }
+
+    /**
+     * Latency and error statistics for one API configuration
+     */
+    private static class ProviderHealth {
+        private final double alpha;
+        private final CircuitBreaker breaker;
+        private double latencyMs = -1;
+        private double errorRate = 0;
+
+        private ProviderHealth(LLMConfig.RoutingConfig routing) {
+            this.alpha = routing.getEwmaAlpha();
+            this.breaker = new CircuitBreaker(routing.getFailureThreshold(), routing.getOpenDurationMs());
+        }
+
+        synchronized void record(long sampleLatencyMs, boolean failed) {
+            errorRate = errorRate + alpha * ((failed ? 1.0 : 0.0) - errorRate);
+            if (!failed) {
+                latencyMs = latencyMs < 0 ? sampleLatencyMs : latencyMs + alpha * (sampleLatencyMs - latencyMs);
+            }
+        }
+
+        /**
+         * @return The latency EWMA, or -1 if the configuration has never answered
+         */
+        synchronized double latency() {
+            return latencyMs;
+        }
+
+        /**
+         * Lower is better
+         * @return The score, or -1 if the configuration has never been tried
+         */
+        synchronized double score() {
+            if (latencyMs < 0 && errorRate == 0) {
+                return -1;
+            }
+            double baseLatency = latencyMs >= 0 ? latencyMs : UNANSWERED_LATENCY_MS;
+            return baseLatency * (1.0 + ERROR_PENALTY * errorRate);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("latency=%.0fms, errorRate=%.2f, breaker=%s", latencyMs, errorRate, breaker.getState());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package llmthespire.llm;
+
+import llmthespire.LLMConfig;
+
+import java.io.IOException;
+
+/**
+ * Client-side quota for one API configuration: a requests-per-minute and a
+ * tokens-per-minute token bucket. {@link #acquire} blocks until both buckets can
+ * pay for the request, so bursts stay under the provider's limits instead of
+ * running into 429s. A provider's Retry-After pauses the limiter as a whole.
+ */
+public class RateLimiter {
+    private static final double MINUTE_MS = 60000.0;
+
+    private final TokenBucket requests = new TokenBucket();
+    private final TokenBucket tokens = new TokenBucket();
+    private long pausedUntil = 0;
+
+    /**
+     * Wait until the request fits both quotas, then take it from the buckets
+     * @param config The API configuration holding the current limits
+     * @param estimatedTokens Prompt plus expected output tokens
+     * @param token Aborts the wait when cancelled
+     */
+    public void acquire(LLMConfig.ApiConfig config, long estimatedTokens, CancellationToken token) throws IOException {
+        while (true) {
+            long waitMs;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                requests.configure(config.getRequestsPerMinute(), now);
+                tokens.configure(config.getTokensPerMinute(), now);
+
+                waitMs = Math.max(pausedUntil - now,
+                        Math.max(requests.waitFor(1, now), tokens.waitFor(estimatedTokens, now)));
+                if (waitMs <= 0) {
+                    requests.take(1);
+                    tokens.take(estimatedTokens);
+                    return;
+                }
+            }
+            token.sleep(waitMs);
+        }
+    }
+
+    /**
+     * Hold back all requests until the given delay has passed
+     */
+    public synchronized void pause(long delayMs) {
+        pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + delayMs);
+    }
+
+    /**
+     * Bucket refilled continuously at a per-minute rate; a limit of 0 disables it
+     */
+    private static class TokenBucket {
+        private int limit = 0;
+        private double available = 0;
+        private long lastRefill = 0;
+
+        void configure(int perMinute, long now) {
+            if (perMinute != limit) {
+                limit = Math.max(0, perMinute);
+                available = limit;
+                lastRefill = now;
+                return;
+            }
+            if (limit > 0) {
+                available = Math.min(limit, available + (now - lastRefill) * limit / MINUTE_MS);
+                lastRefill = now;
+            }
+        }
+
+        long waitFor(long amount, long now) {
+            if (limit <= 0) {
+                return 0;
+            }
+            // A request larger than the whole bucket waits for a full bucket
+            double needed = Math.min(amount, limit) - available;
+            return needed <= 0 ? 0 : (long) Math.ceil(needed * MINUTE_MS / limit);
+        }
+
+        void take(long amount) {
+            if (limit > 0) {
+                available -= Math.min(amount, limit);
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package llmthespire.llm;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import llmthespire.LLMConfig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes provider request bodies straight into the connection.
+ *
+ * Everything except the user prompt (model, sampling settings, system prompt) is
+ * encoded once per API configuration and kept as bytes. The user prompt is
+ * JSON-escaped and UTF-8 encoded directly into the output stream through a small
+ * per-thread buffer, so no JSON tree, String or byte[] copy of it is built.
+ * The exact body length is computed up front, letting the connection stream the
+ * body instead of buffering it to find the Content-Length. With
+ * {@link LLMConfig.ApiConfig#isGzipRequests()} the body is gzipped on the way out
+ * and sent chunked. Earlier messages of a conversation are encoded the same way,
+ * between the system prompt and the user prompt.
+ */
+public class RequestBodyWriter {
+    private static final int BUFFER_SIZE = 8192;
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MESSAGE_CLOSE = "\"},".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CACHED_MESSAGE_CLOSE = "\",\"cache_control\":{\"type\":\"ephemeral\"}}]},".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Request body layouts
+     */
+    public enum Format {
+        OPENAI_CHAT,        // OpenAI-compatible chat completions (OpenAI, DeepSeek, custom)
+        ANTHROPIC_MESSAGES  // Anthropic messages API
+    }
+
+    // Pre-encoded static parts, per API configuration name
+    private final Map<String, Template> templates = new ConcurrentHashMap<>();
+    private final TransferStats transferStats;
+
+    public RequestBodyWriter(TransferStats transferStats) {
+        this.transferStats = transferStats;
+    }
+
+    /**
+     * Write the request body for one call
+     * @param connection An unconnected connection with doOutput set
+     * @param history Earlier messages of the conversation, oldest first; empty for a single message
+     * @return The number of body bytes before compression
+     */
+    public long write(HttpURLConnection connection, LLMConfig.ApiConfig config, Format format,
+                      String systemPrompt, List<ChatMessage> history, String userPrompt) throws IOException {
+        Template template = templateFor(config, format, systemPrompt);
+        // With Anthropic prompt caching, a second breakpoint after the history caches the conversation so far
+        boolean cacheHistory = format == Format.ANTHROPIC_MESSAGES && config.isPromptCaching();
+        long length;
+
+        if (config.isGzipRequests()) {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setChunkedStreamingMode(BUFFER_SIZE);
+            try (OutputStream os = new GZIPOutputStream(transferStats.countRequestWire(connection.getOutputStream()), BUFFER_SIZE)) {
+                length = writeBody(template, history, userPrompt, cacheHistory, os);
+            }
+        } else {
+            length = writeBody(template, history, userPrompt, cacheHistory, null);
+            connection.setFixedLengthStreamingMode(length);
+            try (OutputStream os = transferStats.countRequestWire(connection.getOutputStream())) {
+                writeBody(template, history, userPrompt, cacheHistory, os);
+            }
+        }
+        transferStats.recordRequest(length);
+        return length;
+    }
+
+    /**
+     * Encode the body around the cached static parts
+     * @param out The stream to write to, or null to only count the bytes
+     * @return The number of encoded bytes
+     */
+    private static long writeBody(Template template, List<ChatMessage> history, String userPrompt, boolean cacheHistory,
+                                  OutputStream out) throws IOException {
+        if (history.isEmpty()) {
+            return write(template.prefix, out) + encode(userPrompt, out) + write(template.suffix, out);
+        }
+        long length = write(template.head, out);
+        for (int i = 0; i < history.size(); i++) {
+            ChatMessage message = history.get(i);
+            boolean cached = cacheHistory && i == history.size() - 1;
+            String open = cached
+                    ? "{\"role\":\"" + message.getRole() + "\",\"content\":[{\"type\":\"text\",\"text\":\""
+                    : "{\"role\":\"" + message.getRole() + "\",\"content\":\"";
+            length += write(open.getBytes(StandardCharsets.US_ASCII), out);
+            length += encode(message.getContent(), out);
+            length += write(cached ? CACHED_MESSAGE_CLOSE : MESSAGE_CLOSE, out);
+        }
+        return length + write(template.messageHead, out) + encode(userPrompt, out) + write(template.suffix, out);
+    }
+
+    private static long write(byte[] bytes, OutputStream out) throws IOException {
+        if (out != null) {
+            out.write(bytes);
+        }
+        return bytes.length;
+    }
+
+    /**
+     * Get the cached static parts, rebuilding them if the configuration changed
+     */
+    private Template templateFor(LLMConfig.ApiConfig config, Format format, String systemPrompt) {
+        Template template = templates.get(config.getName());
+        if (template == null || !template.matches(config, format, systemPrompt)) {
+            template = new Template(config, format, systemPrompt);
+            templates.put(config.getName(), template);
+        }
+        return template;
+    }
+
+    /**
+     * JSON-escape and UTF-8 encode a string's content (without the surrounding quotes)
+     * @param out The stream to write to, or null to only count the bytes
+     * @return The number of encoded bytes
+     */
+    static long encode(CharSequence text, OutputStream out) throws IOException {
+        byte[] buffer = BUFFER.get();
+        int pos = 0;
+        long total = 0;
+        int length = text.length();
+
+        for (int i = 0; i < length; i++) {
+            if (pos > BUFFER_SIZE - 6) {
+                if (out != null) {
+                    out.write(buffer, 0, pos);
+                }
+                total += pos;
+                pos = 0;
+            }
+
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer[pos++] = '\\';
+                buffer[pos++] = (byte) c;
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                buffer[pos++] = '\\';
+                switch (c) {
+                    case '\n': buffer[pos++] = 'n'; break;
+                    case '\r': buffer[pos++] = 'r'; break;
+                    case '\t': buffer[pos++] = 't'; break;
+                    case '\b': buffer[pos++] = 'b'; break;
+                    case '\f': buffer[pos++] = 'f'; break;
+                    default:
+                        buffer[pos++] = 'u';
+                        buffer[pos++] = HEX[(c >> 12) & 0xF];
+                        buffer[pos++] = HEX[(c >> 8) & 0xF];
+                        buffer[pos++] = HEX[(c >> 4) & 0xF];
+                        buffer[pos++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x80) {
+                buffer[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[pos++] = (byte) (0xC0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[pos++] = '?'; // Unpaired surrogate, same replacement as String.getBytes
+            } else {
+                buffer[pos++] = (byte) (0xE0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        if (out != null && pos > 0) {
+            out.write(buffer, 0, pos);
+        }
+        return total + pos;
+    }
+
+    /**
+     * The request body split around the user prompt, as encoded bytes
+     */
+    private static class Template {
+        private final Format format;
+        private final String model;
+        private final int maxTokens;
+        private final float temperature;
+        private final boolean stream;
+        private final boolean promptCaching;
+        private final boolean logprobs;
+        private final String systemPrompt;
+        private final byte[] prefix;
+        private final byte[] suffix;
+        // The prefix split where the user message starts, for conversations
+        private final byte[] head;
+        private final byte[] messageHead;
+
+        private Template(LLMConfig.ApiConfig config, Format format, String systemPrompt) {
+            this.format = format;
+            this.model = config.getModel();
+            this.maxTokens = config.getMaxTokens();
+            this.temperature = config.getTemperature();
+            this.stream = config.isStream();
+            this.promptCaching = config.isPromptCaching();
+            this.logprobs = config.isLogprobs();
+            this.systemPrompt = systemPrompt;
+
+            // Serialize the body once with a marker in place of the user prompt, then split at it
+            String marker = "USER_PROMPT_" + UUID.randomUUID().toString().replace("-", "");
+            String body = buildBody(marker).toString();
+            int index = body.indexOf(marker);
+            this.prefix = body.substring(0, index).getBytes(StandardCharsets.UTF_8);
+            this.suffix = body.substring(index + marker.length()).getBytes(StandardCharsets.UTF_8);
+            int messageStart = body.lastIndexOf('{', index);
+            this.head = body.substring(0, messageStart).getBytes(StandardCharsets.UTF_8);
+            this.messageHead = body.substring(messageStart, index).getBytes(StandardCharsets.UTF_8);
+        }
+
+        private JsonObject buildBody(String userContent) {
+            JsonObject requestBody = new JsonObject();
+            requestBody.addProperty("model", model);
+            requestBody.addProperty("max_tokens", maxTokens);
+            requestBody.addProperty("temperature", temperature);
+
+            JsonArray messages = new JsonArray();
+            if (format == Format.ANTHROPIC_MESSAGES && promptCaching) {
+                // Cache breakpoint after the system prompt: everything before the game state is reused
+                JsonObject cacheControl = new JsonObject();
+                cacheControl.addProperty("type", "ephemeral");
+                JsonObject systemBlock = new JsonObject();
+                systemBlock.addProperty("type", "text");
+                systemBlock.addProperty("text", systemPrompt);
+                systemBlock.add("cache_control", cacheControl);
+                JsonArray system = new JsonArray();
+                system.add(systemBlock);
+                requestBody.add("system", system);
+            } else if (format == Format.ANTHROPIC_MESSAGES) {
+                requestBody.addProperty("system", systemPrompt);
+            } else {
+                JsonObject systemMessage = new JsonObject();
+                systemMessage.addProperty("role", "system");
+                systemMessage.addProperty("content", systemPrompt);
+                messages.add(systemMessage);
+            }
+
+            JsonObject userMessage = new JsonObject();
+            userMessage.addProperty("role", "user");
+            userMessage.addProperty("content", userContent);
+            messages.add(userMessage);
+
+            requestBody.add("messages", messages);
+            if (stream) {
+                requestBody.addProperty("stream", true);
+                if (format == Format.OPENAI_CHAT) {
+                    // OpenAI-compatible streams only report usage, in a last chunk, when asked to
+                    JsonObject streamOptions = new JsonObject();
+                    streamOptions.addProperty("include_usage", true);
+                    requestBody.add("stream_options", streamOptions);
+                }
+            }
+            if (logprobs && format == Format.OPENAI_CHAT) {
+                requestBody.addProperty("logprobs", true);
+            }
+            return requestBody;
+        }
+
+        private boolean matches(LLMConfig.ApiConfig config, Format format, String systemPrompt) {
+            return this.format == format
+                    && maxTokens == config.getMaxTokens()
+                    && temperature == config.getTemperature()
+                    && stream == config.isStream()
+                    && promptCaching == config.isPromptCaching()
+                    && logprobs == config.isLogprobs()
+                    && Objects.equals(model, config.getModel())
+                    && Objects.equals(this.systemPrompt, systemPrompt);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package llmthespire.llm;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The answer to a requestAction call, which can be cancelled while it is outstanding.
+ *
+ * Cancelling aborts every provider call the request made: running calls are
+ * disconnected and queued ones give up their I/O slot without being sent. The
+ * handle then completes with a CancellationException.
+ */
+public class RequestHandle extends CompletableFuture<String> {
+    private final CancellationToken token = new CancellationToken();
+    private final long startTime = System.currentTimeMillis();
+    private final long promptTokens;
+    private final long completionTokens;
+    private final long expectedLatencyMs;
+    private final CancellationStats stats;
+
+    /**
+     * @param promptTokens Estimated prompt tokens of one provider call
+     * @param completionTokens Expected completion tokens of one provider call
+     * @param expectedLatencyMs Typical end-to-end latency of such a request
+     */
+    RequestHandle(long promptTokens, long completionTokens, long expectedLatencyMs, CancellationStats stats) {
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+        this.expectedLatencyMs = expectedLatencyMs;
+        this.stats = stats;
+    }
+
+    /**
+     * The token every provider call of this request takes a child of
+     */
+    CancellationToken getToken() {
+        return token;
+    }
+
+    /**
+     * Complete this handle with the outcome of the request's future
+     */
+    RequestHandle follow(CompletableFuture<String> future) {
+        future.whenComplete((response, error) -> {
+            if (error != null) {
+                completeExceptionally(error);
+            } else {
+                complete(response);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Cancel the request and abort its provider calls
+     * @return False if the request had already completed
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone()) {
+            return false;
+        }
+        int aborted = 0;
+        int unsent = 0;
+        for (CancellationToken call : token.getChildren()) {
+            if (call.isCancelled()) {
+                continue;
+            }
+            if (call.isInFlight()) {
+                aborted++;
+            } else if (!call.wasSent()) {
+                unsent++;
+            }
+        }
+        token.cancel();
+        if (!super.cancel(mayInterruptIfRunning)) {
+            return false;
+        }
+        long waited = System.currentTimeMillis() - startTime;
+        stats.record(aborted, unsent, Math.max(0, expectedLatencyMs - waited),
+                aborted * completionTokens + unsent * (promptTokens + completionTokens));
+        return true;
+    }
+}
@@ -0,0 +1,192 @@
+package llmthespire.llm;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, prioritized scheduler for LLM work.
+ *
+ * Network calls run on an I/O pool fed by a priority queue, so a combat decision
+ * waiting for a thread goes ahead of queued background work. The queue is bounded:
+ * when it is full, a higher-priority submission sheds the lowest-priority waiting
+ * task, and anything else is rejected with a {@link RejectedExecutionException}.
+ * Response parsing runs on a separate CPU pool so it never holds an I/O thread.
+ */
+public class RequestScheduler {
+    private static final Logger logger = LogManager.getLogger(RequestScheduler.class.getName());
+
+    /**
+     * Priority classes, highest first
+     */
+    public enum Priority {
+        COMBAT,     // Decisions during a fight, the game is waiting on them
+        DECISION,   // Other player decisions: events, rewards, map
+        BACKGROUND  // Logging, summaries, prefetch
+    }
+
+    private final int capacity;
+    private final PriorityBlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor ioPool;
+    private final ExecutorService cpuPool;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+
+    /**
+     * @param ioThreads Threads for network calls
+     * @param cpuThreads Threads for response parsing
+     * @param capacity Maximum number of tasks waiting for an I/O thread
+     */
+    public RequestScheduler(int ioThreads, int cpuThreads, int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.queue = new PriorityBlockingQueue<>(this.capacity,
+                (a, b) -> ((ScheduledTask<?>) a).compareTo((ScheduledTask<?>) b));
+        this.ioPool = new ThreadPoolExecutor(Math.max(1, ioThreads), Math.max(1, ioThreads),
+                60, TimeUnit.SECONDS, queue, daemonFactory("llm-io"));
+        this.ioPool.allowCoreThreadTimeOut(true);
+        this.cpuPool = Executors.newFixedThreadPool(Math.max(1, cpuThreads), daemonFactory("llm-cpu"));
+    }
+
+    /**
+     * Queue work on the I/O pool
+     * @param priority The priority class of the work
+     * @param work The blocking work to run
+     * @return A future completed with the work's result, or exceptionally if it was rejected or shed
+     */
+    public <T> CompletableFuture<T> submit(Priority priority, Supplier<T> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        ScheduledTask<T> task = new ScheduledTask<>(priority, sequence.getAndIncrement(), work, future);
+
+        synchronized (this) {
+            if (queue.size() >= capacity) {
+                ScheduledTask<?> victim = lowestPriorityQueued();
+                if (victim != null && victim.priority.ordinal() > priority.ordinal() && queue.remove(victim)) {
+                    shed.incrementAndGet();
+                    logger.info("LLM queue full, shedding " + victim.priority + " task for " + priority + " task");
+                    victim.future.completeExceptionally(new RejectedExecutionException("Shed for higher-priority work"));
+                } else {
+                    rejected.incrementAndGet();
+                    logger.warn("LLM queue full (" + capacity + " waiting), rejecting " + priority + " task");
+                    future.completeExceptionally(new RejectedExecutionException("LLM request queue is full (" + capacity + " waiting)"));
+                    return future;
+                }
+            }
+            ioPool.execute(task);
+        }
+        return future;
+    }
+
+    /**
+     * Executor for CPU-side work such as response parsing
+     */
+    public Executor cpuExecutor() {
+        return cpuPool;
+    }
+
+    /**
+     * @return Tasks currently waiting for an I/O thread
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return Submissions rejected because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return Queued tasks dropped to make room for higher-priority work
+     */
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    /**
+     * Stop both pools, giving running work a short grace period
+     */
+    public void shutdown() {
+        for (ExecutorService pool : new ExecutorService[] { ioPool, cpuPool }) {
+            try {
+                pool.shutdown();
+                if (!pool.awaitTermination(2, TimeUnit.SECONDS)) {
+                    pool.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private ScheduledTask<?> lowestPriorityQueued() {
+        ScheduledTask<?> lowest = null;
+        for (Runnable runnable : queue) {
+            ScheduledTask<?> task = (ScheduledTask<?>) runnable;
+            if (lowest == null || task.compareTo(lowest) > 0) {
+                lowest = task;
+            }
+        }
+        return lowest;
+    }
+
+    private static ThreadFactory daemonFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setName(prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Queued work ordered by priority, then submission order
+     */
+    private static class ScheduledTask<T> implements Runnable, Comparable<ScheduledTask<?>> {
+        private final Priority priority;
+        private final long sequence;
+        private final Supplier<T> work;
+        private final CompletableFuture<T> future;
+
+        private ScheduledTask(Priority priority, long sequence, Supplier<T> work, CompletableFuture<T> future) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.work = work;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return; // Cancelled while it was waiting
+            }
+            try {
+                future.complete(work.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }
+
+        @Override
+        public int compareTo(ScheduledTask<?> other) {
+            int byPriority = Integer.compare(priority.ordinal(), other.priority.ordinal());
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
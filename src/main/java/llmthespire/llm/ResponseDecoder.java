@@ -0,0 +1,286 @@
+package llmthespire.llm;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pull-parser for non-streaming completion responses.
+ *
+ * Reads the body token by token, keeps only the generated text, the usage
+ * counters and, when requested, the logprob of the action tokens, and skips everything else, so no DOM or intermediate copy of the body
+ * is built. The text is returned exactly as generated, whitespace included.
+ */
+public class ResponseDecoder {
+
+    /**
+     * Response layouts of the supported APIs
+     */
+    public enum Format {
+        OPENAI,     // {"choices":[{"message":{"content":"..."},"logprobs":{"content":[{"token":"..","logprob":..}]}}],"usage":{"prompt_tokens":..,"completion_tokens":..}}
+        ANTHROPIC   // {"content":[{"type":"text","text":"..."}],"usage":{"input_tokens":..,"output_tokens":..}}
+    }
+
+    /**
+     * The generated text and what it cost
+     */
+    public static class Result {
+        private final String content;
+        private final TokenUsage usage;
+        private final Double actionLogprob;
+
+        private Result(String content, TokenUsage usage, Double actionLogprob) {
+            this.content = content;
+            this.usage = usage;
+            this.actionLogprob = actionLogprob;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        /**
+         * @return The reported token usage, or null if the response had none
+         */
+        public TokenUsage getUsage() {
+            return usage;
+        }
+
+        /**
+         * @return Summed logprob of the ACTION: line's tokens, or null if the response had no logprobs
+         */
+        public Double getActionLogprob() {
+            return actionLogprob;
+        }
+    }
+
+    private ResponseDecoder() {
+    }
+
+    /**
+     * Decode a response body and read the stream to its end so the connection can be reused
+     * @param in The response body
+     * @param format The API's response layout
+     * @throws IOException If the body is malformed or holds no generated text
+     */
+    public static Result decode(InputStream in, Format format) throws IOException {
+        Reader streamReader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        try (JsonReader reader = new JsonReader(streamReader)) {
+            String content = null;
+            TokenUsage usage = null;
+            ActionLogprob logprob = new ActionLogprob();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("usage") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    usage = readUsage(reader, format);
+                } else if (format == Format.OPENAI && name.equals("choices") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    content = readFirstChoice(reader, logprob);
+                } else if (format == Format.ANTHROPIC && name.equals("content") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    content = readTextBlocks(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            // Consume trailing whitespace so the keep-alive socket is left clean
+            while (streamReader.read() != -1) {
+                // discard
+            }
+
+            if (content == null) {
+                throw new IOException(format + " response did not contain any content");
+            }
+            return new Result(content, usage, logprob.get());
+        }
+    }
+
+    /**
+     * choices[0].message.content, feeding choices[0].logprobs.content into the action logprob
+     */
+    private static String readFirstChoice(JsonReader reader, ActionLogprob logprob) throws IOException {
+        String content = null;
+        boolean first = true;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("message") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("content") && reader.peek() == JsonToken.STRING) {
+                            content = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (name.equals("logprobs") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readLogprobs(reader, logprob);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        return content;
+    }
+
+    /**
+     * logprobs.content[]: one {"token", "logprob"} object per generated token
+     */
+    private static void readLogprobs(JsonReader reader, ActionLogprob logprob) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("content") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                String token = null;
+                double value = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("token") && reader.peek() == JsonToken.STRING) {
+                        token = reader.nextString();
+                    } else if (name.equals("logprob") && reader.peek() == JsonToken.NUMBER) {
+                        value = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                logprob.add(token, value);
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Concatenated text of all "text" blocks in content[]; other block types are skipped
+     */
+    private static String readTextBlocks(JsonReader reader) throws IOException {
+        StringBuilder content = null;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+
+            String type = null;
+            String text = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("type") && reader.peek() == JsonToken.STRING) {
+                    type = reader.nextString();
+                } else if (name.equals("text") && reader.peek() == JsonToken.STRING) {
+                    text = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (text != null && (type == null || type.equals("text"))) {
+                content = content == null ? new StringBuilder(text) : content.append(text);
+            }
+        }
+        reader.endArray();
+        return content != null ? content.toString() : null;
+    }
+
+    /**
+     * Parse a usage object given as JSON text, e.g. from a stream event
+     */
+    static TokenUsage parseUsage(String json, Format format) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            return readUsage(reader, format);
+        }
+    }
+
+    /**
+     * usage, in either naming scheme, including prompt-cache counters:
+     * OpenAI prompt_tokens_details.cached_tokens, DeepSeek prompt_cache_hit_tokens,
+     * Anthropic cache_read_input_tokens / cache_creation_input_tokens
+     */
+    private static TokenUsage readUsage(JsonReader reader, Format format) throws IOException {
+        long promptTokens = 0;
+        long completionTokens = 0;
+        long cachedTokens = 0;
+        long cacheWriteTokens = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("prompt_tokens_details") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("cached_tokens") && reader.peek() == JsonToken.NUMBER) {
+                        cachedTokens = Math.max(cachedTokens, reader.nextLong());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                continue;
+            }
+            if (reader.peek() != JsonToken.NUMBER) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "prompt_tokens":
+                case "input_tokens":
+                    promptTokens = reader.nextLong();
+                    break;
+                case "completion_tokens":
+                case "output_tokens":
+                    completionTokens = reader.nextLong();
+                    break;
+                case "prompt_cache_hit_tokens":
+                case "cache_read_input_tokens":
+                    cachedTokens = Math.max(cachedTokens, reader.nextLong());
+                    break;
+                case "cache_creation_input_tokens":
+                    cacheWriteTokens = reader.nextLong();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Anthropic's input_tokens counts only the uncached remainder of the prompt
+        if (format == Format.ANTHROPIC) {
+            promptTokens += cachedTokens + cacheWriteTokens;
+        }
+        return new TokenUsage(promptTokens, completionTokens, cachedTokens, cacheWriteTokens);
+    }
+}
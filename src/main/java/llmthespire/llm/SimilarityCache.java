@@ -0,0 +1,368 @@
+package llmthespire.llm;
+
+import llmthespire.game.CombatFeatures;
+import llmthespire.game.CommandParser;
+import llmthespire.game.GameState;
+import llmthespire.game.PortableAction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Approximate decision cache for combat.
+ *
+ * States are turned into feature vectors (see CombatFeatures) and indexed with
+ * p-stable locality-sensitive hashing: each of TABLES hash tables buckets a state
+ * by PROJECTIONS random Gaussian projections of its vector, quantized to the
+ * bucket width, so states close in Euclidean distance share a bucket in at least
+ * one table with high probability. A lookup checks the exact distance of the
+ * candidates and reuses the closest decision within maxDistance whose action is
+ * still legal in the new state.
+ *
+ * In shadow mode lookups are only recorded: the LLM is still asked, and the
+ * cache counts how often the action it would have reused matches the fresh one.
+ */
+public class SimilarityCache {
+    private static final int TABLES = 8;
+    private static final int PROJECTIONS = 4;
+    private static final long SEED = 0x5EED5L;
+
+    /**
+     * A reusable decision for a state
+     */
+    public static class Match {
+        private final String response;
+        private final String action;
+        private final double distance;
+
+        private Match(String response, String action, double distance) {
+            this.response = response;
+            this.action = action;
+            this.distance = distance;
+        }
+
+        /**
+         * @return The stored response with its action rebound to the new state
+         */
+        public String getResponse() {
+            return response;
+        }
+
+        /**
+         * @return The rebound action command
+         */
+        public String getAction() {
+            return action;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+
+    private static class Entry {
+        private final Map<String, Double> features;
+        private final String salt;
+        private final String response;
+        private final PortableAction action;
+        private final long[] buckets;
+
+        private Entry(Map<String, Double> features, String salt, String response, PortableAction action, long[] buckets) {
+            this.features = features;
+            this.salt = salt;
+            this.response = response;
+            this.action = action;
+            this.buckets = buckets;
+        }
+    }
+
+    private final double maxDistance;
+    private final int maxEntries;
+    private final boolean shadowMode;
+    private final double bucketWidth;
+    private final double[] offsets = new double[TABLES * PROJECTIONS];
+    private final Map<String, double[]> projections = new ConcurrentHashMap<>();
+
+    private final List<Map<Long, List<Entry>>> tables = new ArrayList<>(TABLES);
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong illegal = new AtomicLong();
+    private final AtomicLong shadowCompared = new AtomicLong();
+    private final AtomicLong shadowMatched = new AtomicLong();
+
+    /**
+     * @param maxDistance Largest feature distance at which a decision is reused
+     * @param maxEntries Decisions kept before the oldest ones are dropped
+     * @param shadowMode Only measure agreement with fresh answers instead of reusing decisions
+     */
+    public SimilarityCache(double maxDistance, int maxEntries, boolean shadowMode) {
+        this.maxDistance = Math.max(0, maxDistance);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.shadowMode = shadowMode;
+        // Wide enough that neighbours within maxDistance rarely straddle a bucket boundary
+        this.bucketWidth = Math.max(1.0, 4 * this.maxDistance);
+
+        Random random = new Random(SEED);
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = random.nextDouble() * bucketWidth;
+        }
+        for (int t = 0; t < TABLES; t++) {
+            tables.add(new HashMap<>());
+        }
+    }
+
+    public boolean isShadowMode() {
+        return shadowMode;
+    }
+
+    /**
+     * Find the closest stored decision that is legal in this state
+     * @param salt Only decisions stored with the same salt (e.g. system prompt) are considered
+     * @return The match, or null if there is none within maxDistance or the state is not a combat state
+     */
+    public Match lookup(GameState state, String salt) {
+        Map<String, Double> features = CombatFeatures.extract(state);
+        if (features == null) {
+            return null;
+        }
+        long[] buckets = buckets(features);
+
+        List<Entry> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (int t = 0; t < TABLES; t++) {
+                List<Entry> bucket = tables.get(t).get(buckets[t]);
+                if (bucket != null) {
+                    for (Entry entry : bucket) {
+                        if (!candidates.contains(entry)) {
+                            candidates.add(entry);
+                        }
+                    }
+                }
+            }
+        }
+
+        Match best = null;
+        boolean sawIllegal = false;
+        for (Entry entry : candidates) {
+            if (!entry.salt.equals(salt)) {
+                continue;
+            }
+            double distance = CombatFeatures.distance(features, entry.features);
+            if (distance > maxDistance || (best != null && distance >= best.distance)) {
+                continue;
+            }
+            String action = entry.action.bind(state);
+            if (action == null) {
+                sawIllegal = true;
+                continue;
+            }
+            best = new Match(rebind(entry.response, action), action, distance);
+        }
+
+        if (best != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            if (sawIllegal) {
+                illegal.incrementAndGet();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Store a fresh decision for a combat state
+     * @param action The action command taken from the response
+     */
+    public void store(GameState state, String salt, String response, String action) {
+        Map<String, Double> features = CombatFeatures.extract(state);
+        PortableAction portable = features != null ? PortableAction.of(state, action) : null;
+        if (portable == null) {
+            return;
+        }
+        Entry entry = new Entry(features, salt, response, portable, buckets(features));
+
+        synchronized (this) {
+            // A decision for the very same state replaces the old one
+            removeWithin(features, salt, 0);
+            entries.addLast(entry);
+            for (int t = 0; t < TABLES; t++) {
+                tables.get(t).computeIfAbsent(entry.buckets[t], k -> new ArrayList<>()).add(entry);
+            }
+            while (entries.size() > maxEntries) {
+                unindex(entries.removeFirst());
+            }
+        }
+    }
+
+    /**
+     * Drop the decisions that would be reused for this state, e.g. because one failed
+     */
+    public void invalidate(GameState state, String salt) {
+        Map<String, Double> features = CombatFeatures.extract(state);
+        if (features != null) {
+            synchronized (this) {
+                removeWithin(features, salt, maxDistance);
+            }
+        }
+    }
+
+    /**
+     * Record whether a shadow lookup agreed with the fresh LLM answer
+     * @param match The shadow lookup's result
+     * @param freshAction The action the LLM chose
+     */
+    public void recordShadow(Match match, String freshAction) {
+        shadowCompared.incrementAndGet();
+        if (CommandParser.parse(match.getAction()).toString().equals(CommandParser.parse(freshAction).toString())) {
+            shadowMatched.incrementAndGet();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Lookups that found a neighbour whose action was not legal in the new state
+     */
+    public long getIllegal() {
+        return illegal.get();
+    }
+
+    public long getShadowCompared() {
+        return shadowCompared.get();
+    }
+
+    public long getShadowMatched() {
+        return shadowMatched.get();
+    }
+
+    /**
+     * @return Share of shadow lookups whose action matched the fresh answer, between 0 and 1
+     */
+    public double getShadowMatchRate() {
+        long compared = getShadowCompared();
+        return compared == 0 ? 0 : (double) getShadowMatched() / compared;
+    }
+
+    @Override
+    public String toString() {
+        String stats = "entries=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() +
+                       ", illegal neighbours=" + getIllegal();
+        if (shadowMode) {
+            stats += String.format(", shadow agreement %d/%d (%.0f%%)",
+                    getShadowMatched(), getShadowCompared(), getShadowMatchRate() * 100);
+        }
+        return stats;
+    }
+
+    private void removeWithin(Map<String, Double> features, String salt, double distance) {
+        long[] buckets = buckets(features);
+        for (int t = 0; t < TABLES; t++) {
+            List<Entry> bucket = tables.get(t).get(buckets[t]);
+            if (bucket == null) {
+                continue;
+            }
+            for (Entry entry : new ArrayList<>(bucket)) {
+                if (entry.salt.equals(salt) && CombatFeatures.distance(features, entry.features) <= distance) {
+                    entries.remove(entry);
+                    unindex(entry);
+                }
+            }
+        }
+    }
+
+    private void unindex(Entry entry) {
+        for (int t = 0; t < TABLES; t++) {
+            List<Entry> bucket = tables.get(t).get(entry.buckets[t]);
+            if (bucket != null) {
+                bucket.remove(entry);
+                if (bucket.isEmpty()) {
+                    tables.get(t).remove(entry.buckets[t]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bucket of the vector in each table: the quantized projections, combined into one key
+     */
+    private long[] buckets(Map<String, Double> features) {
+        double[] dots = new double[TABLES * PROJECTIONS];
+        for (Map.Entry<String, Double> feature : features.entrySet()) {
+            double[] direction = projections.computeIfAbsent(feature.getKey(), SimilarityCache::direction);
+            double value = feature.getValue();
+            for (int i = 0; i < dots.length; i++) {
+                dots[i] += direction[i] * value;
+            }
+        }
+
+        long[] buckets = new long[TABLES];
+        for (int t = 0; t < TABLES; t++) {
+            long key = t;
+            for (int p = 0; p < PROJECTIONS; p++) {
+                int i = t * PROJECTIONS + p;
+                key = key * 1_000_003L + (long) Math.floor((dots[i] + offsets[i]) / bucketWidth);
+            }
+            buckets[t] = key;
+        }
+        return buckets;
+    }
+
+    /**
+     * The feature's component in every projection, derived from its name so it is
+     * the same in every session
+     */
+    private static double[] direction(String feature) {
+        Random random = new Random(SEED ^ feature.hashCode());
+        double[] direction = new double[TABLES * PROJECTIONS];
+        for (int i = 0; i < direction.length; i++) {
+            direction[i] = random.nextGaussian();
+        }
+        return direction;
+    }
+
+    /**
+     * Replace the ACTION: line(s) of a stored response. A turn plan is dropped,
+     * its indices belong to the old state.
+     */
+    private static String rebind(String response, String action) {
+        StringBuilder sb = new StringBuilder(response.length());
+        boolean replaced = false;
+        for (String line : response.split("\n")) {
+            if (line.trim().startsWith("PLAN:")) {
+                continue;
+            }
+            if (line.trim().startsWith("ACTION:")) {
+                line = "ACTION: " + action;
+                replaced = true;
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(line);
+        }
+        if (!replaced) {
+            sb.append("\nACTION: ").append(action);
+        }
+        return sb.toString();
+    }
+}
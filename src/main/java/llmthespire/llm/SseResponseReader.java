@@ -0,0 +1,237 @@
+package llmthespire.llm;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental reader for server-sent-event completions.
+ *
+ * Content deltas are accumulated as they arrive and reading stops as soon as a
+ * complete ACTION: line has been seen, so the game can move without waiting for
+ * the rest of the generation.
+ */
+public class SseResponseReader {
+    private static final Gson gson = new Gson();
+    private static final String ACTION_PREFIX = "ACTION:";
+
+    /**
+     * Wire formats of the supported streaming APIs
+     */
+    public enum Format {
+        OPENAI,     // data: {"choices":[{"delta":{"content":"..."}}]} ... data: [DONE]
+        ANTHROPIC   // data: {"type":"content_block_delta","delta":{"text":"..."}} ... message_stop
+    }
+
+    private final Format format;
+    private final StringBuilder content = new StringBuilder();
+    private int scannedUpTo = 0;
+    private int actionIndex = -1;
+    private boolean complete = false;
+    private boolean cutOff = false;
+    private TokenUsage usage;
+    private final ActionLogprob logprob = new ActionLogprob();
+
+    public SseResponseReader(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Read the event stream until the ACTION: line is complete or the stream ends.
+     * The stream is closed only when it was read to the end; after an early cutoff
+     * the caller must drop the connection instead of returning it to the pool.
+     * @param in The response body
+     * @return The content generated so far
+     */
+    public String read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("data:")) {
+                continue; // event names, comments and keep-alive blank lines
+            }
+
+            String data = line.substring("data:".length()).trim();
+            if (data.equals("[DONE]")) {
+                break;
+            }
+
+            String delta = parseDelta(data);
+            if (delta != null && !delta.isEmpty()) {
+                content.append(delta);
+                if (hasCompleteActionLine()) {
+                    cutOff = true;
+                    return content.toString();
+                }
+            }
+        }
+
+        // Drain whatever follows the terminal event so the socket can be kept alive
+        while (reader.readLine() != null) {
+            // discard
+        }
+        reader.close();
+        complete = true;
+        return content.toString();
+    }
+
+    /**
+     * @return True if the stream was read to the end and closed
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return True if reading stopped early after the ACTION: line
+     */
+    public boolean isCutOff() {
+        return cutOff;
+    }
+
+    /**
+     * @return Token usage reported by the events read so far, or null if none was.
+     *         After an early cutoff the completion count is incomplete.
+     */
+    public TokenUsage getUsage() {
+        return usage;
+    }
+
+    /**
+     * @return Summed logprob of the ACTION: line's tokens, or null if the stream had no logprobs
+     */
+    public Double getActionLogprob() {
+        return logprob.get();
+    }
+
+    /**
+     * Extract the text delta from one event payload
+     */
+    private String parseDelta(String data) throws IOException {
+        JsonObject event = gson.fromJson(data, JsonObject.class);
+        if (event == null) {
+            return null;
+        }
+        readUsage(event);
+
+        switch (format) {
+            case ANTHROPIC: {
+                String type = event.has("type") ? event.get("type").getAsString() : "";
+                if (type.equals("error")) {
+                    throw new IOException("Anthropic stream error: " + data);
+                }
+                if (type.equals("content_block_delta")) {
+                    JsonObject delta = event.getAsJsonObject("delta");
+                    if (delta != null && delta.has("text")) {
+                        return delta.get("text").getAsString();
+                    }
+                }
+                return null;
+            }
+            case OPENAI:
+            default: {
+                JsonArray choices = event.getAsJsonArray("choices");
+                if (choices == null || choices.size() == 0) {
+                    return null;
+                }
+                JsonObject choice = choices.get(0).getAsJsonObject();
+                readLogprobs(choice);
+                JsonObject delta = choice.getAsJsonObject("delta");
+                if (delta == null) {
+                    return null;
+                }
+                JsonElement text = delta.get("content");
+                return text != null && !text.isJsonNull() ? text.getAsString() : null;
+            }
+        }
+    }
+
+    /**
+     * Feed the token logprobs of an OpenAI chunk, if it has any
+     */
+    private void readLogprobs(JsonObject choice) {
+        JsonElement logprobs = choice.get("logprobs");
+        if (logprobs == null || !logprobs.isJsonObject()) {
+            return;
+        }
+        JsonElement tokens = logprobs.getAsJsonObject().get("content");
+        if (tokens == null || !tokens.isJsonArray()) {
+            return;
+        }
+        for (JsonElement element : tokens.getAsJsonArray()) {
+            if (!element.isJsonObject()) {
+                continue;
+            }
+            JsonObject token = element.getAsJsonObject();
+            JsonElement text = token.get("token");
+            JsonElement value = token.get("logprob");
+            if (text != null && !text.isJsonNull() && value != null && !value.isJsonNull()) {
+                logprob.add(text.getAsString(), value.getAsDouble());
+            }
+        }
+    }
+
+    /**
+     * Pick up usage from OpenAI's final chunk, Anthropic's message_delta or message_start
+     */
+    private void readUsage(JsonObject event) throws IOException {
+        JsonElement usageElement = event.get("usage");
+        JsonElement message = event.get("message");
+        if ((usageElement == null || !usageElement.isJsonObject()) && message != null && message.isJsonObject()) {
+            usageElement = message.getAsJsonObject().get("usage");
+        }
+        if (usageElement == null || !usageElement.isJsonObject()) {
+            return;
+        }
+
+        ResponseDecoder.Format usageFormat = format == Format.ANTHROPIC
+                ? ResponseDecoder.Format.ANTHROPIC
+                : ResponseDecoder.Format.OPENAI;
+        TokenUsage reported = ResponseDecoder.parseUsage(usageElement.toString(), usageFormat);
+        usage = usage == null ? reported : usage.merge(reported);
+    }
+
+    /**
+     * Check whether the accumulated content holds an ACTION: line followed by a newline
+     */
+    private boolean hasCompleteActionLine() {
+        while (actionIndex < 0) {
+            int from = Math.max(0, scannedUpTo - ACTION_PREFIX.length());
+            int index = content.indexOf(ACTION_PREFIX, from);
+            if (index < 0) {
+                scannedUpTo = content.length();
+                return false;
+            }
+            scannedUpTo = index + ACTION_PREFIX.length();
+            if (startsLine(index)) {
+                actionIndex = index;
+            }
+        }
+
+        int lineEnd = content.indexOf("\n", actionIndex);
+        return lineEnd >= 0 && content.substring(actionIndex + ACTION_PREFIX.length(), lineEnd).trim().length() > 0;
+    }
+
+    /**
+     * True if only whitespace separates the index from the start of its line
+     */
+    private boolean startsLine(int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            char c = content.charAt(i);
+            if (c == '\n') {
+                return true;
+            }
+            if (!Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,147 @@
+package llmthespire.llm;
+
+import llmthespire.game.GameStageType;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-stage latency and token histograms, used to tune the stage routing.
+ *
+ * Latency is measured end to end for each answered request, including queueing,
+ * retries and hedges; tokens are the totals the providers report per response.
+ */
+public class StageStats {
+    private static final long[] LATENCY_BOUNDS_MS = {500, 1000, 2000, 4000, 8000, 16000, 32000};
+    private static final long[] TOKEN_BOUNDS = {500, 1000, 2000, 4000, 8000, 16000};
+
+    private final Map<GameStageType, Stage> stages = new EnumMap<>(GameStageType.class);
+
+    /**
+     * Record the latency of an answered request
+     * @param sloMs The stage's latency target, 0 if it has none
+     */
+    synchronized void recordLatency(GameStageType stage, String apiName, long latencyMs, long sloMs) {
+        Stage stats = stageOf(stage);
+        stats.latency.record(latencyMs);
+        stats.recent.record(latencyMs);
+        stats.apiRequests.merge(apiName, 1L, Long::sum);
+        if (sloMs > 0 && latencyMs > sloMs) {
+            stats.sloMisses++;
+        }
+    }
+
+    /**
+     * Record the token usage a provider reported for a response
+     */
+    synchronized void recordTokens(GameStageType stage, TokenUsage usage) {
+        if (usage == null) {
+            return;
+        }
+        Stage stats = stageOf(stage);
+        stats.tokens.record(usage.getTotalTokens());
+        stats.promptTokens += usage.getPromptTokens();
+        stats.completionTokens += usage.getCompletionTokens();
+    }
+
+    /**
+     * @return Answered requests of a stage
+     */
+    public synchronized long getRequests(GameStageType stage) {
+        Stage stats = stages.get(stage);
+        return stats == null ? 0 : stats.latency.total;
+    }
+
+    /**
+     * @return A percentile of the stage's recent latencies, or -1 if there are none
+     */
+    public synchronized long percentile(GameStageType stage, double percentile) {
+        Stage stats = stages.get(stage);
+        return stats == null ? -1 : stats.recent.percentile(percentile);
+    }
+
+    /**
+     * Get a one-line summary of a stage
+     */
+    public synchronized String describe(GameStageType stage) {
+        Stage stats = stages.get(stage);
+        return stage + ": " + (stats == null ? "no requests" : stats.toString());
+    }
+
+    /**
+     * Get a summary of every stage that has seen requests, one per line
+     */
+    public synchronized String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<GameStageType, Stage> entry : stages.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private Stage stageOf(GameStageType stage) {
+        return stages.computeIfAbsent(stage, key -> new Stage());
+    }
+
+    /**
+     * Counters of one stage
+     */
+    private static class Stage {
+        private final Histogram latency = new Histogram(LATENCY_BOUNDS_MS, "ms");
+        private final Histogram tokens = new Histogram(TOKEN_BOUNDS, "");
+        private final LatencyTracker recent = new LatencyTracker(200);
+        private final Map<String, Long> apiRequests = new TreeMap<>();
+        private long sloMisses;
+        private long promptTokens;
+        private long completionTokens;
+
+        @Override
+        public String toString() {
+            return "requests=" + latency.total + " " + apiRequests +
+                   ", p50=" + recent.percentile(0.5) + "ms, p90=" + recent.percentile(0.9) + "ms" +
+                   ", SLO misses=" + sloMisses +
+                   ", latency " + latency +
+                   ", prompt tokens=" + promptTokens + ", completion tokens=" + completionTokens +
+                   ", tokens/response " + tokens;
+        }
+    }
+
+    /**
+     * Counts of values per bucket; the last bucket holds everything above the last bound
+     */
+    private static class Histogram {
+        private final long[] bounds;
+        private final long[] counts;
+        private final String unit;
+        private long total;
+
+        private Histogram(long[] bounds, String unit) {
+            this.bounds = bounds;
+            this.counts = new long[bounds.length + 1];
+            this.unit = unit;
+        }
+
+        private void record(long value) {
+            int bucket = 0;
+            while (bucket < bounds.length && value > bounds[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            total++;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < counts.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(i < bounds.length ? "<=" + bounds[i] : ">" + bounds[bounds.length - 1])
+                  .append(unit).append(": ").append(counts[i]);
+            }
+            return sb.append("]").toString();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package llmthespire.llm;
+
+import llmthespire.game.GameState;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Renders the volatile part of a request, the game state, from compiled templates.
+ *
+ * The fixed text of each section is compiled once into the templates below and
+ * their slots read nothing but the captured GameState, so rendering is safe on
+ * any thread and also works for predicted states. Sections are written into the
+ * thread's pooled PromptBudget buffer; see PromptBudget for how they are fitted.
+ */
+class StatePrompt {
+    private static final PromptTemplate<GameState> HEADER = new PromptTemplate.Builder<GameState>(
+            "Current Game State:\nStage: {stage}\n")
+            .slot("stage", (state, out) -> out.append(state.stage.getDisplayName()))
+            .build();
+
+    private static final PromptTemplate<GameState> PLAYER = new PromptTemplate.Builder<GameState>(
+            "\nPlayer Info:\nHP: {hp}/{maxHp}\n{energy}Hand Size: {handSize}\n")
+            .slot("hp", (state, out) -> out.append(state.currentHp))
+            .slot("maxHp", (state, out) -> out.append(state.maxHp))
+            .slot("energy", (state, out) -> {
+                GameState.BattleStageInfo battle = battle(state);
+                if (battle != null) {
+                    out.append("Energy: ").append(battle.energy).append('\n');
+                }
+            })
+            .slot("handSize", (state, out) -> out.append(state.hand.size()))
+            .build();
+
+    private static final PromptTemplate<GameState.CustomMonsterInfo> MONSTER =
+            new PromptTemplate.Builder<GameState.CustomMonsterInfo>("{name} (HP: {hp}/{maxHp}, Intent: {intent})\n")
+                .slot("name", (monster, out) -> out.append(monster.name))
+                .slot("hp", (monster, out) -> out.append(monster.currentHp))
+                .slot("maxHp", (monster, out) -> out.append(monster.maxHp))
+                .slot("intent", (monster, out) -> out.append(monster.intent))
+                .build();
+
+    private final CardDictionary dictionary;
+    private final PromptTemplate<GameState.CardInfo> handCard;
+
+    StatePrompt(CardDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.handCard = new PromptTemplate.Builder<GameState.CardInfo>("{code} (Cost: {cost}, Type: {type}{target})\n")
+                .slot("code", (card, out) -> out.append(dictionary.code(card)))
+                .slot("cost", (card, out) -> out.append(card.costForTurn))
+                .slot("type", (card, out) -> out.append(card.type))
+                .slot("target", (card, out) -> {
+                    if ("ENEMY".equals(card.target) || "SELF_AND_ENEMY".equals(card.target)) {
+                        out.append(", Requires Target");
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * @param maxTokens The prompt budget, 0 for none
+     * @param collection Whether to add the relics, potions and piles and the reference of their codes
+     * @param codes Collects the dictionary codes the prompt uses
+     */
+    String render(GameState state, long maxTokens, boolean collection, Set<String> codes) {
+        PromptBudget prompt = PromptBudget.forThread(dictionary, maxTokens);
+        boolean player = state.maxHp > 0;
+        GameState.BattleStageInfo battle = battle(state);
+
+        StringBuilder out = prompt.begin(PromptBudget.PLAYER);
+        HEADER.render(state, out);
+        if (player) {
+            PLAYER.render(state, out);
+        }
+        prompt.end();
+
+        if (player && !state.hand.isEmpty()) {
+            out = prompt.begin(PromptBudget.HAND).append("\nHand:\n");
+            for (int i = 0; i < state.hand.size(); i++) {
+                GameState.CardInfo card = state.hand.get(i);
+                if (collection) {
+                    prompt.codes().add(dictionary.code(card));
+                }
+                out.append(i).append(": ");
+                handCard.render(card, out);
+            }
+            prompt.end();
+        }
+
+        // The living monsters, indexed as ActionExecutor targets them
+        if (battle != null && !battle.monsters.isEmpty()) {
+            out = prompt.begin(PromptBudget.MONSTERS).append("\nMonsters:\n");
+            for (int i = 0; i < battle.monsters.size(); i++) {
+                out.append(i).append(": ");
+                MONSTER.render(battle.monsters.get(i), out);
+            }
+            prompt.end();
+        }
+
+        out = prompt.begin(PromptBudget.ACTIONS).append("\nAvailable Actions:\n");
+        for (String action : state.availableActions) {
+            out.append("- ").append(action).append('\n');
+        }
+        prompt.end();
+
+        // Relics and potions are listed by code either way; summarized, they lose their reference lines
+        if (player && collection) {
+            dictionary.appendRelics(state.relics, prompt.begin(PromptBudget.RELICS), prompt.codes());
+            prompt.endOptional();
+            dictionary.appendPotions(state.potions, prompt.begin(PromptBudget.POTIONS), prompt.codes());
+            prompt.endOptional();
+            addPile(prompt, PromptBudget.DRAW_PILE, "Draw Pile", state.drawPile);
+            addPile(prompt, PromptBudget.DISCARD_PILE, "Discard Pile", state.discardPile);
+            addPile(prompt, PromptBudget.EXHAUST_PILE, "Exhaust Pile", state.exhaustPile);
+        }
+
+        return prompt.render(codes);
+    }
+
+    /**
+     * Add a pile as counts by card, summarized as counts by card type
+     */
+    private void addPile(PromptBudget prompt, int priority, String title, List<GameState.CardInfo> pile) {
+        StringBuilder out = prompt.begin(priority);
+        dictionary.appendPile(title, pile, out, prompt.codes());
+        prompt.summary();
+        dictionary.appendPileSummary(title, pile, out);
+        prompt.endOptional();
+    }
+
+    private static GameState.BattleStageInfo battle(GameState state) {
+        return state.stageInfo instanceof GameState.BattleStageInfo ? (GameState.BattleStageInfo) state.stageInfo : null;
+    }
+}
@@ -0,0 +1,67 @@
+package llmthespire.llm;
+
+/**
+ * Approximates how many tokens a BPE tokenizer such as cl100k splits text into,
+ * without bundling its vocabulary.
+ *
+ * A word with its leading space is one token up to seven letters and about one
+ * per five letters beyond that; a number is one token per three digits; other
+ * symbols are a token each; a run of line breaks or extra spaces is one token.
+ * Letters of CJK and similar scripts are a token each. Unlike a flat four
+ * characters per token, this does not undercount the numbers, punctuation and
+ * short lines that make up most of a game state prompt.
+ */
+class TokenEstimator {
+    private TokenEstimator() {
+    }
+
+    static long estimate(CharSequence text) {
+        return text == null ? 0 : estimate(text, 0, text.length());
+    }
+
+    /**
+     * Estimate a range of the text without copying it
+     */
+    static long estimate(CharSequence text, int start, int end) {
+        long tokens = 0;
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            int from = i;
+            if (isWide(c)) {
+                tokens++;
+                i++;
+            } else if (Character.isLetter(c)) {
+                while (i < end && Character.isLetter(text.charAt(i)) && !isWide(text.charAt(i))) {
+                    i++;
+                }
+                int letters = i - from;
+                tokens += letters <= 7 ? 1 : (letters + 3) / 5;
+            } else if (Character.isDigit(c)) {
+                while (i < end && Character.isDigit(text.charAt(i))) {
+                    i++;
+                }
+                tokens += (i - from + 2) / 3;
+            } else if (Character.isWhitespace(c)) {
+                while (i < end && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                // A single space belongs to the word after it
+                if (i - from > 1 || c != ' ') {
+                    tokens++;
+                }
+            } else {
+                tokens++;
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Scripts without spaces between words, where a letter is about a token
+     */
+    private static boolean isWide(char c) {
+        return c >= '\u2E80' && Character.isLetter(c);
+    }
+}
@@ -0,0 +1,75 @@
+package llmthespire.llm;
+
+/**
+ * Token counts reported by a provider for one response.
+ * Prompt tokens always include the ones served from the provider's prompt cache.
+ */
+public class TokenUsage {
+    private final long promptTokens;
+    private final long completionTokens;
+    private final long cachedPromptTokens;
+    private final long cacheWriteTokens;
+
+    public TokenUsage(long promptTokens, long completionTokens) {
+        this(promptTokens, completionTokens, 0, 0);
+    }
+
+    /**
+     * @param promptTokens All prompt tokens, cached or not
+     * @param completionTokens Generated tokens
+     * @param cachedPromptTokens Prompt tokens read from the provider's cache
+     * @param cacheWriteTokens Prompt tokens written to the provider's cache
+     */
+    public TokenUsage(long promptTokens, long completionTokens, long cachedPromptTokens, long cacheWriteTokens) {
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+        this.cachedPromptTokens = cachedPromptTokens;
+        this.cacheWriteTokens = cacheWriteTokens;
+    }
+
+    public long getPromptTokens() {
+        return promptTokens;
+    }
+
+    public long getCompletionTokens() {
+        return completionTokens;
+    }
+
+    /**
+     * @return Prompt tokens served from the provider's prompt cache
+     */
+    public long getCachedPromptTokens() {
+        return cachedPromptTokens;
+    }
+
+    /**
+     * @return Prompt tokens written to the provider's prompt cache
+     */
+    public long getCacheWriteTokens() {
+        return cacheWriteTokens;
+    }
+
+    public long getTotalTokens() {
+        return promptTokens + completionTokens;
+    }
+
+    /**
+     * Combine two partial reports of the same response (e.g. from different stream
+     * events) by keeping the larger value of each counter
+     */
+    public TokenUsage merge(TokenUsage other) {
+        if (other == null) {
+            return this;
+        }
+        return new TokenUsage(Math.max(promptTokens, other.promptTokens),
+                Math.max(completionTokens, other.completionTokens),
+                Math.max(cachedPromptTokens, other.cachedPromptTokens),
+                Math.max(cacheWriteTokens, other.cacheWriteTokens));
+    }
+
+    @Override
+    public String toString() {
+        return "prompt=" + promptTokens + " (cached=" + cachedPromptTokens + ", cache write=" + cacheWriteTokens + ")" +
+               ", completion=" + completionTokens;
+    }
+}
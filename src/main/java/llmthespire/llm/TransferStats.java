@@ -0,0 +1,127 @@
+package llmthespire.llm;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Bytes sent and received by provider calls, before and after compression
+ */
+public class TransferStats {
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong requestWireBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong responseWireBytes = new AtomicLong();
+
+    void recordRequest(long bodyBytes) {
+        requestBytes.addAndGet(bodyBytes);
+    }
+
+    /**
+     * Count the bytes written to the connection
+     */
+    OutputStream countRequestWire(OutputStream out) {
+        return new CountingOutputStream(out, requestWireBytes);
+    }
+
+    /**
+     * Wrap a response body, counting wire bytes and decoding gzip if the server used it
+     * @param raw The stream from the connection, may be null
+     * @param contentEncoding The response's Content-Encoding header
+     * @return The decoded body, or null if raw was null
+     */
+    InputStream responseStream(InputStream raw, String contentEncoding) throws IOException {
+        if (raw == null) {
+            return null;
+        }
+        InputStream wire = new CountingInputStream(raw, responseWireBytes);
+        InputStream decoded = "gzip".equalsIgnoreCase(contentEncoding) ? new GZIPInputStream(wire) : wire;
+        return new CountingInputStream(decoded, responseBytes);
+    }
+
+    /**
+     * @return Request body bytes before compression
+     */
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    /**
+     * @return Request body bytes as sent
+     */
+    public long getRequestWireBytes() {
+        return requestWireBytes.get();
+    }
+
+    /**
+     * @return Response body bytes after decompression
+     */
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    /**
+     * @return Response body bytes as received
+     */
+    public long getResponseWireBytes() {
+        return responseWireBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "request " + getRequestWireBytes() + "/" + getRequestBytes() + " bytes, " +
+               "response " + getResponseWireBytes() + "/" + getResponseBytes() + " bytes (wire/decoded)";
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final AtomicLong counter;
+
+        private CountingOutputStream(OutputStream out, AtomicLong counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counter.addAndGet(len);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        private CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package llmthespire.llm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Session totals of the token usage reported by providers
+ */
+public class UsageStats {
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong promptTokens = new AtomicLong();
+    private final AtomicLong completionTokens = new AtomicLong();
+    private final AtomicLong cachedPromptTokens = new AtomicLong();
+    private final AtomicLong cacheWriteTokens = new AtomicLong();
+
+    void record(TokenUsage usage) {
+        responses.incrementAndGet();
+        promptTokens.addAndGet(usage.getPromptTokens());
+        completionTokens.addAndGet(usage.getCompletionTokens());
+        cachedPromptTokens.addAndGet(usage.getCachedPromptTokens());
+        cacheWriteTokens.addAndGet(usage.getCacheWriteTokens());
+    }
+
+    /**
+     * @return Responses that reported their usage
+     */
+    public long getResponses() {
+        return responses.get();
+    }
+
+    public long getPromptTokens() {
+        return promptTokens.get();
+    }
+
+    public long getCompletionTokens() {
+        return completionTokens.get();
+    }
+
+    /**
+     * @return Prompt tokens served from the providers' prompt caches
+     */
+    public long getCachedPromptTokens() {
+        return cachedPromptTokens.get();
+    }
+
+    /**
+     * @return Prompt tokens written to the providers' prompt caches
+     */
+    public long getCacheWriteTokens() {
+        return cacheWriteTokens.get();
+    }
+
+    /**
+     * @return Share of prompt tokens served from cache, between 0 and 1
+     */
+    public double getCacheHitRate() {
+        long prompt = getPromptTokens();
+        return prompt == 0 ? 0 : (double) getCachedPromptTokens() / prompt;
+    }
+
+    @Override
+    public String toString() {
+        return "responses=" + getResponses() + ", prompt tokens=" + getPromptTokens() +
+               ", cached prompt tokens=" + getCachedPromptTokens() +
+               String.format(" (%.0f%%)", getCacheHitRate() * 100) +
+               ", completion tokens=" + getCompletionTokens();
+    }
+}
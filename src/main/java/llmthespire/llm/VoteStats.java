@@ -0,0 +1,71 @@
+package llmthespire.llm;
+
+/**
+ * Counters for self-consistency voting: how votes ended, how many samples the
+ * early quorum cancelled, and the end-to-end latency of a vote next to the
+ * latency of a single sample.
+ */
+public class VoteStats {
+    private final LatencyTracker voteLatency = new LatencyTracker(200);
+    private final LatencyTracker sampleLatency = new LatencyTracker(500);
+    private long votes;
+    private long quorums;
+    private long unanimous;
+    private long failed;
+    private long samplesCancelled;
+    private long invalidSamples;
+
+    /**
+     * Record a finished vote
+     * @param quorum Whether an action reached the quorum before all samples had answered
+     * @param unanimous Whether every counted sample chose the same action
+     * @param cancelled Samples still outstanding when the vote ended
+     */
+    synchronized void recordVote(long latencyMs, boolean quorum, boolean unanimous, int cancelled) {
+        votes++;
+        voteLatency.record(latencyMs);
+        if (quorum) {
+            quorums++;
+        }
+        if (unanimous) {
+            this.unanimous++;
+        }
+        samplesCancelled += cancelled;
+    }
+
+    /**
+     * Record a vote in which no sample gave a usable action
+     */
+    synchronized void recordFailed() {
+        votes++;
+        failed++;
+    }
+
+    synchronized void recordSample(long latencyMs, boolean valid) {
+        sampleLatency.record(latencyMs);
+        if (!valid) {
+            invalidSamples++;
+        }
+    }
+
+    /**
+     * @return Votes held
+     */
+    public synchronized long getVotes() {
+        return votes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "votes=" + votes + ", ended by quorum=" + quorums + ", unanimous=" + unanimous + ", failed=" + failed +
+               ", samples cancelled=" + samplesCancelled + ", invalid samples=" + invalidSamples +
+               ", vote latency " + percentiles(voteLatency) + ", sample latency " + percentiles(sampleLatency);
+    }
+
+    private static String percentiles(LatencyTracker tracker) {
+        if (tracker.size() == 0) {
+            return "n/a";
+        }
+        return "p50=" + tracker.percentile(0.5) + "ms p90=" + tracker.percentile(0.9) + "ms (" + tracker.size() + " samples)";
+    }
+}
@@ -0,0 +1,98 @@
+package llmthespire.policy;
+
+import llmthespire.game.GameState;
+
+import java.util.List;
+
+/**
+ * Serves combat decisions from a PolicyModel trained on earlier LLM decisions.
+ *
+ * The model answers only when its top play is at least minConfidence likely;
+ * otherwise, and outside combat, the caller asks the LLM as usual. Only used
+ * from the game thread.
+ */
+public class DecisionPolicy {
+    private final PolicyModel model;
+    private final double minConfidence;
+    private long served;
+    private long declined;
+    private long totalNanos;
+
+    public DecisionPolicy(PolicyModel model, double minConfidence) {
+        this.model = model;
+        this.minConfidence = minConfidence;
+    }
+
+    /**
+     * Let the model pick a play for a combat state
+     * @return The model's decision, or null if it is not confident enough
+     */
+    public Decision decide(GameState state) {
+        long start = System.nanoTime();
+        try {
+            List<PolicyModel.Candidate> candidates = PolicyModel.candidates(state);
+            if (candidates.size() < 2) {
+                return null;
+            }
+            double[] probabilities = model.probabilities(state, candidates);
+            int best = 0;
+            for (int i = 1; i < probabilities.length; i++) {
+                if (probabilities[i] > probabilities[best]) {
+                    best = i;
+                }
+            }
+            if (probabilities[best] < minConfidence) {
+                declined++;
+                return null;
+            }
+            served++;
+            return new Decision(candidates.get(best).getCommand(), probabilities[best]);
+        } finally {
+            totalNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return Decisions answered by the model
+     */
+    public long getServed() {
+        return served;
+    }
+
+    /**
+     * @return Combat decisions left to the LLM because the model was unsure
+     */
+    public long getDeclined() {
+        return declined;
+    }
+
+    @Override
+    public String toString() {
+        long consulted = served + declined;
+        return "served=" + served + ", declined=" + declined +
+               ", avg time=" + (consulted == 0 ? 0 : totalNanos / consulted / 1000) + "us" +
+               ", trained on " + model.getSamples() + " decisions" +
+               String.format(", held-out accuracy=%.1f%%", model.getHoldoutAccuracy() * 100);
+    }
+
+    /**
+     * The play the model chose
+     */
+    public static class Decision {
+        private final String action;
+        private final double confidence;
+
+        private Decision(String action, double confidence) {
+            this.action = action;
+            this.confidence = confidence;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public double getConfidence() {
+            return confidence;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package llmthespire.policy;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import llmthespire.game.CommandParser;
+import llmthespire.game.GameStageType;
+import llmthespire.game.GameState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Conditional logistic regression over the legal plays of a combat state.
+ *
+ * Every candidate play (each playable card, per target for cards aimed at one monster, and
+ * END_TURN) gets a sparse feature vector: the card id and type, each crossed
+ * with the hand, energy, HP and monster intents, plus a few features of the
+ * target. A candidate's score is the dot product with the weights; the softmax
+ * over the candidates of a state is the probability the LLM would have chosen it.
+ * Potions are left to the LLM.
+ */
+public class PolicyModel {
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    static final int FORMAT_VERSION = 1;
+
+    /** HP is expressed in quarters of the maximum */
+    private static final int HP_BUCKETS = 4;
+
+    private int version = FORMAT_VERSION;
+    private int samples;
+    private double holdoutAccuracy;
+    private Map<String, Double> weights = new HashMap<>();
+
+    PolicyModel() {
+    }
+
+    /**
+     * Load a model written by PolicyTrainer
+     * @throws IOException If the file cannot be read or is not a model of this version
+     */
+    public static PolicyModel load(File file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            PolicyModel model = gson.fromJson(reader, PolicyModel.class);
+            if (model == null || model.weights == null || model.version != FORMAT_VERSION) {
+                throw new IOException("Not a policy model of version " + FORMAT_VERSION + ": " + file);
+            }
+            return model;
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid policy model " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    void save(File file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            gson.toJson(this, writer);
+        }
+    }
+
+    /**
+     * The plays the model chooses between: END_TURN and every card that can be played now.
+     * Copies of the same card are one candidate, so they do not split its probability.
+     * @return The candidates, or an empty list if the state is not a combat state
+     */
+    public static List<Candidate> candidates(GameState state) {
+        List<Candidate> candidates = new ArrayList<>();
+        GameState.BattleStageInfo battle = battleInfo(state);
+        if (battle == null) {
+            return candidates;
+        }
+
+        candidates.add(new Candidate("END_TURN", null, -1));
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < state.hand.size(); i++) {
+            GameState.CardInfo card = state.hand.get(i);
+            if (!card.canUse || card.cost > battle.energy || !seen.add(cardKey(card))) {
+                continue;
+            }
+            if (needsTarget(card) && !battle.monsters.isEmpty()) {
+                for (int target = 0; target < battle.monsters.size(); target++) {
+                    candidates.add(new Candidate("PLAY_CARD " + i + " " + target, card, target));
+                }
+            } else {
+                candidates.add(new Candidate("PLAY_CARD " + i, card, -1));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return True for cards played at one chosen monster; area attacks such as Cleave are not
+     */
+    private static boolean needsTarget(GameState.CardInfo card) {
+        return "ENEMY".equals(card.target) || "SELF_AND_ENEMY".equals(card.target);
+    }
+
+    /**
+     * The candidate a command refers to. A targeted card without a target counts as
+     * aimed at the first monster, which is what ActionExecutor picks for it.
+     * @return The index in candidates, or -1 if the command is none of them
+     */
+    public static int indexOf(GameState state, List<Candidate> candidates, String command) {
+        CommandParser.Command parsed = CommandParser.parse(command);
+        if (parsed.getType() == CommandParser.CommandType.END_TURN) {
+            return 0;
+        }
+        int index = parsed.getParameter(0);
+        if (parsed.getType() != CommandParser.CommandType.PLAY_CARD || index < 0 || index >= state.hand.size()) {
+            return -1;
+        }
+        String card = cardKey(state.hand.get(index));
+        int target = parsed.getParameterCount() > 1 ? parsed.getParameter(1) : 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            if (candidate.card != null && cardKey(candidate.card).equals(card)
+                    && (candidate.target < 0 || candidate.target == target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Softmax probability of each candidate
+     */
+    public double[] probabilities(GameState state, List<Candidate> candidates) {
+        List<Map<String, Double>> features = features(state, candidates);
+        double[] scores = new double[candidates.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = score(features.get(i));
+        }
+        return softmax(scores);
+    }
+
+    /**
+     * Sparse features of each candidate in the state
+     */
+    static List<Map<String, Double>> features(GameState state, List<Candidate> candidates) {
+        Map<String, Double> context = context(state);
+        GameState.BattleStageInfo battle = battleInfo(state);
+        int lowestHp = Integer.MAX_VALUE;
+        if (battle != null) {
+            for (GameState.CustomMonsterInfo monster : battle.monsters) {
+                lowestHp = Math.min(lowestHp, monster.currentHp);
+            }
+        }
+
+        List<Map<String, Double>> result = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            Map<String, Double> features = new HashMap<>();
+            List<String> tokens = new ArrayList<>(2);
+            if (candidate.card == null) {
+                tokens.add("end");
+            } else {
+                tokens.add("card:" + candidate.card.id + (candidate.card.upgraded ? "+" : ""));
+                tokens.add("type:" + candidate.card.type);
+                if (battle != null && candidate.card.cost == battle.energy) {
+                    features.put("type:" + candidate.card.type + "|spends-all", 1.0);
+                }
+            }
+            for (String token : tokens) {
+                features.put(token, 1.0);
+                for (Map.Entry<String, Double> entry : context.entrySet()) {
+                    features.put(token + "|" + entry.getKey(), entry.getValue());
+                }
+            }
+            if (battle != null && candidate.target >= 0 && candidate.target < battle.monsters.size()) {
+                GameState.CustomMonsterInfo monster = battle.monsters.get(candidate.target);
+                String card = tokens.get(0);
+                features.put(card + "|target-intent:" + monster.intent, 1.0);
+                features.put(card + "|target-hp=" + hpBucket(monster.currentHp, monster.maxHp), 1.0);
+                if (monster.currentHp == lowestHp) {
+                    features.put(card + "|target-lowest", 1.0);
+                }
+            }
+            result.add(features);
+        }
+        return result;
+    }
+
+    /**
+     * Features of the state shared by all candidates, as indicators
+     */
+    private static Map<String, Double> context(GameState state) {
+        Map<String, Double> context = new HashMap<>();
+        GameState.BattleStageInfo battle = battleInfo(state);
+        if (battle == null) {
+            return context;
+        }
+        context.put("energy=" + Math.min(battle.energy, 5), 1.0);
+        context.put("hp=" + hpBucket(state.currentHp, state.maxHp), 1.0);
+        for (GameState.CardInfo card : state.hand) {
+            context.merge("hand:" + card.id + (card.upgraded ? "+" : ""), 1.0, Double::sum);
+        }
+        for (GameState.CustomMonsterInfo monster : battle.monsters) {
+            context.put("intent:" + monster.intent, 1.0);
+        }
+        context.put("monsters=" + Math.min(battle.monsters.size(), 3), 1.0);
+        return context;
+    }
+
+    double score(Map<String, Double> features) {
+        double sum = 0;
+        for (Map.Entry<String, Double> feature : features.entrySet()) {
+            Double weight = weights.get(feature.getKey());
+            if (weight != null) {
+                sum += weight * feature.getValue();
+            }
+        }
+        return sum;
+    }
+
+    static double[] softmax(double[] scores) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double score : scores) {
+            max = Math.max(max, score);
+        }
+        double sum = 0;
+        double[] result = new double[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            result[i] = Math.exp(scores[i] - max);
+            sum += result[i];
+        }
+        for (int i = 0; i < result.length; i++) {
+            result[i] /= sum;
+        }
+        return result;
+    }
+
+    private static String cardKey(GameState.CardInfo card) {
+        return card.id + (card.upgraded ? "+" : "") + "/" + card.cost;
+    }
+
+    private static int hpBucket(int currentHp, int maxHp) {
+        if (maxHp <= 0 || currentHp <= 0) {
+            return 0;
+        }
+        return (int) Math.ceil(Math.min(currentHp, maxHp) * (double) HP_BUCKETS / maxHp);
+    }
+
+    private static GameState.BattleStageInfo battleInfo(GameState state) {
+        if (state.stage != GameStageType.BATTLE || !(state.stageInfo instanceof GameState.BattleStageInfo)) {
+            return null;
+        }
+        return (GameState.BattleStageInfo) state.stageInfo;
+    }
+
+    Map<String, Double> getWeights() {
+        return weights;
+    }
+
+    /**
+     * @return Decisions the model was trained on
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    void setSamples(int samples) {
+        this.samples = samples;
+    }
+
+    /**
+     * @return Share of held-out decisions where the model's top play matched the LLM
+     */
+    public double getHoldoutAccuracy() {
+        return holdoutAccuracy;
+    }
+
+    void setHoldoutAccuracy(double holdoutAccuracy) {
+        this.holdoutAccuracy = holdoutAccuracy;
+    }
+
+    /**
+     * A play the model can choose
+     */
+    public static class Candidate {
+        private final String command;
+        private final GameState.CardInfo card;
+        private final int target;
+
+        private Candidate(String command, GameState.CardInfo card, int target) {
+            this.command = command;
+            this.card = card;
+            this.target = target;
+        }
+
+        /**
+         * @return The command for the state the candidate was made for
+         */
+        public String getCommand() {
+            return command;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package llmthespire.policy;
+
+import llmthespire.game.GameState;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Offline trainer for PolicyModel.
+ *
+ * Reads the llm_session_*.log files the autoplay controller writes, pairs each
+ * combat state with the action that was executed for it successfully, and fits
+ * the model with stochastic gradient descent. A fifth of the decisions is held
+ * out first to report how often the model agrees with the LLM at different
+ * confidence thresholds; the saved model is then trained on all of them.
+ *
+ * Run outside the game with the mod and the game jar on the classpath:
+ * java -cp LLMTheSpire.jar:desktop-1.0.jar llmthespire.policy.PolicyTrainer &lt;log dir&gt; &lt;model file&gt; [epochs]
+ */
+public class PolicyTrainer {
+    private static final Pattern SECTION = Pattern.compile("^\\[\\d{2}:\\d{2}:\\d{2}\\.\\d{3}] ([A-Z ]+):$");
+    private static final double LEARNING_RATE = 0.05;
+    private static final double L2 = 1e-4;
+    private static final double MIN_WEIGHT = 1e-4;
+    private static final double[] THRESHOLDS = {0.5, 0.6, 0.7, 0.8, 0.9, 0.95};
+
+    private PolicyTrainer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PolicyTrainer <conversation log dir> <model file> [epochs]");
+            System.exit(2);
+        }
+        File logDir = new File(args[0]);
+        File modelFile = new File(args[1]);
+        int epochs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        List<Sample> samples = readLogs(logDir);
+        System.out.println("Read " + samples.size() + " combat decisions from " + logDir);
+        if (samples.isEmpty()) {
+            System.exit(1);
+        }
+
+        // Evaluate on held-out decisions before training on everything
+        Collections.shuffle(samples, new Random(42));
+        int split = samples.size() * 4 / 5;
+        PolicyModel model = train(samples.subList(0, split), epochs);
+        double accuracy = evaluate(model, samples.subList(split, samples.size()));
+
+        model = train(samples, epochs);
+        model.setSamples(samples.size());
+        model.setHoldoutAccuracy(accuracy);
+        model.save(modelFile);
+        System.out.println("Saved " + model.getWeights().size() + " weights to " + modelFile);
+    }
+
+    /**
+     * Read the (state, action) pairs of all session logs in a directory
+     */
+    static List<Sample> readLogs(File logDir) throws IOException {
+        List<Sample> samples = new ArrayList<>();
+        File[] files = logDir.listFiles((dir, name) -> name.startsWith("llm_session_") && name.endsWith(".log"));
+        if (files == null) {
+            throw new IOException("Not a directory: " + logDir);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            readLog(file, samples);
+        }
+        return samples;
+    }
+
+    /**
+     * Each GAME STATE section is followed by an LLM ACTION and a RESULT section.
+     * The state is its JSON, on one line or pretty-printed as older logs have it.
+     * Only successful LLM decisions are kept: actions of the local rules, the policy
+     * and the search are marked with a "Local ..." reasoning and skipped, and so are
+     * the later steps of a turn plan ("Planned step ..."), which the LLM chose without
+     * seeing the state they were played in.
+     */
+    private static void readLog(File file, List<Sample> samples) throws IOException {
+        String section = null;
+        StringBuilder body = new StringBuilder();
+        GameState state = null;
+        String action = null;
+        boolean local = false;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while (true) {
+                line = reader.readLine();
+                Matcher header = line != null ? SECTION.matcher(line) : null;
+                if (line != null && !header.matches()) {
+                    body.append(line).append('\n');
+                    continue;
+                }
+
+                // A section ended: act on what it contained
+                if ("GAME STATE".equals(section)) {
+                    state = GameState.fromJson(body.toString());
+                    action = null;
+                } else if ("LLM ACTION".equals(section)) {
+                    action = null;
+                    local = false;
+                    for (String actionLine : body.toString().split("\n")) {
+                        String trimmed = actionLine.trim();
+                        if (trimmed.startsWith("ACTION:")) {
+                            action = trimmed.substring("ACTION:".length()).trim();
+                        } else if (trimmed.startsWith("Local ") || trimmed.startsWith("Planned step ")) {
+                            local = true;
+                        }
+                    }
+                } else if ("RESULT".equals(section)) {
+                    if (state != null && action != null && !local && body.toString().trim().startsWith("SUCCESS")) {
+                        Sample sample = Sample.of(state, action);
+                        if (sample != null) {
+                            samples.add(sample);
+                        }
+                    }
+                    state = null;
+                    action = null;
+                }
+
+                if (line == null) {
+                    break;
+                }
+                section = header.group(1);
+                body.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Fit the weights by stochastic gradient descent on the log-likelihood of the chosen plays
+     */
+    static PolicyModel train(List<Sample> samples, int epochs) {
+        PolicyModel model = new PolicyModel();
+        Map<String, Double> weights = model.getWeights();
+        List<Sample> order = new ArrayList<>(samples);
+        Random random = new Random(7);
+
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            Collections.shuffle(order, random);
+            double rate = LEARNING_RATE / (1 + epoch * 0.5);
+            for (Sample sample : order) {
+                double[] scores = new double[sample.features.size()];
+                for (int i = 0; i < scores.length; i++) {
+                    scores[i] = model.score(sample.features.get(i));
+                }
+                double[] probabilities = PolicyModel.softmax(scores);
+                for (int i = 0; i < scores.length; i++) {
+                    double gradient = (i == sample.chosen ? 1 : 0) - probabilities[i];
+                    for (Map.Entry<String, Double> feature : sample.features.get(i).entrySet()) {
+                        double weight = weights.getOrDefault(feature.getKey(), 0.0);
+                        weights.put(feature.getKey(), weight + rate * (gradient * feature.getValue() - L2 * weight));
+                    }
+                }
+            }
+        }
+        weights.values().removeIf(weight -> Math.abs(weight) < MIN_WEIGHT);
+        return model;
+    }
+
+    /**
+     * Print coverage and agreement with the LLM per confidence threshold
+     * @return Overall share of decisions where the top play matched
+     */
+    static double evaluate(PolicyModel model, List<Sample> samples) {
+        int[] answered = new int[THRESHOLDS.length];
+        int[] correct = new int[THRESHOLDS.length];
+        int matched = 0;
+        for (Sample sample : samples) {
+            double[] scores = new double[sample.features.size()];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = model.score(sample.features.get(i));
+            }
+            double[] probabilities = PolicyModel.softmax(scores);
+            int best = 0;
+            for (int i = 1; i < probabilities.length; i++) {
+                if (probabilities[i] > probabilities[best]) {
+                    best = i;
+                }
+            }
+            if (best == sample.chosen) {
+                matched++;
+            }
+            for (int t = 0; t < THRESHOLDS.length; t++) {
+                if (probabilities[best] >= THRESHOLDS[t]) {
+                    answered[t]++;
+                    if (best == sample.chosen) {
+                        correct[t]++;
+                    }
+                }
+            }
+        }
+
+        double accuracy = samples.isEmpty() ? 0 : (double) matched / samples.size();
+        System.out.println(String.format("Held-out decisions: %d, top play matches the LLM: %.1f%%",
+                samples.size(), accuracy * 100));
+        for (int t = 0; t < THRESHOLDS.length; t++) {
+            System.out.println(String.format("  minConfidence %.2f: answers %.1f%%, of which %.1f%% match",
+                    THRESHOLDS[t],
+                    samples.isEmpty() ? 0 : answered[t] * 100.0 / samples.size(),
+                    answered[t] == 0 ? 0 : correct[t] * 100.0 / answered[t]));
+        }
+        return accuracy;
+    }
+
+    /**
+     * A combat state with its candidate features and the candidate the LLM chose
+     */
+    static class Sample {
+        private final List<Map<String, Double>> features;
+        private final int chosen;
+
+        private Sample(List<Map<String, Double>> features, int chosen) {
+            this.features = features;
+            this.chosen = chosen;
+        }
+
+        /**
+         * @return The sample, or null if the action is not one of the model's candidates (e.g. a potion)
+         */
+        static Sample of(GameState state, String action) {
+            List<PolicyModel.Candidate> candidates = PolicyModel.candidates(state);
+            if (candidates.size() < 2) {
+                return null;
+            }
+            int chosen = PolicyModel.indexOf(state, candidates, action);
+            if (chosen < 0) {
+                return null;
+            }
+            return new Sample(PolicyModel.features(state, candidates), chosen);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package llmthespire.search;
+
+import llmthespire.game.GameStageType;
+import llmthespire.game.GameState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact, immutable picture of the player's turn for CombatSearch.
+ *
+ * Built from GameState.BattleStageInfo: energy, block, the hand with each card's
+ * resolved damage and block, and the monsters' HP, block and incoming damage.
+ * Of the powers only the ones that change the arithmetic of a turn are kept:
+ * Vulnerable and Intangible on monsters (the player's own powers are already in
+ * the card and intent numbers). Card draw, card-applied debuffs and multi-hit
+ * cards are not modelled.
+ */
+public final class CombatModel {
+    public static final int TARGET_NONE = 0;
+    public static final int TARGET_ENEMY = 1;
+    public static final int TARGET_ALL = 2;
+
+    final int energy;
+    final int playerHp;
+    final int playerBlock;
+
+    final int[] handIndex;
+    final int[] cost;
+    final int[] damage;
+    final int[] block;
+    final int[] target;
+    final boolean[] power;
+
+    final int[] monsterHp;
+    final int[] monsterBlock;
+    final int[] incoming;
+    final boolean[] vulnerable;
+    final boolean[] intangible;
+
+    private CombatModel(Builder builder) {
+        energy = builder.energy;
+        playerHp = builder.playerHp;
+        playerBlock = builder.playerBlock;
+
+        int cards = builder.cards.size();
+        handIndex = new int[cards];
+        cost = new int[cards];
+        damage = new int[cards];
+        block = new int[cards];
+        target = new int[cards];
+        power = new boolean[cards];
+        for (int i = 0; i < cards; i++) {
+            int[] card = builder.cards.get(i);
+            handIndex[i] = card[0];
+            cost[i] = card[1];
+            damage[i] = card[2];
+            block[i] = card[3];
+            target[i] = card[4];
+            power[i] = card[5] != 0;
+        }
+
+        int monsters = builder.monsters.size();
+        monsterHp = new int[monsters];
+        monsterBlock = new int[monsters];
+        incoming = new int[monsters];
+        vulnerable = new boolean[monsters];
+        intangible = new boolean[monsters];
+        for (int i = 0; i < monsters; i++) {
+            int[] monster = builder.monsters.get(i);
+            monsterHp[i] = monster[0];
+            monsterBlock[i] = monster[1];
+            incoming[i] = monster[2];
+            vulnerable[i] = monster[3] != 0;
+            intangible[i] = monster[4] != 0;
+        }
+    }
+
+    /**
+     * Model the player's turn of a combat state
+     * @return The model, or null if the state is not a combat state
+     */
+    public static CombatModel of(GameState state) {
+        if (state.stage != GameStageType.BATTLE || !(state.stageInfo instanceof GameState.BattleStageInfo)) {
+            return null;
+        }
+        GameState.BattleStageInfo battle = (GameState.BattleStageInfo) state.stageInfo;
+        Builder builder = new Builder(battle.energy, state.currentHp, battle.block);
+
+        for (int i = 0; i < state.hand.size(); i++) {
+            GameState.CardInfo card = state.hand.get(i);
+            // Unplayable cards and curses cannot be part of a line
+            if (!card.canUse || card.cost < -1) {
+                continue;
+            }
+            int target = "ALL_ENEMY".equals(card.target) ? TARGET_ALL
+                    : "ENEMY".equals(card.target) || "SELF_AND_ENEMY".equals(card.target) ? TARGET_ENEMY
+                    : TARGET_NONE;
+            boolean attack = "ATTACK".equals(card.type);
+            builder.card(i, card.cost, attack ? card.damage : 0, card.block, target, "POWER".equals(card.type));
+        }
+
+        for (GameState.CustomMonsterInfo monster : battle.monsters) {
+            int incoming = monster.intentDamage > 0 ? monster.intentDamage * Math.max(1, monster.intentHits) : 0;
+            builder.monster(monster.currentHp, monster.block, incoming,
+                    hasPower(monster.powerIds, "Vulnerable"), hasPower(monster.powerIds, "Intangible"));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Matches the power's ID, since the names shown to the LLM are localized
+     */
+    private static boolean hasPower(List<String> powerIds, String id) {
+        return powerIds != null && powerIds.contains(id);
+    }
+
+    /**
+     * @return Cards in the model's hand
+     */
+    public int cardCount() {
+        return cost.length;
+    }
+
+    /**
+     * @return Monsters in the model
+     */
+    public int monsterCount() {
+        return monsterHp.length;
+    }
+
+    /**
+     * Builds a model directly, e.g. for benchmarks
+     */
+    public static class Builder {
+        private final int energy;
+        private final int playerHp;
+        private final int playerBlock;
+        private final List<int[]> cards = new ArrayList<>();
+        private final List<int[]> monsters = new ArrayList<>();
+
+        public Builder(int energy, int playerHp, int playerBlock) {
+            this.energy = energy;
+            this.playerHp = playerHp;
+            this.playerBlock = playerBlock;
+        }
+
+        /**
+         * @param handIndex Index of the card in the hand, used in the commands
+         * @param cost Energy cost, -1 for X cards
+         * @param target TARGET_NONE, TARGET_ENEMY or TARGET_ALL
+         */
+        public Builder card(int handIndex, int cost, int damage, int block, int target, boolean power) {
+            cards.add(new int[] {handIndex, cost, damage, block, target, power ? 1 : 0});
+            return this;
+        }
+
+        /**
+         * @param incoming Total damage the monster's intent deals this turn
+         */
+        public Builder monster(int hp, int block, int incoming, boolean vulnerable, boolean intangible) {
+            monsters.add(new int[] {hp, block, incoming, vulnerable ? 1 : 0, intangible ? 1 : 0});
+            return this;
+        }
+
+        public CombatModel build() {
+            if (cards.size() > 63) {
+                throw new IllegalArgumentException("Too many cards: " + cards.size());
+            }
+            return new CombatModel(this);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package llmthespire.search;
+
+import llmthespire.game.CommandParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ranks the legal plays of a turn by searching the rest of the turn in a CombatModel.
+ *
+ * Each first play (and END_TURN) is searched as its own fork-join task, in
+ * parallel. Below the first play the model is deterministic, so the search is a
+ * max over play sequences rather than an expectimax; since no modelled effect
+ * depends on the order of the later plays, only sequences in hand order are
+ * expanded and copies of the same card are interchangeable. A line is scored
+ * when the turn ends: all monsters dead beats surviving, which beats dying, then
+ * damage dealt, kills and HP lost decide. The search stops expanding at the time
+ * budget and ranks by the best line found so far.
+ */
+public class CombatSearch {
+    private static final double WIN = 1_000_000;
+    private static final double DEATH = -1_000_000;
+    private static final int DEADLINE_CHECK_MASK = 0xFF;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism Worker threads of the search pool
+     */
+    public CombatSearch(int parallelism) {
+        pool = new ForkJoinPool(Math.max(1, parallelism), p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setDaemon(true);
+            thread.setName("llm-combat-search-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Rank every first play of the turn
+     * @param budgetMillis Time after which no further lines are expanded
+     */
+    public Result search(CombatModel model, long budgetMillis) {
+        long start = System.nanoTime();
+        long deadline = start + budgetMillis * 1_000_000L;
+        LongAdder nodes = new LongAdder();
+
+        List<RootTask> roots = new ArrayList<>();
+        roots.add(new RootTask(model, -1, -1, deadline, nodes));
+        for (int card = 0; card < model.cardCount(); card++) {
+            if (!affordable(model, card, model.energy)) {
+                continue;
+            }
+            if (needsTarget(model, card)) {
+                for (int monster = 0; monster < model.monsterCount(); monster++) {
+                    roots.add(new RootTask(model, card, monster, deadline, nodes));
+                }
+            } else {
+                roots.add(new RootTask(model, card, -1, deadline, nodes));
+            }
+        }
+
+        pool.invoke(new RecursiveTask<Void>() {
+            @Override
+            protected Void compute() {
+                ForkJoinTask.invokeAll(roots);
+                return null;
+            }
+        });
+
+        List<RankedPlay> plays = new ArrayList<>(roots.size());
+        boolean complete = true;
+        for (RootTask root : roots) {
+            plays.add(root.getRawResult());
+            complete &= root.complete;
+        }
+        Collections.sort(plays, (a, b) -> Double.compare(b.value, a.value));
+        return new Result(plays, nodes.sum(), System.nanoTime() - start, complete);
+    }
+
+    /**
+     * Stop the worker threads
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static boolean affordable(CombatModel model, int card, int energy) {
+        return model.cost[card] <= energy;
+    }
+
+    private static boolean needsTarget(CombatModel model, int card) {
+        return model.target[card] == CombatModel.TARGET_ENEMY && model.damage[card] > 0;
+    }
+
+    /**
+     * Searches all lines that start with one play
+     */
+    private static class RootTask extends RecursiveTask<RankedPlay> {
+        private final CombatModel model;
+        private final int card;
+        private final int monster;
+        private final long deadline;
+        private final LongAdder nodes;
+        private final int[] previousCopy;
+        private long visited;
+        private boolean complete = true;
+
+        private RootTask(CombatModel model, int card, int monster, long deadline, LongAdder nodes) {
+            this.model = model;
+            this.card = card;
+            this.monster = monster;
+            this.deadline = deadline;
+            this.nodes = nodes;
+            this.previousCopy = previousCopies(model);
+        }
+
+        @Override
+        protected RankedPlay compute() {
+            Line line = new Line(model);
+            double value;
+            if (card < 0) {
+                value = line.endTurn(model);
+            } else {
+                line.play(model, card, monster);
+                value = expand(line, 0);
+            }
+            nodes.add(visited);
+            return new RankedPlay(command(), value);
+        }
+
+        /**
+         * Best value of the line ending here or continuing with any later card
+         */
+        private double expand(Line line, int from) {
+            visited++;
+            double best = line.endTurn(model);
+            if ((visited & DEADLINE_CHECK_MASK) == 0 && System.nanoTime() > deadline) {
+                complete = false;
+            }
+            if (!complete) {
+                return best;
+            }
+
+            for (int next = from; next < model.cardCount(); next++) {
+                if (line.played(next) || !affordable(model, next, line.energy)) {
+                    continue;
+                }
+                // A copy is only played after the copies before it, so each set of copies is tried once
+                int copy = previousCopy[next];
+                if (copy >= 0 && !line.played(copy)) {
+                    continue;
+                }
+                if (needsTarget(model, next)) {
+                    for (int target = 0; target < model.monsterCount(); target++) {
+                        if (line.hp[target] > 0) {
+                            best = Math.max(best, expand(line.then(model, next, target), next + 1));
+                        }
+                    }
+                } else {
+                    best = Math.max(best, expand(line.then(model, next, -1), next + 1));
+                }
+            }
+            return best;
+        }
+
+        private String command() {
+            if (card < 0) {
+                return "END_TURN";
+            }
+            return "PLAY_CARD " + model.handIndex[card] + (monster >= 0 ? " " + monster : "");
+        }
+
+        private static int[] previousCopies(CombatModel model) {
+            int[] previous = new int[model.cardCount()];
+            for (int i = 0; i < previous.length; i++) {
+                previous[i] = -1;
+                for (int j = i - 1; j >= 0; j--) {
+                    if (model.cost[i] == model.cost[j] && model.damage[i] == model.damage[j]
+                            && model.block[i] == model.block[j] && model.target[i] == model.target[j]
+                            && model.power[i] == model.power[j]) {
+                        previous[i] = j;
+                        break;
+                    }
+                }
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * The state of the turn after some plays
+     */
+    private static class Line {
+        private int energy;
+        private int block;
+        private final int[] hp;
+        private final int[] monsterBlock;
+        private long playedMask;
+        private int dealt;
+        private int kills;
+        private int powers;
+
+        private Line(CombatModel model) {
+            energy = model.energy;
+            block = model.playerBlock;
+            hp = model.monsterHp.clone();
+            monsterBlock = model.monsterBlock.clone();
+        }
+
+        private Line(Line other) {
+            energy = other.energy;
+            block = other.block;
+            hp = other.hp.clone();
+            monsterBlock = other.monsterBlock.clone();
+            playedMask = other.playedMask;
+            dealt = other.dealt;
+            kills = other.kills;
+            powers = other.powers;
+        }
+
+        private boolean played(int card) {
+            return (playedMask & (1L << card)) != 0;
+        }
+
+        private Line then(CombatModel model, int card, int target) {
+            Line next = new Line(this);
+            next.play(model, card, target);
+            return next;
+        }
+
+        private void play(CombatModel model, int card, int target) {
+            // X cards spend all energy and repeat their effect once per energy
+            int times = 1;
+            if (model.cost[card] < 0) {
+                times = energy;
+                energy = 0;
+            } else {
+                energy -= model.cost[card];
+            }
+            playedMask |= 1L << card;
+            block += model.block[card] * times;
+            if (model.power[card]) {
+                powers++;
+            }
+
+            int damage = model.damage[card];
+            if (damage <= 0) {
+                return;
+            }
+            for (int i = 0; i < times; i++) {
+                if (model.target[card] == CombatModel.TARGET_ALL) {
+                    for (int monster = 0; monster < hp.length; monster++) {
+                        hit(model, monster, damage);
+                    }
+                } else if (target >= 0) {
+                    hit(model, target, damage);
+                }
+            }
+        }
+
+        private void hit(CombatModel model, int monster, int damage) {
+            if (hp[monster] <= 0) {
+                return;
+            }
+            if (model.vulnerable[monster]) {
+                damage = damage * 3 / 2;
+            }
+            if (model.intangible[monster]) {
+                damage = Math.min(damage, 1);
+            }
+            int blocked = Math.min(monsterBlock[monster], damage);
+            monsterBlock[monster] -= blocked;
+            int lost = Math.min(hp[monster], damage - blocked);
+            hp[monster] -= lost;
+            dealt += lost;
+            if (hp[monster] == 0) {
+                kills++;
+            }
+        }
+
+        /**
+         * Value of ending the turn after this line
+         */
+        private double endTurn(CombatModel model) {
+            int incoming = 0;
+            for (int monster = 0; monster < hp.length; monster++) {
+                if (hp[monster] > 0) {
+                    incoming += model.incoming[monster];
+                }
+            }
+            double score = dealt + kills * 15 + powers * 4;
+            if (kills == hp.length && hp.length > 0) {
+                return WIN + score;
+            }
+            int hpLoss = Math.max(0, incoming - block);
+            if (hpLoss >= model.playerHp) {
+                return DEATH + score;
+            }
+            return score - hpLoss * 2;
+        }
+    }
+
+    /**
+     * How a line ends
+     */
+    public enum Outcome {
+        WIN, SURVIVE, DIE
+    }
+
+    /**
+     * A first play with the value of the best line that starts with it
+     */
+    public static class RankedPlay {
+        private final String command;
+        private final double value;
+
+        private RankedPlay(String command, double value) {
+            this.command = command;
+            this.value = value;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public Outcome getOutcome() {
+            return value >= WIN / 2 ? Outcome.WIN : value <= DEATH / 2 ? Outcome.DIE : Outcome.SURVIVE;
+        }
+
+        @Override
+        public String toString() {
+            Outcome outcome = getOutcome();
+            double score = value - (outcome == Outcome.WIN ? WIN : outcome == Outcome.DIE ? DEATH : 0);
+            return command + " (" + outcome + ", " + String.format("%.0f", score) + ")";
+        }
+    }
+
+    /**
+     * The ranked plays of one search
+     */
+    public static class Result {
+        private final List<RankedPlay> plays;
+        private final long nodes;
+        private final long elapsedNanos;
+        private final boolean complete;
+
+        private Result(List<RankedPlay> plays, long nodes, long elapsedNanos, boolean complete) {
+            this.plays = plays;
+            this.nodes = nodes;
+            this.elapsedNanos = elapsedNanos;
+            this.complete = complete;
+        }
+
+        /**
+         * @return All first plays, best first
+         */
+        public List<RankedPlay> getPlays() {
+            return plays;
+        }
+
+        public RankedPlay getBest() {
+            return plays.isEmpty() ? null : plays.get(0);
+        }
+
+        /**
+         * The ranked play a command refers to. An attack without a target counts as
+         * aimed at the first monster, which is what ActionExecutor picks for it.
+         * @return The play, or null if the command is not one the model knows (e.g. a potion)
+         */
+        public RankedPlay find(String command) {
+            CommandParser.Command parsed = CommandParser.parse(command);
+            String wanted;
+            if (parsed.getType() == CommandParser.CommandType.END_TURN) {
+                wanted = "END_TURN";
+            } else if (parsed.getType() == CommandParser.CommandType.PLAY_CARD) {
+                wanted = "PLAY_CARD " + parsed.getParameter(0);
+            } else {
+                return null;
+            }
+            String targeted = wanted + " " + Math.max(0, parsed.getParameter(1));
+            for (RankedPlay play : plays) {
+                if (play.command.equals(wanted) || play.command.equals(targeted)) {
+                    return play;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return Lines evaluated
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return False if the time budget ran out before every line was evaluated
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public String toString() {
+            return plays.size() + " plays, " + nodes + " nodes in " + elapsedNanos / 1000 + "us" +
+                   (complete ? "" : " (budget exhausted)") + ", best " + getBest();
+        }
+    }
+}